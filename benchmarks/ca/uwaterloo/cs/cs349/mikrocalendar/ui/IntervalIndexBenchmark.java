@@ -0,0 +1,233 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LatencyHistogram;
+
+/**
+ * This class measures how long it takes to build an {@link IntervalIndex} of
+ * many events and to query it, and checks every query against a scan of all
+ * of the events. The events are spread randomly over a year and last up to a
+ * day; some end at or before their start. After the first round of queries,
+ * a tenth of the events are removed and the queries are checked again.
+ * <p>
+ * The arguments are the number of events (1000000 by default) and the number
+ * of queries (1000 by default). The events and queries are generated from a
+ * fixed seed, so that runs can be compared. The benchmark exits with a
+ * status of 1 if any query does not match the scan.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class IntervalIndexBenchmark {
+
+	/**
+	 * The number of events that are indexed by default.
+	 */
+	private static final int DEFAULT_EVENTS = 1000000;
+
+	/**
+	 * The number of queries that are checked by default.
+	 */
+	private static final int DEFAULT_QUERIES = 1000;
+
+	/**
+	 * The number of milliseconds in an hour.
+	 */
+	private static final long HOUR = 60L * 60L * 1000L;
+
+	/**
+	 * The number of milliseconds that the events are spread over.
+	 */
+	private static final long SPAN = 365L * 24L * HOUR;
+
+	/**
+	 * The seed that the events and queries are generated from.
+	 */
+	private static final long SEED = 349L;
+
+	/**
+	 * Instances of this class cannot be created.
+	 */
+	private IntervalIndexBenchmark() {
+		// No-op.
+	}
+
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args
+	 *            the number of events and the number of queries
+	 */
+	public static void main(String[] args) {
+		int eventCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_EVENTS;
+		int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_QUERIES;
+		Random random = new Random(SEED);
+
+		final long[] starts = new long[eventCount];
+		final long[] ends = new long[eventCount];
+		for (int i = 0; i < eventCount; i++) {
+			starts[i] = (long) (random.nextDouble() * SPAN);
+			ends[i] = random.nextInt(20) == 0
+					? starts[i] - random.nextInt(2)
+					: starts[i] + 1L + (long) (random.nextDouble() * 24L * HOUR);
+		}
+
+		// Events are added in order of id, so events with the same start time
+		// are returned in order of id.
+		Integer[] order = new Integer[eventCount];
+		for (int i = 0; i < eventCount; i++) {
+			order[i] = Integer.valueOf(i);
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				long startA = starts[a.intValue()];
+				long startB = starts[b.intValue()];
+				if (startA != startB) {
+					return startA < startB ? -1 : 1;
+				}
+				return a.compareTo(b);
+			}
+		});
+
+		IntervalIndex<Integer> index = new IntervalIndex<Integer>();
+		long buildStart = System.nanoTime();
+		for (int i = 0; i < eventCount; i++) {
+			index.add(Integer.valueOf(i), starts[i], ends[i]);
+		}
+		long buildNanos = System.nanoTime() - buildStart;
+		System.out.println("Events: " + index.size());
+		System.out.printf("Build: %.2f ms%n", buildNanos / 1e6);
+
+		boolean[] removed = new boolean[eventCount];
+		int mismatches = check(index, order, starts, ends, removed, queryCount, random, "All events");
+
+		long removeStart = System.nanoTime();
+		for (int i = 0; i < eventCount; i += 10) {
+			index.remove(Integer.valueOf(i));
+			removed[i] = true;
+		}
+		long removeNanos = System.nanoTime() - removeStart;
+		System.out.printf("Remove %d: %.2f ms%n", (eventCount + 9) / 10, removeNanos / 1e6);
+
+		mismatches += check(index, order, starts, ends, removed, queryCount, random, "After removal");
+
+		if (mismatches > 0) {
+			System.out.println(mismatches + " queries did not match the scan");
+			System.exit(1);
+		}
+		System.out.println("Every query matched the scan");
+	}
+
+	/**
+	 * Runs random queries against the index and against a scan of the events,
+	 * and prints how long they took.
+	 * 
+	 * @param index
+	 *            the {@link IntervalIndex}
+	 * @param order
+	 *            the ids of the events in the order the index returns them
+	 * @param starts
+	 *            the start time of each event
+	 * @param ends
+	 *            the end time of each event
+	 * @param removed
+	 *            whether or not each event has been removed from the index
+	 * @param queryCount
+	 *            the number of queries
+	 * @param random
+	 *            the {@link Random} to generate the queries with
+	 * @param label
+	 *            the label of the printed results
+	 * @return the number of queries that did not match the scan
+	 */
+	private static int check(IntervalIndex<Integer> index, Integer[] order, long[] starts, long[] ends,
+			boolean[] removed, int queryCount, Random random, String label) {
+		LatencyHistogram indexLatencies = new LatencyHistogram();
+		LatencyHistogram scanLatencies = new LatencyHistogram();
+		int mismatches = 0;
+
+		for (int i = 0; i < queryCount; i++) {
+			long start = (long) (random.nextDouble() * SPAN);
+			long end = start + (long) (random.nextDouble() * 8L * HOUR);
+
+			long queryStart = System.nanoTime();
+			List<Integer> found = index.findOverlapping(start, end);
+			boolean any = index.overlapsAny(start, end);
+			List<Integer> covering = index.findAt(start);
+			indexLatencies.record(System.nanoTime() - queryStart);
+
+			long scanStart = System.nanoTime();
+			List<Integer> expected = scan(order, starts, ends, removed, start, end);
+			List<Integer> expectedCovering = scan(order, starts, ends, removed, start, start + 1L);
+			scanLatencies.record(System.nanoTime() - scanStart);
+
+			if (!found.equals(expected) || any != !expected.isEmpty()
+					|| !covering.equals(expectedCovering)) {
+				mismatches++;
+			}
+		}
+
+		System.out.printf("%s: index p50 %.3f ms, p99 %.3f ms; scan p50 %.3f ms, p99 %.3f ms%n",
+				label, indexLatencies.getP50(), indexLatencies.getP99(),
+				scanLatencies.getP50(), scanLatencies.getP99());
+		return mismatches;
+	}
+
+	/**
+	 * Returns the events that overlap a window of time by checking every
+	 * event, treating them the same way that {@link IntervalIndex} does.
+	 * 
+	 * @param order
+	 *            the ids of the events in order of start time
+	 * @param starts
+	 *            the start time of each event
+	 * @param ends
+	 *            the end time of each event
+	 * @param removed
+	 *            whether or not each event has been removed
+	 * @param start
+	 *            the start of the window
+	 * @param end
+	 *            the end of the window
+	 * @return the events
+	 */
+	private static List<Integer> scan(Integer[] order, long[] starts, long[] ends, boolean[] removed,
+			long start, long end) {
+		long windowEnd = end > start ? end : start + 1L;
+		List<Integer> events = new ArrayList<Integer>();
+		for (Integer id : order) {
+			int i = id.intValue();
+			long eventEnd = ends[i] > starts[i] ? ends[i] : starts[i] + 1L;
+			if (!removed[i] && starts[i] < windowEnd && eventEnd > start) {
+				events.add(id);
+			}
+		}
+		return events;
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * MikroCalendar Date/Time Picker
+ * User interface for selecting a date and time.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.datetimepicker;
+
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.event.WindowListener;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+
+import javax.swing.SwingUtilities;
+
+import org.joda.time.DateTime;
+
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LatencyHistogram;
+
+/**
+ * This class measures how long it takes to open a
+ * {@link DateTimePickerDialog} and how much memory each open allocates. Each
+ * open creates the dialog, shows it, and closes it as soon as it has opened,
+ * the same way that {@link DateTimePickerImpl} does. The first opens are not
+ * measured so that class loading is left out.
+ * <p>
+ * The arguments are the number of opens to measure (200 by default) and,
+ * optionally, <code>--no-pool</code> to build a new dialog for every open
+ * instead of reusing one. It needs a display.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class DateTimePickerBenchmark {
+
+	/**
+	 * The number of opens that are not measured.
+	 */
+	private static final int WARMUP_OPENS = 20;
+
+	/**
+	 * The number of opens that are measured by default.
+	 */
+	private static final int DEFAULT_OPENS = 200;
+
+	/**
+	 * Instances of this class cannot be created.
+	 */
+	private DateTimePickerBenchmark() {
+		// No-op.
+	}
+
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args
+	 *            the number of opens to measure, and <code>--no-pool</code>
+	 *            to build a new dialog for every open
+	 * @throws InterruptedException
+	 *             Thrown if the benchmark is interrupted.
+	 * @throws InvocationTargetException
+	 *             Thrown if a dialog cannot be opened.
+	 */
+	public static void main(String[] args) throws InterruptedException, InvocationTargetException {
+		int opens = DEFAULT_OPENS;
+		boolean pooled = true;
+		for (String arg : args) {
+			if (arg.equals("--no-pool")) {
+				pooled = false;
+			} else {
+				opens = Integer.parseInt(arg);
+			}
+		}
+		
+		final boolean usePool = pooled;
+		final LatencyHistogram latencies = new LatencyHistogram();
+		final long[] allocated = new long[1];
+		final DateTime dateTime = new DateTime(2011, 7, 15, 13, 30, 0, 0);
+		
+		for (int i = -WARMUP_OPENS; i < opens; i++) {
+			final boolean measured = i >= 0;
+			SwingUtilities.invokeAndWait(new Runnable() {
+				@Override
+				public void run() {
+					long startBytes = getAllocatedBytes();
+					long start = System.nanoTime();
+					
+					open(usePool, dateTime);
+					
+					if (measured) {
+						latencies.record(System.nanoTime() - start);
+						allocated[0] += getAllocatedBytes() - startBytes;
+					}
+				}
+			});
+		}
+		
+		System.out.println((usePool ? "Pooled" : "Unpooled") + " opens: " + latencies.getCount());
+		System.out.printf("Open latency: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+				latencies.getP50(), latencies.getP99(), latencies.getMax());
+		if (getAllocatedBytes() < 0) {
+			System.out.println("Allocation per open: not supported by this JVM");
+		} else {
+			System.out.println("Allocation per open: " + allocated[0] / opens + " bytes");
+		}
+		
+		System.exit(0);
+	}
+
+	/**
+	 * Opens a {@link DateTimePickerDialog} and closes it as soon as it has
+	 * opened. This must be called on the event dispatching thread, and
+	 * returns once the dialog has closed.
+	 * 
+	 * @param usePool
+	 *            true if the dialog should be reused
+	 * @param dateTime
+	 *            the {@link DateTime} to open the dialog with
+	 */
+	private static void open(boolean usePool, DateTime dateTime) {
+		final DateTimePickerDialog dialog = usePool
+				? DateTimePickerDialog.create(dateTime)
+				: new DateTimePickerDialog(dateTime);
+		
+		WindowListener openListener = new WindowAdapter() {
+			@Override
+			public void windowOpened(WindowEvent e) {
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						dialog.dispose();
+					}
+				});
+			}
+		};
+		dialog.addWindowListener(openListener);
+		
+		dialog.pack();
+		dialog.setLocationRelativeTo(null);
+		dialog.setResizable(false);
+		dialog.setVisible(true);
+		
+		dialog.removeWindowListener(openListener);
+		if (usePool) {
+			dialog.release();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes that the current thread has allocated.
+	 * 
+	 * @return the number of bytes, or -1 if this JVM cannot measure it
+	 */
+	private static long getAllocatedBytes() {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (threadBean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(
+					Thread.currentThread().getId());
+		}
+		return -1L;
+	}
+
+}
@@ -0,0 +1,207 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.SwingWorker;
+
+import ca.uwaterloo.cs.cs349.mikrocalendar.events.MikroEventManager;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.SessionPool;
+
+/**
+ * This {@link SwingWorker} loads events from a {@link MikroEventManager} in
+ * pages on a background thread, and hands each page to the event dispatching
+ * thread as soon as it arrives. The first page is kept small so that the
+ * first screen of events can be shown right away, while the remaining events
+ * fill in progressively.
+ * <p>
+ * Subclasses decide how a page of events is fetched from the
+ * {@link MikroEventManager} and what to do with each page once it reaches the
+ * event dispatching thread.
+ * <p>
+ * If the {@link MikroEventManager} is the {@link MikroEventManager} of a
+ * {@link SessionPool.Session}, the session is told how many events have been
+ * loaded, so that its estimated heap size follows the events it holds.
+ * 
+ * @author Terry Yiu
+ * 
+ * @param <E>
+ *            the type of event that is loaded
+ */
+public abstract class ChunkedEventLoader<E> extends SwingWorker<Integer, List<E>> {
+
+	/**
+	 * The default number of events in the first page.
+	 */
+	public static final int DEFAULT_FIRST_PAGE_SIZE = 50;
+
+	/**
+	 * The default number of events in every page after the first.
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+
+	/**
+	 * The {@link MikroEventManager} to load events from.
+	 */
+	private final MikroEventManager mikroEventManager;
+
+	/**
+	 * The number of events in the first page.
+	 */
+	private final int firstPageSize;
+
+	/**
+	 * The number of events in every page after the first.
+	 */
+	private final int pageSize;
+
+	/**
+	 * The number of events that have been fetched so far.
+	 */
+	private volatile int loaded;
+
+	/**
+	 * Creates a new {@link ChunkedEventLoader} with the default page sizes.
+	 * 
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager} to load events from
+	 */
+	public ChunkedEventLoader(MikroEventManager mikroEventManager) {
+		this(mikroEventManager, DEFAULT_FIRST_PAGE_SIZE, DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * Creates a new {@link ChunkedEventLoader} with the specified page sizes.
+	 * 
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager} to load events from
+	 * @param firstPageSize
+	 *            the number of events in the first page
+	 * @param pageSize
+	 *            the number of events in every page after the first
+	 */
+	public ChunkedEventLoader(MikroEventManager mikroEventManager, int firstPageSize, int pageSize) {
+		if (mikroEventManager == null) {
+			throw new IllegalArgumentException("MikroEventManager cannot be null.");
+		}
+
+		if (firstPageSize <= 0 || pageSize <= 0) {
+			throw new IllegalArgumentException("Page sizes must be positive.");
+		}
+
+		this.mikroEventManager = mikroEventManager;
+		this.firstPageSize = firstPageSize;
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Fetches a page of events from the {@link MikroEventManager}. This method
+	 * is called on a background thread. Returning fewer events than requested
+	 * signals that there are no more events.
+	 * 
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager}
+	 * @param offset
+	 *            the index of the first event in the page
+	 * @param limit
+	 *            the maximum number of events in the page
+	 * @return the events in the page
+	 * @throws Exception
+	 *             Thrown if the events could not be fetched.
+	 */
+	protected abstract List<E> fetchEvents(MikroEventManager mikroEventManager, int offset, int limit) throws Exception;
+
+	/**
+	 * Called on the event dispatching thread with events that have been
+	 * fetched. The events are in the order that they were fetched in.
+	 * 
+	 * @param events
+	 *            the events
+	 */
+	protected abstract void eventsLoaded(List<E> events);
+
+	/**
+	 * Called on the event dispatching thread once all of the events have been
+	 * loaded, loading has failed, or loading has been cancelled. By default,
+	 * this method does nothing.
+	 * 
+	 * @param count
+	 *            the number of events that were loaded
+	 * @param exception
+	 *            the {@link Exception} that caused loading to fail, or null
+	 *            if loading did not fail
+	 */
+	protected void loadingFinished(int count, Exception exception) {
+		// No-op.
+	}
+
+	@Override
+	protected Integer doInBackground() throws Exception {
+		int offset = 0;
+		int limit = firstPageSize;
+		SessionPool.Session session = SessionPool.getSession(mikroEventManager);
+
+		while (!isCancelled()) {
+			List<E> events = fetchEvents(mikroEventManager, offset, limit);
+			if (events == null || events.isEmpty()) {
+				break;
+			}
+
+			publish(events);
+			offset += events.size();
+			loaded = offset;
+			if (session != null) {
+				session.eventsLoaded(offset);
+			}
+
+			if (events.size() < limit) {
+				break;
+			}
+			limit = pageSize;
+		}
+
+		return Integer.valueOf(offset);
+	}
+
+	@Override
+	protected void process(List<List<E>> pages) {
+		for (List<E> events : pages) {
+			eventsLoaded(events);
+		}
+	}
+
+	@Override
+	protected void done() {
+		try {
+			loadingFinished(get().intValue(), null);
+		} catch (CancellationException e) {
+			loadingFinished(loaded, null);
+		} catch (InterruptedException e) {
+			loadingFinished(loaded, e);
+		} catch (ExecutionException e) {
+			loadingFinished(loaded, e.getCause() instanceof Exception
+					? (Exception) e.getCause() : e);
+		}
+	}
+
+}
@@ -0,0 +1,162 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+
+import org.joda.time.DateTime;
+
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.datetimepicker.DateTimePickerDialog;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LoginDialogFactory;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LoginExecutor;
+
+/**
+ * This class builds the login dialogs and the {@link DateTimePickerDialog}
+ * ahead of time, while the application is starting up, so that they open
+ * instantly when they are first needed. Joda-Time, whose time zone data is
+ * slow to load, is warmed up on a background thread. The dialogs themselves
+ * must be built on the event dispatching thread, so each one is built in its
+ * own event, letting user input be handled in between.
+ * <p>
+ * Pre-warming is optional. It only happens if {@link #start(String...)} is
+ * called, and it can be turned off by setting the
+ * <code>mikrocalendar.prewarm</code> system property to false.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class DialogPrewarmer {
+
+	/**
+	 * The {@link Logger} that failures to pre-warm are logged to.
+	 */
+	private static final Logger logger = Logger.getLogger(DialogPrewarmer.class.getName());
+
+	/**
+	 * true once pre-warming has been started.
+	 */
+	private static boolean started;
+
+	/**
+	 * Instances of this class cannot be created.
+	 */
+	private DialogPrewarmer() {
+		// No-op.
+	}
+
+	/**
+	 * Starts pre-warming the login dialogs of the specified backends and the
+	 * {@link DateTimePickerDialog}. This returns immediately, and only the
+	 * first call has any effect.
+	 * 
+	 * @param backendNames
+	 *            the names of the backends whose login dialogs should be
+	 *            built, such as "local" or "twitter". The default backend is
+	 *            used if none are specified.
+	 */
+	public static synchronized void start(String... backendNames) {
+		if (started
+				|| !Boolean.valueOf(System.getProperty("mikrocalendar.prewarm", "true")).booleanValue()) {
+			return;
+		}
+		started = true;
+		
+		final Queue<Runnable> steps = new LinkedList<Runnable>();
+		if (backendNames.length == 0) {
+			backendNames = new String[]{LoginDialogFactory.DEFAULT_BACKEND};
+		}
+		for (final String backendName : backendNames) {
+			steps.add(new Runnable() {
+				@Override
+				public void run() {
+					LoginDialogFactory.prewarm(backendName);
+				}
+			});
+		}
+		steps.add(new Runnable() {
+			@Override
+			public void run() {
+				DateTimePickerDialog.prewarm();
+			}
+		});
+		
+		LoginExecutor.getFanOutExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					// Load the chronology and the default time zone.
+					new DateTime().toString();
+				} catch (RuntimeException e) {
+					logger.log(Level.WARNING, "Could not pre-warm Joda-Time.", e);
+				}
+				
+				SwingUtilities.invokeLater(new Step(steps));
+			}
+		});
+	}
+
+	/**
+	 * This {@link Runnable} runs the next step of pre-warming on the event
+	 * dispatching thread, then posts itself again for the step after that.
+	 */
+	private static class Step implements Runnable {
+
+		/**
+		 * The steps that are left.
+		 */
+		private final Queue<Runnable> steps;
+
+		/**
+		 * Creates a new {@link Step}.
+		 * 
+		 * @param steps
+		 *            the steps that are left
+		 */
+		public Step(Queue<Runnable> steps) {
+			this.steps = steps;
+		}
+
+		@Override
+		public void run() {
+			Runnable step = steps.poll();
+			if (step == null) {
+				return;
+			}
+			
+			try {
+				step.run();
+			} catch (RuntimeException e) {
+				// The dialog is simply built when it is first needed.
+				logger.log(Level.WARNING, "Could not pre-warm a dialog.", e);
+			}
+			
+			if (!steps.isEmpty()) {
+				SwingUtilities.invokeLater(this);
+			}
+		}
+
+	}
+
+}
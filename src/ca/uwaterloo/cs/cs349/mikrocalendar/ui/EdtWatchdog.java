@@ -0,0 +1,269 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui;
+
+import java.awt.Window;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.swing.SwingUtilities;
+
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LatencyHistogram;
+
+/**
+ * This class detects when the event dispatching thread is blocked for longer
+ * than a threshold. A background thread regularly posts a heartbeat to the
+ * event dispatching thread while any window is displayable. No heartbeats are
+ * posted once every window has been disposed of, so that the AWT can shut
+ * down and the program can exit. If a heartbeat is not handled within the
+ * threshold, the stack of the event dispatching thread is captured and
+ * logged, so that the code causing the stall can be found. When the stall
+ * ends, its duration is recorded in a {@link LatencyHistogram}, which is
+ * logged and exposed through JMX.
+ * <p>
+ * The threshold can be configured in milliseconds with the
+ * <code>mikrocalendar.edt.threshold</code> system property, and the watchdog
+ * can be turned off by setting <code>mikrocalendar.edt.watchdog</code> to
+ * false.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class EdtWatchdog {
+
+	/**
+	 * The default number of milliseconds that the event dispatching thread may
+	 * be blocked for before it is considered stalled.
+	 */
+	private static final long DEFAULT_THRESHOLD = 100L;
+
+	/**
+	 * The {@link Logger} that stalls are logged to.
+	 */
+	private static final Logger logger = Logger.getLogger(EdtWatchdog.class.getName());
+
+	/**
+	 * The installed {@link EdtWatchdog}, or null if none has been installed.
+	 */
+	private static EdtWatchdog instance;
+
+	/**
+	 * The number of nanoseconds that the event dispatching thread may be
+	 * blocked for before it is considered stalled.
+	 */
+	private final long threshold;
+
+	/**
+	 * The durations of the stalls, in nanoseconds.
+	 */
+	private final LatencyHistogram stalls = new LatencyHistogram();
+
+	/**
+	 * The time, in nanoseconds, at which the pending heartbeat was posted, or
+	 * 0 if there is no pending heartbeat.
+	 */
+	private volatile long pendingSince;
+
+	/**
+	 * true if the stack of the current stall has already been captured.
+	 */
+	private volatile boolean stallReported;
+
+	/**
+	 * The event dispatching thread, as seen when the watchdog was started or
+	 * by the last heartbeat.
+	 */
+	private volatile Thread eventDispatchThread;
+
+	/**
+	 * Creates a new {@link EdtWatchdog}.
+	 * 
+	 * @param threshold
+	 *            the number of milliseconds that the event dispatching thread
+	 *            may be blocked for before it is considered stalled
+	 */
+	private EdtWatchdog(long threshold) {
+		this.threshold = threshold * 1000000L;
+	}
+
+	/**
+	 * Installs the watchdog, unless it has been turned off or is already
+	 * installed. If this is not called on the event dispatching thread, it
+	 * waits for the event dispatching thread to identify itself.
+	 */
+	public static void install() {
+		EdtWatchdog watchdog;
+		synchronized (EdtWatchdog.class) {
+			if (instance != null
+					|| !Boolean.valueOf(System.getProperty("mikrocalendar.edt.watchdog", "true")).booleanValue()) {
+				return;
+			}
+
+			long threshold = Long.getLong("mikrocalendar.edt.threshold", DEFAULT_THRESHOLD).longValue();
+			if (threshold <= 0) {
+				throw new IllegalArgumentException("Stall threshold must be positive.");
+			}
+
+			instance = new EdtWatchdog(threshold);
+			watchdog = instance;
+		}
+		
+		// The lock is not held while waiting for the event dispatching
+		// thread, which may be trying to install the watchdog itself.
+		watchdog.start();
+	}
+
+	/**
+	 * Returns the durations of the stalls that have been detected.
+	 * 
+	 * @return the {@link LatencyHistogram}, or null if the watchdog is not
+	 *         installed
+	 */
+	public static synchronized LatencyHistogram getStalls() {
+		return instance == null ? null : instance.stalls;
+	}
+
+	/**
+	 * Starts the watchdog thread and registers the stall histogram with JMX.
+	 */
+	private void start() {
+		if (SwingUtilities.isEventDispatchThread()) {
+			eventDispatchThread = Thread.currentThread();
+		} else {
+			try {
+				SwingUtilities.invokeAndWait(new Runnable() {
+
+					@Override
+					public void run() {
+						eventDispatchThread = Thread.currentThread();
+					}
+				});
+			} catch (InterruptedException e) {
+				// The first heartbeat finds the thread instead.
+				Thread.currentThread().interrupt();
+			} catch (InvocationTargetException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(stalls,
+					new ObjectName("ca.uwaterloo.cs.cs349.mikrocalendar:type=EdtStall"));
+		} catch (JMException e) {
+			// Stalls are still logged, just not exposed.
+		}
+
+		Thread thread = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						check();
+						Thread.sleep(threshold / 2000000L);
+					}
+				} catch (InterruptedException e) {
+					// The watchdog has been stopped.
+				}
+			}
+		}, "MikroCalendar-EDT-Watchdog");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Posts a heartbeat if there is none pending and a window is displayable,
+	 * or captures the stack of the event dispatching thread if the pending
+	 * heartbeat is overdue.
+	 */
+	private void check() {
+		long since = pendingSince;
+		if (since == 0) {
+			// A heartbeat would keep the AWT from shutting down.
+			if (!isAnyWindowDisplayable()) {
+				return;
+			}
+			
+			pendingSince = System.nanoTime();
+			SwingUtilities.invokeLater(new Runnable() {
+
+				@Override
+				public void run() {
+					heartbeat();
+				}
+			});
+
+		} else if (!stallReported && System.nanoTime() - since > threshold) {
+			stallReported = true;
+
+			Thread thread = eventDispatchThread;
+			if (thread != null) {
+				Throwable stack = new Throwable("Event dispatching thread stack");
+				stack.setStackTrace(thread.getStackTrace());
+				logger.log(Level.WARNING, "The event dispatching thread has been blocked for more than "
+						+ (threshold / 1000000L) + " ms.", stack);
+			} else {
+				logger.warning("The event dispatching thread has been blocked for more than "
+						+ (threshold / 1000000L) + " ms.");
+			}
+		}
+	}
+
+	/**
+	 * Returns whether or not any window is displayable, which keeps the AWT
+	 * running anyway.
+	 * 
+	 * @return true if a window is displayable. false otherwise.
+	 */
+	private static boolean isAnyWindowDisplayable() {
+		for (Window window : Window.getWindows()) {
+			if (window.isDisplayable()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Handles a heartbeat on the event dispatching thread, recording the
+	 * duration of the stall if the heartbeat was overdue.
+	 */
+	private void heartbeat() {
+		eventDispatchThread = Thread.currentThread();
+
+		long duration = System.nanoTime() - pendingSince;
+		if (duration > threshold) {
+			stalls.record(duration);
+			logger.warning("The event dispatching thread was blocked for "
+					+ (duration / 1000000L) + " ms. Stalls so far: "
+					+ stalls.getCount() + ", p50 " + stalls.getP50()
+					+ " ms, p99 " + stalls.getP99()
+					+ " ms, max " + stalls.getMax() + " ms.");
+		}
+
+		stallReported = false;
+		pendingSince = 0;
+	}
+
+}
@@ -0,0 +1,512 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+
+/**
+ * This class indexes events by the time range that they cover, so that the
+ * events overlapping a window of time, or covering a point in time, can be
+ * found without scanning every event. It is an interval tree: a randomized
+ * balanced binary search tree ordered by start time, where every node also
+ * records the latest end time in its subtree. Subtrees that end before a
+ * query window, or start after it, are skipped. The tree is balanced in
+ * expectation, so adding or removing an event takes O(log n) expected time,
+ * and a query for k results takes O(log n) expected time for each result,
+ * O(k log n) in all, rather than the O(log n + k) of a static interval tree.
+ * This lets the index be kept up to date incrementally as events are loaded,
+ * added, or removed, for example from
+ * {@link ChunkedEventLoader#eventsLoaded(List)}.
+ * <p>
+ * Time ranges are half-open: an event from 10:00 to 11:00 does not overlap an
+ * event from 11:00 to 12:00. An event that ends at or before its start is
+ * treated as lasting one millisecond. Each event can be in the index once;
+ * adding it again moves it to its new time range.
+ * <p>
+ * This class is thread-safe. It is usually updated on the event dispatching
+ * thread as events are loaded, while it is queried on background threads,
+ * for example by a
+ * {@link ca.uwaterloo.cs.cs349.mikrocalendar.ui.datetimepicker.ConflictChecker}.
+ * Every method holds the lock of the index, so a query always sees the tree
+ * between two updates, and an update waits for at most one query.
+ * 
+ * @author Terry Yiu
+ * 
+ * @param <E>
+ *            the type of event that is indexed
+ */
+public class IntervalIndex<E> {
+
+	/**
+	 * This class is a node of the tree, holding one event.
+	 */
+	private static class Node<E> {
+
+		/**
+		 * The event.
+		 */
+		private final E event;
+
+		/**
+		 * The start time of the event, in milliseconds.
+		 */
+		private final long start;
+
+		/**
+		 * The end time of the event, in milliseconds.
+		 */
+		private final long end;
+
+		/**
+		 * The order in which the event was added, which orders events with
+		 * the same start time.
+		 */
+		private final long sequence;
+
+		/**
+		 * The heap priority of the node, which keeps the tree balanced.
+		 */
+		private final int priority;
+
+		/**
+		 * The latest end time of the events in this subtree.
+		 */
+		private long maxEnd;
+
+		/**
+		 * The left child, or null if there is none.
+		 */
+		private Node<E> left;
+
+		/**
+		 * The right child, or null if there is none.
+		 */
+		private Node<E> right;
+
+		/**
+		 * Creates a new {@link Node}.
+		 * 
+		 * @param event
+		 *            the event
+		 * @param start
+		 *            the start time of the event
+		 * @param end
+		 *            the end time of the event
+		 * @param sequence
+		 *            the order in which the event was added
+		 * @param priority
+		 *            the heap priority of the node
+		 */
+		private Node(E event, long start, long end, long sequence, int priority) {
+			this.event = event;
+			this.start = start;
+			this.end = end;
+			this.sequence = sequence;
+			this.priority = priority;
+			this.maxEnd = end;
+		}
+
+		/**
+		 * Compares the position of this node with the specified start time and
+		 * sequence.
+		 * 
+		 * @param otherStart
+		 *            the start time
+		 * @param otherSequence
+		 *            the sequence
+		 * @return a negative number, zero, or a positive number if this node
+		 *         comes before, at, or after the position
+		 */
+		private int compareTo(long otherStart, long otherSequence) {
+			if (start != otherStart) {
+				return start < otherStart ? -1 : 1;
+			}
+			if (sequence != otherSequence) {
+				return sequence < otherSequence ? -1 : 1;
+			}
+			return 0;
+		}
+
+		/**
+		 * Recomputes the latest end time of this subtree from its children.
+		 */
+		private void update() {
+			long max = end;
+			if (left != null && left.maxEnd > max) {
+				max = left.maxEnd;
+			}
+			if (right != null && right.maxEnd > max) {
+				max = right.maxEnd;
+			}
+			maxEnd = max;
+		}
+
+	}
+
+	/**
+	 * The root of the tree, or null if the index is empty.
+	 */
+	private Node<E> root;
+
+	/**
+	 * The node of each event in the index.
+	 */
+	private final Map<E, Node<E>> nodes = new HashMap<E, Node<E>>();
+
+	/**
+	 * The {@link Random} that assigns heap priorities.
+	 */
+	private final Random random = new Random();
+
+	/**
+	 * The sequence of the next event that is added.
+	 */
+	private long nextSequence;
+
+	/**
+	 * Adds an event to the index, or moves it if it is already in the index.
+	 * 
+	 * @param event
+	 *            the event
+	 * @param start
+	 *            the start time of the event
+	 * @param end
+	 *            the end time of the event
+	 */
+	public void add(E event, DateTime start, DateTime end) {
+		if (start == null || end == null) {
+			throw new IllegalArgumentException("Start and end cannot be null.");
+		}
+
+		add(event, start.getMillis(), end.getMillis());
+	}
+
+	/**
+	 * Adds an event to the index, or moves it if it is already in the index.
+	 * 
+	 * @param event
+	 *            the event
+	 * @param start
+	 *            the start time of the event, in milliseconds
+	 * @param end
+	 *            the end time of the event, in milliseconds
+	 */
+	public synchronized void add(E event, long start, long end) {
+		if (event == null) {
+			throw new IllegalArgumentException("Event cannot be null.");
+		}
+
+		remove(event);
+
+		Node<E> node = new Node<E>(event, start, end > start ? end : start + 1L,
+				nextSequence++, random.nextInt());
+		root = insert(root, node);
+		nodes.put(event, node);
+	}
+
+	/**
+	 * Removes an event from the index.
+	 * 
+	 * @param event
+	 *            the event
+	 * @return true if the event was in the index. false otherwise.
+	 */
+	public synchronized boolean remove(E event) {
+		Node<E> node = nodes.remove(event);
+		if (node == null) {
+			return false;
+		}
+
+		root = delete(root, node.start, node.sequence);
+		return true;
+	}
+
+	/**
+	 * Removes every event from the index.
+	 */
+	public synchronized void clear() {
+		root = null;
+		nodes.clear();
+	}
+
+	/**
+	 * Returns the number of events in the index.
+	 * 
+	 * @return the number of events
+	 */
+	public synchronized int size() {
+		return nodes.size();
+	}
+
+	/**
+	 * Returns whether or not an event is in the index.
+	 * 
+	 * @param event
+	 *            the event
+	 * @return true if the event is in the index. false otherwise.
+	 */
+	public synchronized boolean contains(E event) {
+		return nodes.containsKey(event);
+	}
+
+	/**
+	 * Returns the events that overlap a window of time, in order of start
+	 * time.
+	 * 
+	 * @param start
+	 *            the start of the window
+	 * @param end
+	 *            the end of the window
+	 * @return the events
+	 */
+	public List<E> findOverlapping(DateTime start, DateTime end) {
+		if (start == null || end == null) {
+			throw new IllegalArgumentException("Start and end cannot be null.");
+		}
+
+		return findOverlapping(start.getMillis(), end.getMillis());
+	}
+
+	/**
+	 * Returns the events that overlap a window of time, in order of start
+	 * time.
+	 * 
+	 * @param start
+	 *            the start of the window, in milliseconds
+	 * @param end
+	 *            the end of the window, in milliseconds
+	 * @return the events
+	 */
+	public synchronized List<E> findOverlapping(long start, long end) {
+		List<E> events = new ArrayList<E>();
+		collect(root, start, end > start ? end : start + 1L, events);
+		return events;
+	}
+
+	/**
+	 * Returns the events that cover a point in time, in order of start time.
+	 * 
+	 * @param time
+	 *            the point in time
+	 * @return the events
+	 */
+	public List<E> findAt(DateTime time) {
+		if (time == null) {
+			throw new IllegalArgumentException("Time cannot be null.");
+		}
+
+		return findAt(time.getMillis());
+	}
+
+	/**
+	 * Returns the events that cover a point in time, in order of start time.
+	 * 
+	 * @param time
+	 *            the point in time, in milliseconds
+	 * @return the events
+	 */
+	public List<E> findAt(long time) {
+		return findOverlapping(time, time + 1L);
+	}
+
+	/**
+	 * Returns whether or not any event overlaps a window of time. This stops
+	 * at the first overlapping event, so it takes O(log n) expected time.
+	 * 
+	 * @param start
+	 *            the start of the window, in milliseconds
+	 * @param end
+	 *            the end of the window, in milliseconds
+	 * @return true if an event overlaps the window. false otherwise.
+	 */
+	public synchronized boolean overlapsAny(long start, long end) {
+		long windowEnd = end > start ? end : start + 1L;
+		Node<E> node = root;
+		while (node != null) {
+			if (node.start < windowEnd && node.end > start) {
+				return true;
+			}
+
+			// If the left subtree ends after the window starts, any overlap
+			// must be there, because everything to the right starts later.
+			if (node.left != null && node.left.maxEnd > start) {
+				node = node.left;
+			} else if (node.start < windowEnd) {
+				node = node.right;
+			} else {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Adds the events of a subtree that overlap a window to a list, in order
+	 * of start time.
+	 * 
+	 * @param node
+	 *            the root of the subtree
+	 * @param start
+	 *            the start of the window
+	 * @param end
+	 *            the end of the window
+	 * @param events
+	 *            the list to add to
+	 */
+	private static <E> void collect(Node<E> node, long start, long end, List<E> events) {
+		while (node != null && node.maxEnd > start) {
+			collect(node.left, start, end, events);
+
+			// Everything from here on starts at or after this node.
+			if (node.start >= end) {
+				return;
+			}
+			if (node.end > start) {
+				events.add(node.event);
+			}
+			node = node.right;
+		}
+	}
+
+	/**
+	 * Inserts a node into a subtree.
+	 * 
+	 * @param subtree
+	 *            the root of the subtree, or null if it is empty
+	 * @param node
+	 *            the node
+	 * @return the new root of the subtree
+	 */
+	private static <E> Node<E> insert(Node<E> subtree, Node<E> node) {
+		if (subtree == null) {
+			return node;
+		}
+
+		if (node.compareTo(subtree.start, subtree.sequence) < 0) {
+			subtree.left = insert(subtree.left, node);
+			if (subtree.left.priority > subtree.priority) {
+				subtree = rotateRight(subtree);
+			}
+		} else {
+			subtree.right = insert(subtree.right, node);
+			if (subtree.right.priority > subtree.priority) {
+				subtree = rotateLeft(subtree);
+			}
+		}
+		subtree.update();
+		return subtree;
+	}
+
+	/**
+	 * Deletes the node at a position from a subtree.
+	 * 
+	 * @param subtree
+	 *            the root of the subtree, or null if it is empty
+	 * @param start
+	 *            the start time of the node
+	 * @param sequence
+	 *            the sequence of the node
+	 * @return the new root of the subtree
+	 */
+	private static <E> Node<E> delete(Node<E> subtree, long start, long sequence) {
+		if (subtree == null) {
+			return null;
+		}
+
+		int comparison = subtree.compareTo(start, sequence);
+		if (comparison > 0) {
+			subtree.left = delete(subtree.left, start, sequence);
+		} else if (comparison < 0) {
+			subtree.right = delete(subtree.right, start, sequence);
+		} else {
+			return merge(subtree.left, subtree.right);
+		}
+		subtree.update();
+		return subtree;
+	}
+
+	/**
+	 * Merges two subtrees, where every node of the left subtree comes before
+	 * every node of the right subtree.
+	 * 
+	 * @param left
+	 *            the left subtree, or null if it is empty
+	 * @param right
+	 *            the right subtree, or null if it is empty
+	 * @return the root of the merged subtree
+	 */
+	private static <E> Node<E> merge(Node<E> left, Node<E> right) {
+		if (left == null) {
+			return right;
+		}
+		if (right == null) {
+			return left;
+		}
+
+		if (left.priority > right.priority) {
+			left.right = merge(left.right, right);
+			left.update();
+			return left;
+		} else {
+			right.left = merge(left, right.left);
+			right.update();
+			return right;
+		}
+	}
+
+	/**
+	 * Rotates a subtree to the right.
+	 * 
+	 * @param node
+	 *            the root of the subtree
+	 * @return the new root of the subtree
+	 */
+	private static <E> Node<E> rotateRight(Node<E> node) {
+		Node<E> left = node.left;
+		node.left = left.right;
+		node.update();
+		left.right = node;
+		left.update();
+		return left;
+	}
+
+	/**
+	 * Rotates a subtree to the left.
+	 * 
+	 * @param node
+	 *            the root of the subtree
+	 * @return the new root of the subtree
+	 */
+	private static <E> Node<E> rotateLeft(Node<E> node) {
+		Node<E> right = node.right;
+		node.right = right.left;
+		node.update();
+		right.left = node;
+		right.update();
+		return right;
+	}
+
+}
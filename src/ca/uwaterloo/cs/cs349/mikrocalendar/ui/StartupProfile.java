@@ -0,0 +1,212 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * This class measures the time from the launch of the JVM until the first
+ * dialog is shown, broken down into phases. Each call to {@link #mark(String)}
+ * ends a phase, which started at the previous mark, or at the launch of the
+ * JVM for the first mark. When the first dialog is shown, the breakdown is
+ * logged and later marks are ignored.
+ * <p>
+ * The time at which the JVM was launched is only looked up when the breakdown
+ * is reported, so that the management classes are not loaded before the first
+ * dialog is shown.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class StartupProfile {
+
+	/**
+	 * The {@link Logger} that the breakdown is logged to.
+	 */
+	private static final Logger logger = Logger.getLogger(StartupProfile.class.getName());
+
+	/**
+	 * The durations of the phases, in nanoseconds, in the order that they
+	 * ended. The duration of the first phase is filled in when the breakdown
+	 * is reported.
+	 */
+	private static final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+
+	/**
+	 * The name of the first phase, or null if no phase has ended.
+	 */
+	private static String firstPhase;
+
+	/**
+	 * The wall clock time, in milliseconds, at which the first phase ended.
+	 */
+	private static long firstMarkMillis;
+
+	/**
+	 * The time, in nanoseconds, at which the last phase ended.
+	 */
+	private static long lastMarkNanos;
+
+	/**
+	 * true once the first dialog has been shown.
+	 */
+	private static boolean finished;
+
+	/**
+	 * Instances of this class cannot be created.
+	 */
+	private StartupProfile() {
+		// No-op.
+	}
+
+	/**
+	 * Ends a phase of startup. Nothing is recorded once the first dialog has
+	 * been shown.
+	 * 
+	 * @param phase
+	 *            the name of the phase
+	 */
+	public static synchronized void mark(String phase) {
+		if (phase == null) {
+			throw new IllegalArgumentException("Phase cannot be null.");
+		}
+		
+		if (finished) {
+			return;
+		}
+		
+		long now = System.nanoTime();
+		if (firstPhase == null) {
+			firstPhase = phase;
+			firstMarkMillis = System.currentTimeMillis();
+			phases.put(phase, Long.valueOf(0L));
+		} else {
+			Long previous = phases.get(phase);
+			long duration = now - lastMarkNanos;
+			phases.put(phase, Long.valueOf(previous == null ? duration : previous.longValue() + duration));
+		}
+		lastMarkNanos = now;
+	}
+
+	/**
+	 * Ends the last phase of startup, which is showing the first dialog, and
+	 * logs the breakdown. Only the first call has any effect.
+	 * 
+	 * @param phase
+	 *            the name of the last phase
+	 */
+	public static void finish(String phase) {
+		synchronized (StartupProfile.class) {
+			if (finished) {
+				return;
+			}
+			mark(phase);
+			finished = true;
+		}
+		
+		logger.info(toReport());
+	}
+
+	/**
+	 * Returns whether or not the first dialog has been shown.
+	 * 
+	 * @return true if the first dialog has been shown. false otherwise.
+	 */
+	public static synchronized boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Returns the durations of the phases of startup, in milliseconds, in the
+	 * order that they ended.
+	 * 
+	 * @return the durations
+	 */
+	public static synchronized Map<String, Long> getPhases() {
+		Map<String, Long> millis = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, Long> entry : phases.entrySet()) {
+			if (entry.getKey().equals(firstPhase)) {
+				millis.put(entry.getKey(), Long.valueOf(getFirstPhaseMillis()
+						+ entry.getValue().longValue() / 1000000L));
+			} else {
+				millis.put(entry.getKey(), Long.valueOf(entry.getValue().longValue() / 1000000L));
+			}
+		}
+		return Collections.unmodifiableMap(millis);
+	}
+
+	/**
+	 * Returns the total time from the launch of the JVM until the last phase
+	 * ended, in milliseconds.
+	 * 
+	 * @return the total time
+	 */
+	public static long getTotal() {
+		long total = 0L;
+		for (Long duration : getPhases().values()) {
+			total += duration.longValue();
+		}
+		return total;
+	}
+
+	/**
+	 * Returns a one line description of the breakdown, such as
+	 * "Time to first dialog: 812 ms (launch 430 ms, dialog 251 ms, ...)".
+	 * 
+	 * @return the description
+	 */
+	public static String toReport() {
+		Map<String, Long> millis = getPhases();
+		long total = 0L;
+		StringBuilder breakdown = new StringBuilder();
+		for (Map.Entry<String, Long> entry : millis.entrySet()) {
+			if (breakdown.length() > 0) {
+				breakdown.append(", ");
+			}
+			breakdown.append(entry.getKey()).append(' ').append(entry.getValue()).append(" ms");
+			total += entry.getValue().longValue();
+		}
+		return "Time to first dialog: " + total + " ms (" + breakdown + ")";
+	}
+
+	/**
+	 * Returns the time from the launch of the JVM until the first phase
+	 * ended, in milliseconds. This is 0 if it cannot be determined.
+	 * 
+	 * @return the time
+	 */
+	private static long getFirstPhaseMillis() {
+		if (firstPhase == null) {
+			return 0L;
+		}
+		
+		try {
+			long startTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+			return Math.max(0L, firstMarkMillis - startTime);
+		} catch (SecurityException e) {
+			return 0L;
+		}
+	}
+
+}
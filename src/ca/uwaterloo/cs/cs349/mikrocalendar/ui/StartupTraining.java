@@ -0,0 +1,163 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.lang.reflect.InvocationTargetException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.JDialog;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import org.joda.time.DateTime;
+
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.datetimepicker.DateTimePickerDialog;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LoginDialog;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LoginDialogFactory;
+
+/**
+ * This class is a training run of the login and date time picker flows. It
+ * shows the login dialog of every backend and a {@link DateTimePickerDialog}
+ * for a moment each, and loads the classes that are only needed once a login
+ * succeeds, then exits. Running it with
+ * <code>-XX:ArchiveClassesAtExit</code> produces a class data sharing archive
+ * of everything the flows load, which makes later launches start faster.
+ * <p>
+ * The {@link StartupProfile} of the run is printed. If the
+ * <code>mikrocalendar.startup.budget</code> system property is set to a
+ * number of milliseconds and the time to first dialog is longer, the run
+ * exits with status 1 so that startup regressions can be caught.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class StartupTraining {
+
+	/**
+	 * The number of milliseconds that each dialog is shown for.
+	 */
+	private static final int SHOW_DELAY = 500;
+
+	/**
+	 * The classes that are only loaded once a login succeeds.
+	 */
+	private static final String[] LOGIN_CLASSES = {
+		"ca.uwaterloo.cs.cs349.mikrocalendar.events.local.LocalEventManager",
+		"ca.uwaterloo.cs.cs349.mikrocalendar.events.twitter.TwitterEventManager",
+		"ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.CachingMikroEventManager",
+		"ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.WriteBehindMikroEventManager",
+		"ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.SessionPool",
+		"ca.uwaterloo.cs.cs349.mikrocalendar.ui.ChunkedEventLoader",
+		"ca.uwaterloo.cs.cs349.mikrocalendar.ui.IntervalIndex"
+	};
+
+	/**
+	 * The {@link Logger} that problems with the run are logged to.
+	 */
+	private static final Logger logger = Logger.getLogger(StartupTraining.class.getName());
+
+	/**
+	 * Instances of this class cannot be created.
+	 */
+	private StartupTraining() {
+		// No-op.
+	}
+
+	/**
+	 * Runs the training run.
+	 * 
+	 * @param args
+	 *            the names of the backends to show the login dialogs of. All
+	 *            backends are shown if none are specified.
+	 * @throws InterruptedException
+	 *             Thrown if the run is interrupted.
+	 * @throws InvocationTargetException
+	 *             Thrown if a dialog cannot be shown.
+	 */
+	public static void main(String[] args) throws InterruptedException, InvocationTargetException {
+		final String[] backendNames = args.length > 0
+				? args
+				: LoginDialogFactory.getBackendNames().toArray(new String[0]);
+		
+		for (final String backendName : backendNames) {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				@Override
+				public void run() {
+					LoginDialog loginDialog = LoginDialogFactory.createLoginDialog(backendName);
+					loginDialog.setModal(true);
+					showBriefly(loginDialog);
+				}
+			});
+		}
+		
+		SwingUtilities.invokeAndWait(new Runnable() {
+			@Override
+			public void run() {
+				DateTimePickerDialog dialog = new DateTimePickerDialog(new DateTime());
+				dialog.pack();
+				dialog.setLocationRelativeTo(null);
+				showBriefly(dialog);
+			}
+		});
+		
+		ClassLoader classLoader = StartupTraining.class.getClassLoader();
+		for (String className : LOGIN_CLASSES) {
+			try {
+				Class.forName(className, false, classLoader);
+			} catch (ClassNotFoundException e) {
+				logger.log(Level.WARNING, "Could not load " + className + ".", e);
+			}
+		}
+		
+		System.out.println(StartupProfile.toReport());
+		
+		long budget = Long.getLong("mikrocalendar.startup.budget", 0L).longValue();
+		if (budget > 0 && StartupProfile.getTotal() > budget) {
+			System.err.println("Time to first dialog exceeded the budget of " + budget + " ms.");
+			System.exit(1);
+		}
+		
+		System.exit(0);
+	}
+
+	/**
+	 * Shows a modal dialog, and disposes of it after {@link #SHOW_DELAY}
+	 * milliseconds. This must be called on the event dispatching thread, and
+	 * returns once the dialog has been disposed of.
+	 * 
+	 * @param dialog
+	 *            the dialog
+	 */
+	private static void showBriefly(final JDialog dialog) {
+		Timer timer = new Timer(SHOW_DELAY, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				dialog.dispose();
+			}
+		});
+		timer.setRepeats(false);
+		timer.start();
+		dialog.setVisible(true);
+	}
+
+}
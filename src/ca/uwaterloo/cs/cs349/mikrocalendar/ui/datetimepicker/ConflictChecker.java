@@ -0,0 +1,79 @@
+/*
+ * MikroCalendar Date/Time Picker
+ * User interface for selecting a date and time.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.datetimepicker;
+
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+/**
+ * This class finds the events that overlap a range of date times, so that a
+ * {@link DateTimePickerDialog} can warn about conflicts while the user picks
+ * the range. The check runs on a background thread, and is cancelled by
+ * interrupting that thread when the user changes the range again.
+ * <p>
+ * Subclasses decide where overlapping events are found and how each event is
+ * described to the user. A
+ * {@link ca.uwaterloo.cs.cs349.mikrocalendar.events.MikroEventManager} cannot
+ * be asked for the events in a range, so the events are usually looked up
+ * among those that have already been loaded from it, as
+ * {@link IntervalIndexConflictChecker} does. A subclass that queries a
+ * service instead keeps its own reference to it. Because the lookup runs on a background thread,
+ * anything it reads must be safe to read while the event dispatching thread
+ * updates it, like an {@link ca.uwaterloo.cs.cs349.mikrocalendar.ui.IntervalIndex}.
+ * Events kept in a Swing model must be copied on the event dispatching
+ * thread instead.
+ * 
+ * @author Terry Yiu
+ * 
+ * @param <E>
+ *            the type of event that is checked
+ */
+public abstract class ConflictChecker<E> {
+
+	/**
+	 * Finds the events that overlap a range of date times. This is called on
+	 * a background thread, and should stop early if the thread is
+	 * interrupted.
+	 * 
+	 * @param start
+	 *            the start of the range
+	 * @param end
+	 *            the end of the range, which is the same as the start if the
+	 *            user has not picked an end
+	 * @return the overlapping events
+	 * @throws Exception
+	 *             Thrown if the events cannot be searched.
+	 */
+	protected abstract List<E> findOverlapping(DateTime start, DateTime end) throws Exception;
+
+	/**
+	 * Returns a short description of an event to show to the user. This is
+	 * called on a background thread.
+	 * 
+	 * @param event
+	 *            the event
+	 * @return the description
+	 */
+	protected String describe(E event) {
+		return String.valueOf(event);
+	}
+
+}
@@ -0,0 +1,202 @@
+/*
+ * MikroCalendar Date/Time Picker
+ * User interface for selecting a date and time.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.datetimepicker;
+
+import java.awt.Dimension;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JComboBox;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+import org.joda.time.DateTime;
+
+/**
+ * This class holds the fields that a {@link DateTime} is entered in: a month,
+ * a day, a year, an hour, and a minute. A {@link DateTimePickerDialog} has
+ * one set of fields for the start and one for the end.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+class DateTimeFields {
+
+	/**
+	 * This {@link JComboBox} allows the month portion of the date time to be
+	 * selected.
+	 */
+	private final JComboBox monthComboBox;
+
+	/**
+	 * This {@link JComboBox} allows the day portion of the date time to be
+	 * selected.
+	 */
+	private final JComboBox dayComboBox;
+
+	/**
+	 * This {@link JTextField} allows the year portion of the date time to be
+	 * entered.
+	 */
+	private final JTextField yearTextField;
+
+	/**
+	 * This {@link JComboBox} allows the hour portion of the date time to be
+	 * selected.
+	 */
+	private final JComboBox hourComboBox;
+
+	/**
+	 * This {@link JComboBox} allows the minute portion of the date time to be
+	 * selected.
+	 */
+	private final JComboBox minuteComboBox;
+
+	/**
+	 * Creates a new {@link DateTimeFields} with nothing entered.
+	 */
+	public DateTimeFields() {
+		// The months, days, hours, and minutes are listed by models that share
+		// their items with every other picker.
+		monthComboBox = new JComboBox(SharedComboBoxModel.createMonthModel());
+		dayComboBox = new JComboBox(SharedComboBoxModel.createDayModel());
+		yearTextField = new JTextField();
+		yearTextField.setPreferredSize(
+				new Dimension(40, (int) yearTextField.getPreferredSize().getHeight()));
+		hourComboBox = new JComboBox(SharedComboBoxModel.createHourModel());
+		minuteComboBox = new JComboBox(SharedComboBoxModel.createMinuteModel());
+	}
+
+	/**
+	 * Adds the fields to a panel, in the order month, day, year, hour, and
+	 * minute.
+	 * 
+	 * @param panel
+	 *            the {@link JPanel}
+	 */
+	public void addTo(JPanel panel) {
+		panel.add(monthComboBox);
+		panel.add(dayComboBox);
+		panel.add(yearTextField);
+		panel.add(hourComboBox);
+		panel.add(minuteComboBox);
+	}
+
+	/**
+	 * Adds a {@link ChangeListener} that is notified whenever any of the
+	 * fields changes, including while the year is being typed.
+	 * 
+	 * @param listener
+	 *            the {@link ChangeListener}
+	 */
+	public void addChangeListener(final ChangeListener listener) {
+		final ChangeEvent changeEvent = new ChangeEvent(this);
+		
+		ActionListener actionListener = new ActionListener() {
+			
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				listener.stateChanged(changeEvent);
+			}
+		};
+		monthComboBox.addActionListener(actionListener);
+		dayComboBox.addActionListener(actionListener);
+		hourComboBox.addActionListener(actionListener);
+		minuteComboBox.addActionListener(actionListener);
+		
+		yearTextField.getDocument().addDocumentListener(new DocumentListener() {
+			
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				listener.stateChanged(changeEvent);
+			}
+			
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				listener.stateChanged(changeEvent);
+			}
+			
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				listener.stateChanged(changeEvent);
+			}
+		});
+	}
+
+	/**
+	 * Sets the fields to a {@link DateTime}.
+	 * 
+	 * @param dateTime
+	 *            the {@link DateTime}, or null to clear the fields
+	 */
+	public void setDateTime(DateTime dateTime) {
+		if (dateTime == null) {
+			monthComboBox.setSelectedIndex(0);
+			dayComboBox.setSelectedIndex(0);
+			yearTextField.setText(null);
+			hourComboBox.setSelectedIndex(0);
+			minuteComboBox.setSelectedIndex(0);
+		} else {
+			monthComboBox.setSelectedIndex(dateTime.getMonthOfYear());
+			dayComboBox.setSelectedIndex(dateTime.getDayOfMonth());
+			yearTextField.setText(String.valueOf(dateTime.getYear()));
+			hourComboBox.setSelectedIndex(dateTime.getHourOfDay());
+			minuteComboBox.setSelectedIndex(dateTime.getMinuteOfHour());
+		}
+	}
+
+	/**
+	 * Returns the {@link DateTime} representation of the fields. The date
+	 * time is only valid if the month, day, and year are all filled in and
+	 * form a date that exists.
+	 * 
+	 * @return the {@link DateTime}, or null if the date time is not valid
+	 */
+	public DateTime getDateTime() {
+		if (monthComboBox.getSelectedIndex() <= 0 || dayComboBox.getSelectedIndex() <= 0) {
+			return null;
+		}
+		
+		try {
+			int year = Integer.parseInt(yearTextField.getText());
+			if (year < 0) {
+				return null;
+			}
+			
+			return new DateTime(
+					year, 
+					monthComboBox.getSelectedIndex(), 
+					dayComboBox.getSelectedIndex(), 
+					Math.max(0, hourComboBox.getSelectedIndex()), 
+					Math.max(0, minuteComboBox.getSelectedIndex()), 
+					0, 
+					0);
+		} catch (IllegalArgumentException e) {
+			// The year is not a number, or the day does not exist in the
+			// month.
+			return null;
+		}
+	}
+
+}
@@ -20,10 +20,16 @@
 package ca.uwaterloo.cs.cs349.mikrocalendar.ui.datetimepicker;
 
 import java.awt.BorderLayout;
+import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Frame;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -31,19 +37,28 @@ import javax.swing.BorderFactory;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
-import javax.swing.JComboBox;
 import javax.swing.JDialog;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
-import javax.swing.JTextField;
 import javax.swing.SpringLayout;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 import org.joda.time.DateTime;
 
 import ca.uwaterloo.cs.cs349.mikrocalendar.ui.SpringUtilities;
 
 /**
- * The purpose of this {@link JDialog} is for picking a {@link DateTime}.
+ * The purpose of this {@link JDialog} is for picking a start and an end
+ * {@link DateTime}. The end is optional, and is only picked if all of its
+ * date fields are filled in.
+ * <p>
+ * If a {@link ConflictChecker} is set, the events that overlap the picked
+ * range are looked up on a background thread shortly after the user stops
+ * editing either end, and are shown below the fields. A check that is still
+ * running when the range changes again is cancelled.
  * 
  * @author Terry Yiu
  * 
@@ -51,39 +66,91 @@ import ca.uwaterloo.cs.cs349.mikrocalendar.ui.SpringUtilities;
 public class DateTimePickerDialog extends JDialog {
 
 	/**
-	 * The original {@link DateTime} before any user modification.
+	 * The default maximum number of {@link DateTimePickerDialog}s that are
+	 * kept for reuse.
 	 */
-	private final DateTime dateTime;
+	private static final int DEFAULT_POOL_SIZE = 2;
 
 	/**
-	 * This {@link JComboBox} allows the month portion of the date time to be
-	 * selected.
+	 * The default number of milliseconds to wait after the range stops
+	 * changing before checking it for conflicts.
 	 */
-	private final JComboBox monthComboBox;
+	private static final int DEFAULT_CONFLICT_DELAY = 300;
 
 	/**
-	 * This {@link JComboBox} allows the day portion of the date time to be
-	 * selected.
+	 * The maximum number of conflicting events that are named.
 	 */
-	private final JComboBox dayComboBox;
+	private static final int MAX_NAMED_CONFLICTS = 2;
 
 	/**
-	 * This {@link JTextField} allows the year portion of the date time to be
-	 * entered.
+	 * The maximum number of {@link DateTimePickerDialog}s that are kept for
+	 * reuse. This can be configured with the
+	 * <code>mikrocalendar.picker.poolSize</code> system property.
 	 */
-	private final JTextField yearTextField;
+	private static final int poolSize =
+		Integer.getInteger("mikrocalendar.picker.poolSize", DEFAULT_POOL_SIZE).intValue();
 
 	/**
-	 * This {@link JComboBox} allows the hour portion of the date time to be
-	 * selected.
+	 * The {@link DateTimePickerDialog}s that are kept for reuse, including the
+	 * one built ahead of time by {@link #prewarm()}.
 	 */
-	private final JComboBox hourComboBox;
+	private static final Deque<DateTimePickerDialog> pool = new ArrayDeque<DateTimePickerDialog>();
 
 	/**
-	 * This {@link JComboBox} allows the minute portion of the date time to be
-	 * selected.
+	 * true once a {@link DateTimePickerDialog} has been created with
+	 * {@link #create(DateTime)}. This is guarded by {@link #pool}.
 	 */
-	private final JComboBox minuteComboBox;
+	private static boolean requested;
+
+	/**
+	 * The original start {@link DateTime} before any user modification.
+	 */
+	private DateTime dateTime;
+
+	/**
+	 * The original end {@link DateTime} before any user modification.
+	 */
+	private DateTime endDateTime;
+
+	/**
+	 * true while this dialog is in the pool.
+	 * 
+	 * @see #release()
+	 */
+	private boolean pooled;
+
+	/**
+	 * The fields that the start date time is entered in.
+	 */
+	private final DateTimeFields startFields;
+
+	/**
+	 * The fields that the end date time is entered in.
+	 */
+	private final DateTimeFields endFields;
+
+	/**
+	 * This {@link JLabel} shows the conflicts of the picked range, and why
+	 * the range is not valid.
+	 */
+	private final JLabel conflictLabel;
+
+	/**
+	 * This {@link Timer} starts a conflict check once the range has stopped
+	 * changing.
+	 */
+	private final Timer conflictTimer;
+
+	/**
+	 * The {@link ConflictChecker} that the picked range is checked with, or
+	 * null if it is not checked.
+	 */
+	private ConflictChecker<?> conflictChecker;
+
+	/**
+	 * The conflict check that is running, or null if there is none.
+	 */
+	private ConflictWorker<?> conflictWorker;
 
 	/**
 	 * This {@link JButton} confirms the selection of the date time. If the date
@@ -104,107 +171,74 @@ public class DateTimePickerDialog extends JDialog {
 	 *            The {@link DateTime}.
 	 */
 	public DateTimePickerDialog(DateTime dateTime) {
+		this(dateTime, null);
+	}
+
+	/**
+	 * Creates a new {@link DateTimePickerDialog} with a specified start and
+	 * end {@link DateTime}.
+	 * 
+	 * @param dateTime
+	 *            The start {@link DateTime}.
+	 * @param endDateTime
+	 *            The end {@link DateTime}, or null if there is no end.
+	 */
+	public DateTimePickerDialog(DateTime dateTime, DateTime endDateTime) {
 		super((Frame)null, true);
 		setTitle("Date Time Picker");
 		
 		this.dateTime = dateTime;
-		
-		// Array of selectable months.
-		String[] months = new String[]{
-				null,
-				"January", 
-				"February", 
-				"March", 
-				"April", 
-				"May", 
-				"June", 
-				"July", 
-				"August", 
-				"September", 
-				"October", 
-				"November", 
-				"December"};
-		
-		// Array of selectable days.
-		Integer days[] = new Integer[32];
-		days[0] = null;
-		for (int i = 1; i < days.length; i++) {
-			days[i] = new Integer(i);
-		}
-		
-		// Array of selectable hours.
-		Integer hours[] = new Integer[24];
-		for (int i = 0; i < hours.length; i++) {
-			hours[i] = new Integer(i);
-		}
-		
-		// Array of selectable minutes.
-		Integer minutes[] = new Integer[60];
-		for (int i = 0; i < minutes.length; i++) {
-			minutes[i] = new Integer(i);
-		}
+		this.endDateTime = endDateTime;
 		
 		// Date time fields.
-		monthComboBox = new JComboBox(months);
-		dayComboBox = new JComboBox(days);
-		yearTextField = new JTextField();
-		yearTextField.setPreferredSize(
-				new Dimension(40, (int) yearTextField.getPreferredSize().getHeight()));
-		hourComboBox = new JComboBox(hours);
-		minuteComboBox = new JComboBox(minutes);
-		
-		if (dateTime == null) {
-			monthComboBox.setSelectedIndex(0);
-			dayComboBox.setSelectedIndex(0);
-			yearTextField.setText(null);
-			hourComboBox.setSelectedIndex(0);
-			minuteComboBox.setSelectedIndex(0);
-		} else {
-			monthComboBox.setSelectedIndex(dateTime.getMonthOfYear());
-			dayComboBox.setSelectedIndex(dateTime.getDayOfMonth());
-			yearTextField.setText(String.valueOf(dateTime.getYear()));
-			hourComboBox.setSelectedIndex(dateTime.getHourOfDay());
-			minuteComboBox.setSelectedIndex(dateTime.getMinuteOfHour());
-		}
+		startFields = new DateTimeFields();
+		endFields = new DateTimeFields();
 		
-		// Labels to indicate what each field is for.
-		JLabel monthLabel = new JLabel("Month");
-		JLabel dayLabel = new JLabel("Day");
-		JLabel yearLabel = new JLabel("Year");
-		JLabel hourLabel = new JLabel("Hour");
-		JLabel minuteLabel = new JLabel("Minute");
-		
-		// Main panel.
+		// Main panel, with a row of labels to indicate what each field is
+		// for, then a row of fields for each end of the range.
 		final JPanel dateTimePanel = new JPanel(new SpringLayout());
-		dateTimePanel.add(monthLabel);
-		dateTimePanel.add(dayLabel);
-		dateTimePanel.add(yearLabel);
-		dateTimePanel.add(hourLabel);
-		dateTimePanel.add(minuteLabel);
-		dateTimePanel.add(monthComboBox);
-		dateTimePanel.add(dayComboBox);
-		dateTimePanel.add(yearTextField);
-		dateTimePanel.add(hourComboBox);
-		dateTimePanel.add(minuteComboBox);
+		dateTimePanel.add(new JLabel());
+		dateTimePanel.add(new JLabel("Month"));
+		dateTimePanel.add(new JLabel("Day"));
+		dateTimePanel.add(new JLabel("Year"));
+		dateTimePanel.add(new JLabel("Hour"));
+		dateTimePanel.add(new JLabel("Minute"));
+		dateTimePanel.add(new JLabel("Start"));
+		startFields.addTo(dateTimePanel);
+		dateTimePanel.add(new JLabel("End"));
+		endFields.addTo(dateTimePanel);
 		
-		final ActionListener validateListener = new ActionListener() {
+		final ChangeListener validateListener = new ChangeListener() {
 			
 			@Override
-			public void actionPerformed(ActionEvent e) {
+			public void stateChanged(ChangeEvent e) {
 				validateFields();
 			}
 		};
 		
 		// Add listeners to the date time fields which enable or disable
-		// the OK button.
-		monthComboBox.addActionListener(validateListener);
-		dayComboBox.addActionListener(validateListener);
-		yearTextField.addActionListener(validateListener);
-		hourComboBox.addActionListener(validateListener);
-		dayComboBox.addActionListener(validateListener);
+		// the OK button and check the range for conflicts.
+		startFields.addChangeListener(validateListener);
+		endFields.addChangeListener(validateListener);
 		
 		// Reposition components for a better look.
-		SpringUtilities.makeCompactGrid(dateTimePanel, 2, 5, 10, 10, 10, 10);
+		SpringUtilities.makeCompactGrid(dateTimePanel, 3, 6, 10, 10, 10, 10);
+		
+		// The label always holds some text so that the dialog does not change
+		// height when conflicts are shown.
+		conflictLabel = new JLabel(" ");
+		conflictLabel.setBorder(BorderFactory.createEmptyBorder(0, 10, 10, 10));
+		
+		conflictTimer = new Timer(
+				Integer.getInteger("mikrocalendar.picker.conflictDelay", DEFAULT_CONFLICT_DELAY).intValue(),
+				new ActionListener() {
+					
+					@Override
+					public void actionPerformed(ActionEvent e) {
+						startConflictCheck();
+					}
+				});
+		conflictTimer.setRepeats(false);
 		
 		// Create buttons.
 		cancelButton = new JButton("Cancel");
@@ -228,13 +262,114 @@ public class DateTimePickerDialog extends JDialog {
 		buttonPanel.add(Box.createRigidArea(new Dimension(10, 0)));
 		buttonPanel.add(okButton);
 		
+		final JPanel southPanel = new JPanel(new BorderLayout());
+		southPanel.add(conflictLabel, BorderLayout.PAGE_START);
+		southPanel.add(buttonPanel, BorderLayout.PAGE_END);
+		
 		getContentPane().add(dateTimePanel, BorderLayout.CENTER);
-		getContentPane().add(buttonPanel, BorderLayout.PAGE_END);
+		getContentPane().add(southPanel, BorderLayout.PAGE_END);
 		
-		// Set fields to the date time that was passed into the constructor.
+		// Set fields to the date times that were passed into the constructor.
 		resetFields();
 	}
 
+	/**
+	 * Returns a {@link DateTimePickerDialog} with a specified {@link DateTime}
+	 * and no end.
+	 * 
+	 * @param dateTime
+	 *            The {@link DateTime}.
+	 * @return the {@link DateTimePickerDialog}
+	 * @see #create(DateTime, DateTime)
+	 */
+	public static DateTimePickerDialog create(DateTime dateTime) {
+		return create(dateTime, null);
+	}
+
+	/**
+	 * Returns a {@link DateTimePickerDialog} with a specified start and end
+	 * {@link DateTime}. A dialog that was released with {@link #release()} or built ahead of
+	 * time by {@link #prewarm()} is rebound to the {@link DateTime}s and
+	 * returned if there is one, otherwise a new dialog is created.
+	 * 
+	 * @param dateTime
+	 *            The start {@link DateTime}.
+	 * @param endDateTime
+	 *            The end {@link DateTime}, or null if there is no end.
+	 * @return the {@link DateTimePickerDialog}
+	 */
+	public static DateTimePickerDialog create(DateTime dateTime, DateTime endDateTime) {
+		DateTimePickerDialog dialog;
+		synchronized (pool) {
+			requested = true;
+			dialog = pool.poll();
+		}
+		
+		if (dialog == null) {
+			return new DateTimePickerDialog(dateTime, endDateTime);
+		}
+		
+		dialog.pooled = false;
+		dialog.dateTime = dateTime;
+		dialog.endDateTime = endDateTime;
+		dialog.resetFields();
+		return dialog;
+	}
+
+	/**
+	 * Builds a {@link DateTimePickerDialog} ahead of time, so that the first
+	 * call to {@link #create(DateTime)} returns it without building it. The
+	 * dialog's components are created and their preferred sizes computed, but
+	 * it is not made displayable, so that a dialog that is never used does not
+	 * keep the AWT running. Nothing is done if a dialog has already been
+	 * created or is in the pool.
+	 * <p>
+	 * This must be called on the event dispatching thread.
+	 */
+	public static void prewarm() {
+		synchronized (pool) {
+			if (requested || !pool.isEmpty() || poolSize <= 0) {
+				return;
+			}
+		}
+		
+		DateTimePickerDialog dialog = new DateTimePickerDialog(null);
+		
+		// Lay out the components without creating the native window.
+		dialog.getPreferredSize();
+		
+		synchronized (pool) {
+			if (!requested) {
+				dialog.pooled = true;
+				pool.offer(dialog);
+			}
+		}
+	}
+
+	/**
+	 * Disposes of this dialog and keeps it for reuse by
+	 * {@link #create(DateTime)}, unless the pool is full. The dialog must not
+	 * be used after it has been released, and any listeners added to it
+	 * should be removed first. Its {@link ConflictChecker} is cleared.
+	 * <p>
+	 * This must be called on the event dispatching thread.
+	 */
+	public void release() {
+		cancelConflictCheck();
+		conflictChecker = null;
+		
+		// Free the native window so that pooled dialogs do not keep the AWT
+		// running. The components and their layout are kept.
+		dispose();
+		
+		synchronized (pool) {
+			if (!pooled && pool.size() < poolSize) {
+				pooled = true;
+				pool.offer(this);
+			}
+		}
+	}
+
 	/**
 	 * Sets the {@link Action} to perform when the Cancel button is clicked.
 	 * 
@@ -257,69 +392,237 @@ public class DateTimePickerDialog extends JDialog {
 	}
 
 	/**
-	 * Sets the fields to the original date time.
+	 * Sets the {@link ConflictChecker} that the picked range is checked with.
+	 * 
+	 * @param conflictChecker
+	 *            the {@link ConflictChecker}, or null if the range should not
+	 *            be checked
+	 */
+	public void setConflictChecker(ConflictChecker<?> conflictChecker) {
+		this.conflictChecker = conflictChecker;
+		validateFields();
+	}
+
+	/**
+	 * Sets the fields to the original date times.
 	 */
 	private void resetFields() {
-		if (dateTime == null) {
-			monthComboBox.setSelectedIndex(0);
-			dayComboBox.setSelectedIndex(0);
-			yearTextField.setText(null);
-			hourComboBox.setSelectedIndex(0);
-			minuteComboBox.setSelectedIndex(0);
-		} else {
-			monthComboBox.setSelectedIndex(dateTime.getMonthOfYear());
-			dayComboBox.setSelectedIndex(dateTime.getDayOfMonth());
-			yearTextField.setText(String.valueOf(dateTime.getYear()));
-			hourComboBox.setSelectedIndex(dateTime.getHourOfDay());
-			minuteComboBox.setSelectedIndex(dateTime.getMinuteOfHour());
-		}
+		startFields.setDateTime(dateTime);
+		endFields.setDateTime(endDateTime);
 		
 		validateFields();
 	}
 
 	/**
-	 * Validates the fields. The OK button is enabled only if all the date time
-	 * fields are filled in.
+	 * Validates the fields. The OK button is enabled only if all the start
+	 * date time fields are filled in, and the end is not before the start.
+	 * The range is then checked for conflicts once it stops changing.
 	 */
 	private void validateFields() {
-		okButton.setEnabled(isDateTimeValid());
+		DateTime start = startFields.getDateTime();
+		DateTime end = endFields.getDateTime();
+		boolean endBeforeStart = start != null && end != null && end.isBefore(start);
+		
+		okButton.setEnabled(start != null && !endBeforeStart);
+		
+		cancelConflictCheck();
+		if (endBeforeStart) {
+			showMessage("The end is before the start.", null, true);
+		} else if (start == null || conflictChecker == null) {
+			showMessage(" ", null, false);
+		} else {
+			showMessage("Checking for conflicts...", null, false);
+			conflictTimer.restart();
+		}
+	}
+
+	/**
+	 * Starts checking the picked range for conflicts on a background thread.
+	 */
+	private void startConflictCheck() {
+		DateTime start = startFields.getDateTime();
+		if (start == null || conflictChecker == null) {
+			return;
+		}
+		
+		DateTime end = endFields.getDateTime();
+		conflictWorker = createConflictWorker(conflictChecker, start, end == null ? start : end);
+		conflictWorker.execute();
 	}
 
 	/**
-	 * Returns whether or not the date time is valid.
+	 * Creates a {@link ConflictWorker} for a {@link ConflictChecker}.
 	 * 
-	 * @return true if date time is valid. false otherwise.
-	 */
-	private boolean isDateTimeValid() {
-		try {
-			return monthComboBox.getSelectedIndex() > 0
-			&& dayComboBox.getSelectedIndex() > 0
-			&& Integer.parseInt(yearTextField.getText()) >= 0;
-		} catch (NumberFormatException e) {
-			return false;
+	 * @param <E>
+	 *            the type of event that is checked
+	 * @param checker
+	 *            the {@link ConflictChecker}
+	 * @param start
+	 *            the start of the range
+	 * @param end
+	 *            the end of the range
+	 * @return the {@link ConflictWorker}
+	 */
+	private <E> ConflictWorker<E> createConflictWorker(ConflictChecker<E> checker, DateTime start, DateTime end) {
+		return new ConflictWorker<E>(checker, start, end);
+	}
+
+	/**
+	 * Cancels the pending or running conflict check, if there is one.
+	 */
+	private void cancelConflictCheck() {
+		conflictTimer.stop();
+		if (conflictWorker != null) {
+			conflictWorker.cancel(true);
+			conflictWorker = null;
+		}
+	}
+
+	/**
+	 * Shows the conflicts of the picked range.
+	 * 
+	 * @param conflicts
+	 *            the descriptions of the conflicting events
+	 */
+	private void showConflicts(List<String> conflicts) {
+		if (conflicts.isEmpty()) {
+			showMessage("No conflicts.", null, false);
+			return;
+		}
+		
+		StringBuilder names = new StringBuilder();
+		for (int i = 0; i < conflicts.size() && i < MAX_NAMED_CONFLICTS; i++) {
+			if (i > 0) {
+				names.append(", ");
+			}
+			names.append(conflicts.get(i));
+		}
+		if (conflicts.size() > MAX_NAMED_CONFLICTS) {
+			names.append(", and ").append(conflicts.size() - MAX_NAMED_CONFLICTS).append(" more");
+		}
+		
+		StringBuilder allNames = new StringBuilder();
+		for (String conflict : conflicts) {
+			if (allNames.length() > 0) {
+				allNames.append(", ");
+			}
+			allNames.append(conflict);
 		}
+		
+		showMessage("Conflicts with " + conflicts.size()
+				+ (conflicts.size() == 1 ? " event: " : " events: ") + names,
+				allNames.toString(), true);
+	}
+
+	/**
+	 * Shows a message below the fields.
+	 * 
+	 * @param message
+	 *            the message
+	 * @param toolTip
+	 *            the tool tip of the message, or null if there is none
+	 * @param warning
+	 *            true if the message is a warning
+	 */
+	private void showMessage(String message, String toolTip, boolean warning) {
+		conflictLabel.setText(message);
+		conflictLabel.setToolTipText(toolTip);
+		conflictLabel.setForeground(warning ? Color.RED : null);
 	}
 
 	/**
 	 * Returns the {@link DateTime} representation of the filled in fields for
-	 * the date time.
+	 * the start date time.
 	 * 
-	 * @return the {@link DateTime}
+	 * @return the {@link DateTime}, or null if the start is not valid
 	 */
 	public DateTime getDateTime() {
-		if (!isDateTimeValid()) {
-			return null;
+		return startFields.getDateTime();
+	}
+
+	/**
+	 * Returns the {@link DateTime} representation of the filled in fields for
+	 * the end date time.
+	 * 
+	 * @return the {@link DateTime}, or null if the end fields have not all
+	 *         been filled in
+	 */
+	public DateTime getEndDateTime() {
+		return endFields.getDateTime();
+	}
+
+	/**
+	 * This {@link SwingWorker} finds the events that conflict with a range on
+	 * a background thread, and shows them if the range has not changed in the
+	 * meantime.
+	 * 
+	 * @param <E>
+	 *            the type of event that is checked
+	 */
+	private class ConflictWorker<E> extends SwingWorker<List<String>, Void> {
+
+		/**
+		 * The {@link ConflictChecker} that finds the conflicts.
+		 */
+		private final ConflictChecker<E> checker;
+
+		/**
+		 * The start of the range.
+		 */
+		private final DateTime start;
+
+		/**
+		 * The end of the range.
+		 */
+		private final DateTime end;
+
+		/**
+		 * Creates a new {@link ConflictWorker}.
+		 * 
+		 * @param checker
+		 *            the {@link ConflictChecker} that finds the conflicts
+		 * @param start
+		 *            the start of the range
+		 * @param end
+		 *            the end of the range
+		 */
+		public ConflictWorker(ConflictChecker<E> checker, DateTime start, DateTime end) {
+			this.checker = checker;
+			this.start = start;
+			this.end = end;
 		}
-		
-		DateTime dateTime = new DateTime(
-				Integer.parseInt(yearTextField.getText()), 
-				monthComboBox.getSelectedIndex(), 
-				dayComboBox.getSelectedIndex(), 
-				hourComboBox.getSelectedIndex(), 
-				minuteComboBox.getSelectedIndex(), 
-				0, 
-				0);
-		return dateTime;
+
+		@Override
+		protected List<String> doInBackground() throws Exception {
+			List<E> events = checker.findOverlapping(start, end);
+			List<String> conflicts = new ArrayList<String>(events.size());
+			for (E event : events) {
+				if (isCancelled()) {
+					break;
+				}
+				conflicts.add(checker.describe(event));
+			}
+			return conflicts;
+		}
+
+		@Override
+		protected void done() {
+			// Ignore the result if the range has changed since it was checked.
+			if (conflictWorker != this || isCancelled()) {
+				return;
+			}
+			conflictWorker = null;
+			
+			try {
+				showConflicts(get());
+			} catch (ExecutionException e) {
+				showMessage("Could not check for conflicts.", String.valueOf(e.getCause()), true);
+			} catch (InterruptedException e) {
+				// Cannot happen because the check has finished.
+				Thread.currentThread().interrupt();
+			}
+		}
+
 	}
-	
+
 }
@@ -22,6 +22,7 @@ package ca.uwaterloo.cs.cs349.mikrocalendar.ui.datetimepicker;
 import java.awt.event.ActionEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.awt.event.WindowListener;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -30,6 +31,7 @@ import javax.swing.JDialog;
 import org.joda.time.DateTime;
 
 import ca.uwaterloo.cs.cs349.mikrocalendar.ui.DateTimePicker;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.IntervalIndex;
 
 /**
  * This {@link DateTimePicker} implementation interacts with a
@@ -60,6 +62,12 @@ public class DateTimePickerImpl implements DateTimePicker {
 	 * {@link DateTimePickerDialog}.
 	 */
 	private boolean userCancelled;
+
+	/**
+	 * The {@link ConflictChecker} that the picked range is checked with, or
+	 * null if it is not checked.
+	 */
+	private ConflictChecker<?> conflictChecker;
 	
 	/**
 	 * Creates a new {@link DateTimePickerImpl}.
@@ -94,6 +102,36 @@ public class DateTimePickerImpl implements DateTimePicker {
 		userCancelled = false;
 	}
 	
+	/**
+	 * Creates a new {@link DateTimePickerImpl} with a specified start and end
+	 * date time, which warns the user about the loaded events that the picked
+	 * range overlaps. The events are looked up in an {@link IntervalIndex} by
+	 * an {@link IntervalIndexConflictChecker}.
+	 * 
+	 * @param startDateTime
+	 *            the start {@link DateTime}
+	 * @param endDateTime
+	 *            the end {@link DateTime}
+	 * @param index
+	 *            the {@link IntervalIndex} of the loaded events
+	 */
+	public DateTimePickerImpl(DateTime startDateTime, DateTime endDateTime, IntervalIndex<?> index) {
+		this(startDateTime, endDateTime);
+		conflictChecker = IntervalIndexConflictChecker.create(index);
+	}
+	
+	/**
+	 * Sets the {@link ConflictChecker} that the picked range is checked with,
+	 * so that the user is warned about events that it overlaps.
+	 * 
+	 * @param conflictChecker
+	 *            the {@link ConflictChecker}, or null if the range should not
+	 *            be checked
+	 */
+	public void setConflictChecker(ConflictChecker<?> conflictChecker) {
+		this.conflictChecker = conflictChecker;
+	}
+	
 	@Override
 	public DateTime getStartDateTime() {
 		return startDateTime;
@@ -123,7 +161,7 @@ public class DateTimePickerImpl implements DateTimePicker {
 	public void showDateTimePicker() {
 		userCancelled = false;
 		
-		final DateTimePickerDialog dialog = new DateTimePickerDialog(startDateTime);
+		final DateTimePickerDialog dialog = DateTimePickerDialog.create(startDateTime, endDateTime);
 		
 		dialog.setOKAction(new AbstractAction("OK") {
 			
@@ -143,14 +181,16 @@ public class DateTimePickerImpl implements DateTimePicker {
 			}
 		};
 		
-		dialog.addWindowListener(new WindowAdapter() {
+		WindowListener closeListener = new WindowAdapter() {
 			@Override
 			public void windowClosing(WindowEvent e) {
 				userCancelled = true;
 			}
-		});
+		};
+		dialog.addWindowListener(closeListener);
 		
 		dialog.setCancelAction(cancelAction);
+		dialog.setConflictChecker(conflictChecker);
 		
 		dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
 		dialog.pack();
@@ -160,7 +200,12 @@ public class DateTimePickerImpl implements DateTimePicker {
 		
 		if (!userCancelled) {
 			startDateTime = dialog.getDateTime();
+			endDateTime = dialog.getEndDateTime();
 		}
+		
+		// Keep the dialog for the next time a date time is picked.
+		dialog.removeWindowListener(closeListener);
+		dialog.release();
 	}
 
 }
@@ -0,0 +1,97 @@
+/*
+ * MikroCalendar Date/Time Picker
+ * User interface for selecting a date and time.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.datetimepicker;
+
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.ChunkedEventLoader;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.IntervalIndex;
+
+/**
+ * This {@link ConflictChecker} looks up overlapping events in an
+ * {@link IntervalIndex} of the events that have already been loaded from a
+ * {@link ca.uwaterloo.cs.cs349.mikrocalendar.events.MikroEventManager},
+ * because the manager itself cannot be asked for the events in a range. The
+ * index is usually filled as events arrive, from
+ * {@link ChunkedEventLoader#eventsLoaded(List)}. Events that have not been
+ * loaded yet are not reported.
+ * 
+ * @author Terry Yiu
+ * 
+ * @param <E>
+ *            the type of event that is checked
+ */
+public class IntervalIndexConflictChecker<E> extends ConflictChecker<E> {
+
+	/**
+	 * The {@link IntervalIndex} of the loaded events.
+	 */
+	private final IntervalIndex<E> index;
+
+	/**
+	 * Creates a new {@link IntervalIndexConflictChecker}.
+	 * 
+	 * @param index
+	 *            the {@link IntervalIndex} of the loaded events
+	 */
+	public IntervalIndexConflictChecker(IntervalIndex<E> index) {
+		if (index == null) {
+			throw new IllegalArgumentException("Index cannot be null.");
+		}
+		
+		this.index = index;
+	}
+
+	/**
+	 * Creates a new {@link IntervalIndexConflictChecker} for an
+	 * {@link IntervalIndex} of any type of event.
+	 * 
+	 * @param index
+	 *            the {@link IntervalIndex} of the loaded events
+	 * @return the {@link IntervalIndexConflictChecker}
+	 */
+	public static <E> IntervalIndexConflictChecker<E> create(IntervalIndex<E> index) {
+		return new IntervalIndexConflictChecker<E>(index);
+	}
+
+	/**
+	 * Returns the {@link IntervalIndex} that conflicts are looked up in.
+	 * 
+	 * @return the {@link IntervalIndex}
+	 */
+	public IntervalIndex<E> getIndex() {
+		return index;
+	}
+
+	@Override
+	protected List<E> findOverlapping(DateTime start, DateTime end) 
+			throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		
+		// The index is thread-safe, so it can be read while the event
+		// dispatching thread adds events to it.
+		return index.findOverlapping(start, end);
+	}
+
+}
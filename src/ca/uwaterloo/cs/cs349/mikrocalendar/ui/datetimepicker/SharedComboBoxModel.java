@@ -0,0 +1,175 @@
+/*
+ * MikroCalendar Date/Time Picker
+ * User interface for selecting a date and time.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.datetimepicker;
+
+import javax.swing.AbstractListModel;
+import javax.swing.ComboBoxModel;
+
+/**
+ * This {@link ComboBoxModel} lists items from an immutable array that is
+ * shared by every model of the same kind, so that creating a model or
+ * reading its items allocates nothing. Only the selected item belongs to the
+ * model, because a {@link javax.swing.JComboBox} keeps its selection in its
+ * model.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+class SharedComboBoxModel extends AbstractListModel implements ComboBoxModel {
+
+	/**
+	 * The selectable months. The first item is null so that no month can be
+	 * selected.
+	 */
+	private static final Object[] MONTHS = new Object[]{
+		null,
+		"January", 
+		"February", 
+		"March", 
+		"April", 
+		"May", 
+		"June", 
+		"July", 
+		"August", 
+		"September", 
+		"October", 
+		"November", 
+		"December"};
+
+	/**
+	 * The selectable days. The first item is null so that no day can be
+	 * selected.
+	 */
+	private static final Object[] DAYS = createRange(true, 1, 31);
+
+	/**
+	 * The selectable hours.
+	 */
+	private static final Object[] HOURS = createRange(false, 0, 23);
+
+	/**
+	 * The selectable minutes.
+	 */
+	private static final Object[] MINUTES = createRange(false, 0, 59);
+
+	/**
+	 * The items, which must not be modified.
+	 */
+	private final Object[] items;
+
+	/**
+	 * The selected item, or null if there is none.
+	 */
+	private Object selectedItem;
+
+	/**
+	 * Creates a new {@link SharedComboBoxModel}.
+	 * 
+	 * @param items
+	 *            the shared items
+	 */
+	private SharedComboBoxModel(Object[] items) {
+		this.items = items;
+	}
+
+	/**
+	 * Creates a new model of the months, from "January" to "December" at
+	 * indexes 1 to 12.
+	 * 
+	 * @return the model
+	 */
+	public static SharedComboBoxModel createMonthModel() {
+		return new SharedComboBoxModel(MONTHS);
+	}
+
+	/**
+	 * Creates a new model of the days, from 1 to 31 at the same indexes.
+	 * 
+	 * @return the model
+	 */
+	public static SharedComboBoxModel createDayModel() {
+		return new SharedComboBoxModel(DAYS);
+	}
+
+	/**
+	 * Creates a new model of the hours, from 0 to 23 at the same indexes.
+	 * 
+	 * @return the model
+	 */
+	public static SharedComboBoxModel createHourModel() {
+		return new SharedComboBoxModel(HOURS);
+	}
+
+	/**
+	 * Creates a new model of the minutes, from 0 to 59 at the same indexes.
+	 * 
+	 * @return the model
+	 */
+	public static SharedComboBoxModel createMinuteModel() {
+		return new SharedComboBoxModel(MINUTES);
+	}
+
+	/**
+	 * Creates an array of the {@link Integer}s in a range.
+	 * 
+	 * @param leadingNull
+	 *            true if the array should start with null
+	 * @param first
+	 *            the first {@link Integer}
+	 * @param last
+	 *            the last {@link Integer}
+	 * @return the array
+	 */
+	private static Object[] createRange(boolean leadingNull, int first, int last) {
+		int offset = leadingNull ? 1 : 0;
+		Object[] range = new Object[last - first + 1 + offset];
+		for (int i = first; i <= last; i++) {
+			range[i - first + offset] = Integer.valueOf(i);
+		}
+		return range;
+	}
+
+	@Override
+	public int getSize() {
+		return items.length;
+	}
+
+	@Override
+	public Object getElementAt(int index) {
+		if (index < 0 || index >= items.length) {
+			return null;
+		}
+		return items[index];
+	}
+
+	@Override
+	public Object getSelectedItem() {
+		return selectedItem;
+	}
+
+	@Override
+	public void setSelectedItem(Object item) {
+		if (selectedItem == null ? item != null : !selectedItem.equals(item)) {
+			selectedItem = item;
+			fireContentsChanged(this, -1, -1);
+		}
+	}
+
+}
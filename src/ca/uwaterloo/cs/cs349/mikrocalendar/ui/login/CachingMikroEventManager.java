@@ -0,0 +1,543 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import ca.uwaterloo.cs.cs349.mikrocalendar.events.MikroEventManager;
+
+/**
+ * This {@link InvocationHandler} stands in front of a
+ * {@link MikroEventManager} and remembers the results of its reads. A read is
+ * any method that returns a value and is not a write. A write is any method
+ * that returns nothing, or whose name starts with a verb that may change
+ * events, even if it returns a value. Counting too many methods as writes
+ * only costs cache hits. Results are keyed by the method and its arguments,
+ * expire after a fixed time, and are evicted least recently used first once
+ * the cache is full. Any write through the same {@link MikroEventManager}
+ * clears the cache both before and after it is made, because which reads a
+ * write affects cannot be known. While a
+ * {@link WriteBehindMikroEventManager} behind it still has writes to deliver,
+ * reads go through without being cached, because they may not see those
+ * writes yet. Calls that fail are not cached.
+ * <p>
+ * Callers may modify the results that they are given. Strings, numbers,
+ * booleans, and enums cannot be modified, and are handed out as they are.
+ * Other {@link Serializable} results are kept serialized, and every hit is
+ * given its own copy. Results of any other type are not cached.
+ * <p>
+ * The number of results that are kept and the number of milliseconds that a
+ * result stays valid can be configured with the
+ * <code>mikrocalendar.cache.size</code> and <code>mikrocalendar.cache.ttl</code>
+ * system properties. The counters of the cache are registered with the
+ * platform {@link MBeanServer} under the backend, service, and username of
+ * the session, and are unregistered when the cache is closed. Closing the
+ * cache also closes the {@link MikroEventManager} behind it.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class CachingMikroEventManager implements InvocationHandler, Closeable, CachingMikroEventManagerMXBean {
+
+	/**
+	 * The default maximum number of results that are kept.
+	 */
+	private static final int DEFAULT_SIZE = 1000;
+
+	/**
+	 * The default number of milliseconds that a result stays valid.
+	 */
+	private static final long DEFAULT_TTL = 60000L;
+
+	/**
+	 * The names of methods that clear the cache.
+	 */
+	private static final Pattern WRITE_METHOD = 
+		Pattern.compile("(add|create|update|edit|set|delete|remove|post|save|put).*");
+
+	/**
+	 * The cache that is registered under each {@link ObjectName}. Guarded by
+	 * the class lock.
+	 */
+	private static final Map<ObjectName, CachingMikroEventManager> registrations = 
+		new HashMap<ObjectName, CachingMikroEventManager>();
+
+	/**
+	 * This class is a result in the cache.
+	 */
+	private static class CachedResult {
+
+		/**
+		 * The result if it cannot be modified, or null if it is kept
+		 * serialized.
+		 */
+		private final Object value;
+
+		/**
+		 * The serialized result, or null if the result cannot be modified.
+		 */
+		private final byte[] serialized;
+
+		/**
+		 * The time, in nanoseconds, at which the result expires.
+		 */
+		private final long expiryTime;
+
+		/**
+		 * Creates a new {@link CachedResult}.
+		 * 
+		 * @param value
+		 *            the result if it cannot be modified, or null
+		 * @param serialized
+		 *            the serialized result, or null
+		 * @param expiryTime
+		 *            the time, in nanoseconds, at which the result expires
+		 */
+		private CachedResult(Object value, byte[] serialized, long expiryTime) {
+			this.value = value;
+			this.serialized = serialized;
+			this.expiryTime = expiryTime;
+		}
+
+		/**
+		 * Creates a {@link CachedResult} that keeps a result, or returns null
+		 * if the result cannot be kept.
+		 * 
+		 * @param value
+		 *            the result
+		 * @param expiryTime
+		 *            the time, in nanoseconds, at which the result expires
+		 * @return the {@link CachedResult}, or null
+		 */
+		private static CachedResult create(Object value, long expiryTime) {
+			if (value == null || value instanceof String || value instanceof Number 
+					|| value instanceof Boolean || value instanceof Character || value instanceof Enum) {
+				return new CachedResult(value, null, expiryTime);
+			}
+			if (!(value instanceof Serializable)) {
+				return null;
+			}
+
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				ObjectOutputStream out = new ObjectOutputStream(bytes);
+				out.writeObject(value);
+				out.close();
+				return new CachedResult(null, bytes.toByteArray(), expiryTime);
+			} catch (IOException e) {
+				// Something in the result cannot be serialized.
+				return null;
+			}
+		}
+
+		/**
+		 * Returns the result, or a copy of it that the caller may modify.
+		 * 
+		 * @return the result
+		 * @throws IOException
+		 *             Thrown if the result cannot be read back.
+		 * @throws ClassNotFoundException
+		 *             Thrown if a class of the result cannot be found.
+		 */
+		private Object get() throws IOException, ClassNotFoundException {
+			if (serialized == null) {
+				return value;
+			}
+
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized));
+			try {
+				return in.readObject();
+			} finally {
+				in.close();
+			}
+		}
+
+	}
+
+	/**
+	 * The {@link MikroEventManager} that reads and writes go to.
+	 */
+	private final MikroEventManager mikroEventManager;
+
+	/**
+	 * The number of nanoseconds that a result stays valid.
+	 */
+	private final long ttl;
+
+	/**
+	 * The results, from least to most recently used.
+	 */
+	private final LinkedHashMap<List<Object>, CachedResult> results;
+
+	/**
+	 * The number of times the cache has been cleared. A read that started
+	 * before the cache was cleared does not store its result.
+	 */
+	private long generation;
+
+	/**
+	 * The number of reads that were answered from the cache.
+	 */
+	private final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * The number of reads that went to the {@link MikroEventManager}.
+	 */
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * The number of results that were removed because the cache was full or
+	 * they had expired.
+	 */
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * The number of times the cache was cleared because of a write.
+	 */
+	private final AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * The {@link ObjectName} that the counters are registered under, or null
+	 * if they are not registered.
+	 */
+	private ObjectName objectName;
+
+	/**
+	 * Creates a new {@link CachingMikroEventManager}.
+	 * 
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager} that reads and writes go to
+	 * @param size
+	 *            the maximum number of results to keep
+	 * @param ttl
+	 *            the number of milliseconds that a result stays valid
+	 */
+	private CachingMikroEventManager(MikroEventManager mikroEventManager, final int size, long ttl) {
+		this.mikroEventManager = mikroEventManager;
+		this.ttl = ttl * 1000000L;
+		this.results = new LinkedHashMap<List<Object>, CachedResult>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<List<Object>, CachedResult> eldest) {
+				if (size() > size) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Creates a {@link MikroEventManager} that caches the reads of the
+	 * specified {@link MikroEventManager}, and registers its counters with
+	 * the platform {@link MBeanServer} under the backend, service, and
+	 * username that were logged in with. A cache registered earlier for the
+	 * same session is replaced.
+	 * 
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager}
+	 * @param backend
+	 *            the backend that was logged into
+	 * @param service
+	 *            the service that was logged into
+	 * @param username
+	 *            the username that was logged in with
+	 * @return the {@link MikroEventManager}
+	 */
+	public static MikroEventManager create(MikroEventManager mikroEventManager, 
+			String backend, String service, String username) {
+		if (mikroEventManager == null) {
+			throw new IllegalArgumentException("MikroEventManager cannot be null.");
+		}
+
+		CachingMikroEventManager handler = new CachingMikroEventManager(mikroEventManager,
+				Math.max(1, Integer.getInteger("mikrocalendar.cache.size", DEFAULT_SIZE).intValue()),
+				Long.getLong("mikrocalendar.cache.ttl", DEFAULT_TTL).longValue());
+		register(handler, backend, service, username);
+
+		return (MikroEventManager) Proxy.newProxyInstance(
+				MikroEventManager.class.getClassLoader(),
+				new Class<?>[] { MikroEventManager.class },
+				handler);
+	}
+
+	/**
+	 * Returns the {@link MikroEventManager} that reads and writes go to.
+	 * 
+	 * @return the {@link MikroEventManager}
+	 */
+	MikroEventManager getMikroEventManager() {
+		return mikroEventManager;
+	}
+
+	/**
+	 * Clears the cache of a {@link MikroEventManager} created by
+	 * {@link #create(MikroEventManager, String, String, String)}, because the
+	 * events behind it have been changed by something other than the cache,
+	 * such as another program. The session of a {@link SessionPool} is looked
+	 * through. Does nothing for any other {@link MikroEventManager}.
+	 * 
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager}
+	 */
+	public static void invalidate(MikroEventManager mikroEventManager) {
+		SessionPool.Session session = SessionPool.getSession(mikroEventManager);
+		if (session != null) {
+			mikroEventManager = session.getMikroEventManager();
+		}
+		if (mikroEventManager == null || !Proxy.isProxyClass(mikroEventManager.getClass())) {
+			return;
+		}
+
+		InvocationHandler handler = Proxy.getInvocationHandler(mikroEventManager);
+		if (handler instanceof CachingMikroEventManager) {
+			((CachingMikroEventManager) handler).invalidate(true);
+		}
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		// Object methods are answered by the proxy itself.
+		if (method.getDeclaringClass() == Object.class) {
+			if (method.getName().equals("equals")) {
+				return Boolean.valueOf(proxy == args[0]);
+			} else if (method.getName().equals("hashCode")) {
+				return Integer.valueOf(System.identityHashCode(proxy));
+			} else {
+				return "CachingMikroEventManager[" + mikroEventManager + "]";
+			}
+		}
+
+		// Writes are never cached, whatever they return. Reads that overlap
+		// a write do not store their results.
+		if (method.getReturnType() == Void.TYPE || WRITE_METHOD.matcher(method.getName()).matches()) {
+			invalidate(true);
+			try {
+				return call(method, args);
+			} finally {
+				invalidate(false);
+			}
+		}
+
+		List<Object> key = args == null 
+				? Arrays.<Object>asList(method) 
+				: Arrays.<Object>asList(method, Arrays.asList(args));
+		long startGeneration;
+		CachedResult hit = null;
+		synchronized (this) {
+			CachedResult result = results.get(key);
+			if (result != null) {
+				if (System.nanoTime() - result.expiryTime < 0L) {
+					hit = result;
+				} else {
+					results.remove(key);
+					evictions.incrementAndGet();
+				}
+			}
+			startGeneration = generation;
+		}
+
+		if (hit != null) {
+			try {
+				Object value = hit.get();
+				hits.incrementAndGet();
+				return value;
+			} catch (IOException e) {
+				// The result is read again below.
+			} catch (ClassNotFoundException e) {
+				// The result is read again below.
+			}
+		}
+
+		// A read that starts while writes are still being delivered behind
+		// the cache may not see them, so its result is not kept. A write
+		// made through the cache after this point changes the generation.
+		boolean cacheable = !WriteBehindMikroEventManager.hasPendingWrites(mikroEventManager);
+
+		misses.incrementAndGet();
+		Object value = call(method, args);
+
+		if (cacheable) {
+			CachedResult result = CachedResult.create(value, System.nanoTime() + ttl);
+			synchronized (this) {
+				if (result != null && generation == startGeneration) {
+					results.put(key, result);
+				}
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Calls a method of the {@link MikroEventManager}.
+	 * 
+	 * @param method
+	 *            the method
+	 * @param args
+	 *            the arguments
+	 * @return the result
+	 * @throws Throwable
+	 *             Thrown if the method fails.
+	 */
+	private Object call(Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(mikroEventManager, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Clears the cache.
+	 * 
+	 * @param counted
+	 *            true if the clearing counts towards the invalidations
+	 */
+	private synchronized void invalidate(boolean counted) {
+		results.clear();
+		generation++;
+		if (counted) {
+			invalidations.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Unregisters the counters of the cache, empties it, and closes the
+	 * {@link MikroEventManager} behind it.
+	 */
+	@Override
+	public void close() {
+		synchronized (CachingMikroEventManager.class) {
+			if (objectName != null && registrations.get(objectName) == this) {
+				registrations.remove(objectName);
+				try {
+					ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+				} catch (JMException e) {
+					// It has already been unregistered.
+				} catch (SecurityException e) {
+					// It will be unregistered when the JVM exits.
+				}
+			}
+			objectName = null;
+		}
+		invalidate(false);
+
+		MikroEventManagers.close(mikroEventManager);
+	}
+
+	@Override
+	public long getHits() {
+		return hits.get();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	@Override
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	@Override
+	public synchronized int getSize() {
+		return results.size();
+	}
+
+	@Override
+	public double getHitRatio() {
+		long hitCount = hits.get();
+		long total = hitCount + misses.get();
+		return total == 0L ? 0.0 : (double) hitCount / (double) total;
+	}
+
+	/**
+	 * Registers the counters of a cache with the platform
+	 * {@link MBeanServer}, replacing any cache registered for the same
+	 * session. Failures are ignored because metrics must never break a login.
+	 * 
+	 * @param handler
+	 *            the {@link CachingMikroEventManager}
+	 * @param backend
+	 *            the backend
+	 * @param service
+	 *            the name of the service
+	 * @param username
+	 *            the username
+	 */
+	private static void register(CachingMikroEventManager handler, 
+			String backend, String service, String username) {
+		try {
+			ObjectName name = new ObjectName(LoginMetrics.DOMAIN + ":type=EventCache"
+					+ ",backend=" + ObjectName.quote(backend)
+					+ ",service=" + ObjectName.quote(service)
+					+ ",username=" + ObjectName.quote(username));
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			synchronized (CachingMikroEventManager.class) {
+				if (server.isRegistered(name)) {
+					server.unregisterMBean(name);
+				}
+				server.registerMBean(handler, name);
+				
+				// The replaced cache must not unregister this one when it is
+				// closed.
+				CachingMikroEventManager replaced = registrations.put(name, handler);
+				if (replaced != null) {
+					replaced.objectName = null;
+				}
+				handler.objectName = name;
+			}
+		} catch (JMException e) {
+			// The cache still works, its counters are just not exposed.
+		} catch (SecurityException e) {
+			// The cache still works, its counters are just not exposed.
+		}
+	}
+
+}
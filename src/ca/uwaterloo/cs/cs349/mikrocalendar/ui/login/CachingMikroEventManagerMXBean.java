@@ -0,0 +1,75 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login;
+
+/**
+ * This management interface exposes the counters of a
+ * {@link CachingMikroEventManager} through JMX.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public interface CachingMikroEventManagerMXBean {
+
+	/**
+	 * Returns the number of reads that were answered from the cache.
+	 * 
+	 * @return the number of hits
+	 */
+	long getHits();
+
+	/**
+	 * Returns the number of reads that had to go to the
+	 * {@link ca.uwaterloo.cs.cs349.mikrocalendar.events.MikroEventManager}.
+	 * 
+	 * @return the number of misses
+	 */
+	long getMisses();
+
+	/**
+	 * Returns the number of results that were removed because the cache was
+	 * full or they had expired.
+	 * 
+	 * @return the number of evictions
+	 */
+	long getEvictions();
+
+	/**
+	 * Returns the number of times the cache was cleared because of a write.
+	 * 
+	 * @return the number of invalidations
+	 */
+	long getInvalidations();
+
+	/**
+	 * Returns the number of results in the cache.
+	 * 
+	 * @return the size
+	 */
+	int getSize();
+
+	/**
+	 * Returns the fraction of reads that were answered from the cache.
+	 * 
+	 * @return the hit ratio, between 0 and 1
+	 */
+	double getHitRatio();
+
+}
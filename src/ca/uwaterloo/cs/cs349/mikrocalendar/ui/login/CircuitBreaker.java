@@ -0,0 +1,196 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login;
+
+import java.util.concurrent.Callable;
+
+/**
+ * This class stops logins from being attempted against a service that is
+ * known to be down. After a number of consecutive network or timeout failures,
+ * the circuit opens and logins fail right away with a
+ * {@link CircuitOpenException}. Once the open period has passed, a single
+ * trial login is let through. If it succeeds, the circuit closes again.
+ * Otherwise, the circuit stays open for another period.
+ * <p>
+ * Authentication failures do not count towards opening the circuit, because
+ * the service answered.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class CircuitBreaker {
+
+	/**
+	 * The default number of consecutive failures that open the circuit.
+	 */
+	private static final int DEFAULT_FAILURE_THRESHOLD = 3;
+
+	/**
+	 * The default number of milliseconds that the circuit stays open.
+	 */
+	private static final long DEFAULT_OPEN_PERIOD = 30000L;
+
+	/**
+	 * The number of consecutive failures that open the circuit.
+	 */
+	private final int failureThreshold;
+
+	/**
+	 * The number of milliseconds that the circuit stays open.
+	 */
+	private final long openPeriod;
+
+	/**
+	 * The number of consecutive network or timeout failures.
+	 */
+	private int failures;
+
+	/**
+	 * The time, in milliseconds, at which the circuit was opened, or -1 if the
+	 * circuit is closed.
+	 */
+	private long openedAt;
+
+	/**
+	 * true if a trial login is in progress while the circuit is half open.
+	 */
+	private boolean trialInProgress;
+
+	/**
+	 * Creates a new {@link CircuitBreaker} with the default failure threshold
+	 * and open period.
+	 */
+	public CircuitBreaker() {
+		this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_PERIOD);
+	}
+
+	/**
+	 * Creates a new {@link CircuitBreaker} with the specified failure
+	 * threshold and open period.
+	 * 
+	 * @param failureThreshold
+	 *            the number of consecutive failures that open the circuit
+	 * @param openPeriod
+	 *            the number of milliseconds that the circuit stays open
+	 */
+	public CircuitBreaker(int failureThreshold, long openPeriod) {
+		if (failureThreshold <= 0) {
+			throw new IllegalArgumentException("Failure threshold must be positive.");
+		}
+
+		this.failureThreshold = failureThreshold;
+		this.openPeriod = openPeriod;
+		openedAt = -1L;
+	}
+
+	/**
+	 * Runs the specified login if the circuit allows it, and records whether
+	 * it succeeded.
+	 * 
+	 * @param login
+	 *            the login
+	 * @return the result of the login
+	 * @throws CircuitOpenException
+	 *             Thrown if the circuit is open.
+	 * @throws Exception
+	 *             Thrown if the login fails.
+	 */
+	public <T> T call(Callable<T> login) throws Exception {
+		acquire();
+
+		boolean recorded = false;
+		try {
+			T result = login.call();
+			recorded = true;
+			recordSuccess();
+			return result;
+		} catch (Exception e) {
+			recorded = true;
+			recordFailure(LoginFailure.classify(e));
+			throw e;
+		} finally {
+			// An Error must not leave the trial in progress forever.
+			if (!recorded) {
+				recordFailure(LoginFailure.UNKNOWN);
+			}
+		}
+	}
+
+	/**
+	 * Returns whether or not the circuit is currently open.
+	 * 
+	 * @return true if logins are failing fast. false otherwise.
+	 */
+	public synchronized boolean isOpen() {
+		return openedAt != -1L
+				&& (trialInProgress || System.currentTimeMillis() - openedAt < openPeriod);
+	}
+
+	/**
+	 * Checks that a login may be attempted.
+	 * 
+	 * @throws CircuitOpenException
+	 *             Thrown if the circuit is open.
+	 */
+	private synchronized void acquire() throws CircuitOpenException {
+		if (openedAt == -1L) {
+			return;
+		}
+
+		if (trialInProgress || System.currentTimeMillis() - openedAt < openPeriod) {
+			throw new CircuitOpenException("The service is currently unavailable.");
+		}
+
+		// The open period has passed. Let a single trial login through.
+		trialInProgress = true;
+	}
+
+	/**
+	 * Records a successful login, closing the circuit.
+	 */
+	private synchronized void recordSuccess() {
+		failures = 0;
+		openedAt = -1L;
+		trialInProgress = false;
+	}
+
+	/**
+	 * Records a failed login, opening the circuit if there have been too many
+	 * consecutive network or timeout failures. Failures that are not
+	 * conclusive, such as cancellations, leave the circuit as it is.
+	 * 
+	 * @param failure
+	 *            the classification of the failure
+	 */
+	private synchronized void recordFailure(LoginFailure failure) {
+		if (failure == LoginFailure.NETWORK || failure == LoginFailure.TIMEOUT) {
+			failures++;
+			if (trialInProgress || failures >= failureThreshold) {
+				openedAt = System.currentTimeMillis();
+			}
+		} else if (failure.isConclusive()) {
+			// The service answered, so it is up.
+			failures = 0;
+			openedAt = -1L;
+		}
+		trialInProgress = false;
+	}
+
+}
@@ -0,0 +1,41 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login;
+
+/**
+ * This {@link Exception} is thrown when a login is not attempted because the
+ * {@link CircuitBreaker} of the service is open.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class CircuitOpenException extends Exception {
+
+	/**
+	 * Creates a new {@link CircuitOpenException} with the specified message.
+	 * 
+	 * @param message
+	 *            the message
+	 */
+	public CircuitOpenException(String message) {
+		super(message);
+	}
+
+}
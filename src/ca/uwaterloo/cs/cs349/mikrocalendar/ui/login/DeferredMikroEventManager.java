@@ -0,0 +1,157 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.swing.SwingUtilities;
+
+import ca.uwaterloo.cs.cs349.mikrocalendar.events.MikroEventManager;
+
+/**
+ * This {@link InvocationHandler} stands in for a {@link MikroEventManager}
+ * that is still being created in the background. A call to the
+ * {@link MikroEventManager} from a background thread waits until it has been
+ * created, but for no longer than a timeout. A call on the event dispatching
+ * thread never waits: until the {@link MikroEventManager} has been created, it
+ * fails right away with an {@link IllegalStateException}, so that the user
+ * interface stays responsive and can try again later, or load its data on a
+ * background thread instead. If the {@link MikroEventManager} could not be
+ * created, every call throws the {@link Exception} that caused the failure.
+ * Closing the handler cancels the creation, or closes the
+ * {@link MikroEventManager} if it has already been created.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class DeferredMikroEventManager implements InvocationHandler, Closeable {
+
+	/**
+	 * The {@link Future} of the {@link MikroEventManager} being created.
+	 */
+	private final Future<MikroEventManager> mikroEventManagerFuture;
+
+	/**
+	 * The number of milliseconds that each call waits for the
+	 * {@link MikroEventManager} to be created.
+	 */
+	private final long timeout;
+
+	/**
+	 * Creates a new {@link DeferredMikroEventManager} with a specified
+	 * {@link Future}.
+	 * 
+	 * @param mikroEventManagerFuture
+	 *            the {@link Future} of the {@link MikroEventManager}
+	 * @param timeout
+	 *            the number of milliseconds that each call waits
+	 */
+	private DeferredMikroEventManager(Future<MikroEventManager> mikroEventManagerFuture, long timeout) {
+		this.mikroEventManagerFuture = mikroEventManagerFuture;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Creates a {@link MikroEventManager} that can be used right away, and
+	 * that forwards each call to the {@link MikroEventManager} of the
+	 * specified {@link Future} once it is available.
+	 * 
+	 * @param mikroEventManagerFuture
+	 *            the {@link Future} of the {@link MikroEventManager}
+	 * @param timeout
+	 *            the number of milliseconds that each call from a background
+	 *            thread waits for the {@link MikroEventManager} before it
+	 *            fails with an {@link IllegalStateException}
+	 * @return the {@link MikroEventManager}
+	 */
+	public static MikroEventManager create(Future<MikroEventManager> mikroEventManagerFuture, long timeout) {
+		if (mikroEventManagerFuture == null) {
+			throw new IllegalArgumentException("Future cannot be null.");
+		}
+		if (timeout <= 0) {
+			throw new IllegalArgumentException("Timeout must be positive.");
+		}
+
+		return (MikroEventManager) Proxy.newProxyInstance(
+				MikroEventManager.class.getClassLoader(),
+				new Class<?>[] { MikroEventManager.class },
+				new DeferredMikroEventManager(mikroEventManagerFuture, timeout));
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		// Object methods should not wait for the MikroEventManager.
+		if (method.getDeclaringClass() == Object.class) {
+			if (method.getName().equals("equals")) {
+				return Boolean.valueOf(proxy == args[0]);
+			} else if (method.getName().equals("hashCode")) {
+				return Integer.valueOf(System.identityHashCode(proxy));
+			} else {
+				return "DeferredMikroEventManager[" + mikroEventManagerFuture + "]";
+			}
+		}
+
+		if (!mikroEventManagerFuture.isDone() && SwingUtilities.isEventDispatchThread()) {
+			throw new IllegalStateException("The event manager is not ready yet.");
+		}
+
+		MikroEventManager mikroEventManager;
+		try {
+			mikroEventManager = mikroEventManagerFuture.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			throw e.getCause();
+		} catch (TimeoutException e) {
+			throw new IllegalStateException(
+					"The event manager was not ready within " + timeout + " ms.", e);
+		}
+
+		try {
+			return method.invoke(mikroEventManager, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	@Override
+	public void close() {
+		// Stop the creation if it is still running. Otherwise, close the
+		// MikroEventManager that it created.
+		if (mikroEventManagerFuture.cancel(true) || mikroEventManagerFuture.isCancelled()) {
+			return;
+		}
+
+		try {
+			MikroEventManagers.close(mikroEventManagerFuture.get());
+		} catch (ExecutionException e) {
+			// Nothing was created, so there is nothing to close.
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class records latencies into logarithmic buckets so that percentiles
+ * can be estimated without keeping every sample. Each power of two is split
+ * into 32 sub-buckets, and a percentile is estimated as the middle of the
+ * bucket it falls in, which keeps its error under 2%. Recording is lock-free and safe to call from any thread.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class LatencyHistogram implements LatencyHistogramMXBean {
+
+	/**
+	 * The number of sub-buckets in each power of two, as a power of two.
+	 */
+	private static final int SUB_BUCKET_BITS = 5;
+
+	/**
+	 * The number of sub-buckets in each power of two.
+	 */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * The number of buckets, enough to cover every positive long.
+	 */
+	private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+	/**
+	 * The number of samples in each bucket.
+	 */
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * The number of samples.
+	 */
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * The largest sample, in nanoseconds.
+	 */
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a latency.
+	 * 
+	 * @param nanos
+	 *            the latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+
+		buckets.incrementAndGet(getBucket(nanos));
+		count.incrementAndGet();
+
+		long currentMax;
+		do {
+			currentMax = max.get();
+		} while (nanos > currentMax && !max.compareAndSet(currentMax, nanos));
+	}
+
+	@Override
+	public long getCount() {
+		return count.get();
+	}
+
+	@Override
+	public double getP50() {
+		return getPercentile(0.50);
+	}
+
+	@Override
+	public double getP99() {
+		return getPercentile(0.99);
+	}
+
+	@Override
+	public double getMax() {
+		return max.get() / 1000000.0;
+	}
+
+	/**
+	 * Returns an estimate of the specified percentile.
+	 * 
+	 * @param percentile
+	 *            the percentile, between 0 and 1
+	 * @return the estimated latency in milliseconds, or 0 if nothing has been
+	 *         recorded
+	 */
+	public double getPercentile(double percentile) {
+		long total = count.get();
+		if (total == 0) {
+			return 0.0;
+		}
+
+		long rank = Math.max(1L, (long) Math.ceil(percentile * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				// Do not report more than the largest sample.
+				return Math.min(getBucketMidpoint(i), max.get()) / 1000000.0;
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Returns the bucket that the specified latency is recorded in.
+	 * 
+	 * @param nanos
+	 *            the latency in nanoseconds
+	 * @return the index of the bucket
+	 */
+	private static int getBucket(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Returns the latency in the middle of the specified bucket.
+	 * 
+	 * @param bucket
+	 *            the index of the bucket
+	 * @return the latency in nanoseconds
+	 */
+	private static long getBucketMidpoint(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = bucket % SUB_BUCKETS;
+		long lowerBound = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+		return lowerBound + ((1L << (exponent - SUB_BUCKET_BITS)) - 1) / 2;
+	}
+
+}
@@ -0,0 +1,59 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login;
+
+/**
+ * This management interface exposes a {@link LatencyHistogram} through JMX.
+ * All latencies are in milliseconds.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public interface LatencyHistogramMXBean {
+
+	/**
+	 * Returns the number of latencies that have been recorded.
+	 * 
+	 * @return the count
+	 */
+	long getCount();
+
+	/**
+	 * Returns an estimate of the median latency.
+	 * 
+	 * @return the 50th percentile in milliseconds
+	 */
+	double getP50();
+
+	/**
+	 * Returns an estimate of the 99th percentile latency.
+	 * 
+	 * @return the 99th percentile in milliseconds
+	 */
+	double getP99();
+
+	/**
+	 * Returns the largest latency that has been recorded.
+	 * 
+	 * @return the maximum in milliseconds
+	 */
+	double getMax();
+
+}
@@ -21,6 +21,30 @@ package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login;
 
 import java.awt.Cursor;
 import java.awt.event.ActionEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.Closeable;
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -38,6 +62,17 @@ import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.twitter.TwitterService;
  */
 public abstract class LoginAction extends AbstractAction {
 
+	/**
+	 * The default estimate of how much heap a logged-in session uses, in
+	 * bytes.
+	 */
+	protected static final long DEFAULT_SESSION_SIZE = 4L * 1024L * 1024L;
+
+	/**
+	 * The {@link Logger} that sessions without write-behind are logged to.
+	 */
+	private static final Logger logger = Logger.getLogger(LoginAction.class.getName());
+
 	/**
 	 * The {@link LoginDialog} that contains the {@link TwitterService},
 	 * username, and password information.
@@ -45,6 +80,64 @@ public abstract class LoginAction extends AbstractAction {
 	 * @see #getLoginDialog()
 	 */
 	private final LoginDialog loginDialog;
+	
+	/**
+	 * This {@link Action} cancels the login that is in progress.
+	 * 
+	 * @see #getCancelAction()
+	 */
+	private final Action cancelAction;
+	
+	/**
+	 * The number of milliseconds that a login may take before it is cancelled.
+	 * 
+	 * @see #setLoginTimeout(long)
+	 */
+	private long loginTimeout;
+	
+	/**
+	 * The {@link LoginTask} that is in progress, or null if no login is in
+	 * progress. This field is only accessed on the event dispatching thread.
+	 */
+	private LoginTask loginTask;
+	
+	/**
+	 * The {@link Future} of the {@link LoginTask} that is in progress.
+	 */
+	private Future<MikroEventManager> loginFuture;
+	
+	/**
+	 * The {@link ScheduledFuture} that times out the {@link LoginTask} that is
+	 * in progress.
+	 */
+	private ScheduledFuture<?> deadline;
+	
+	/**
+	 * The resolved location of the service behind each
+	 * {@link MikroEventManager} that has just been created.
+	 * 
+	 * @see #setServiceLocation(MikroEventManager, String)
+	 */
+	private final Map<MikroEventManager, String> serviceLocations = 
+		Collections.synchronizedMap(new WeakHashMap<MikroEventManager, String>());
+	
+	/**
+	 * The session that each {@link MikroEventManager} created by a login has
+	 * joined, until the session is closed, so that the session can be closed
+	 * if the {@link MikroEventManager} turns out to have failed in the
+	 * background. This field is only accessed on the event dispatching
+	 * thread.
+	 */
+	private final Map<MikroEventManager, MikroEventManager> sessions = 
+		new HashMap<MikroEventManager, MikroEventManager>();
+	
+	/**
+	 * The failure of each {@link MikroEventManager} created in the background
+	 * that failed before it could join the {@link SessionPool}. This field is
+	 * only accessed on the event dispatching thread.
+	 */
+	private final Map<MikroEventManager, Exception> backgroundFailures = 
+		new WeakHashMap<MikroEventManager, Exception>();
 
 	/**
 	 * Creates a new {@link AbstractLoginAction} with a specified
@@ -62,13 +155,34 @@ public abstract class LoginAction extends AbstractAction {
 		}
 		
 		this.loginDialog = loginDialog;
+		loginTimeout = LoginExecutor.getDefaultTimeout();
+		
+		cancelAction = new AbstractAction("Cancel") {
+			
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				cancelLogin();
+			}
+		};
+		cancelAction.setEnabled(false);
+		
+		// Cancel any login that is in progress when the dialog goes away.
+		loginDialog.addWindowListener(new WindowAdapter() {
+			
+			@Override
+			public void windowClosed(WindowEvent e) {
+				cancelLogin();
+			}
+		});
 	}
 
 	/**
 	 * Creates a {@link MikroEventManager} and attempts to login to the service.
 	 * This method should not be called on the event dispatching thread. If
 	 * creating the {@link MikroEventManager} is a long task, the event
-	 * dispatching thread will be noticeably blocked.
+	 * dispatching thread will be noticeably blocked. The thread that this
+	 * method is called on is interrupted if the login is cancelled or times
+	 * out.
 	 * 
 	 * @return the {@link MikroEventManager}
 	 * @throws Exception
@@ -76,6 +190,94 @@ public abstract class LoginAction extends AbstractAction {
 	 */
 	protected abstract MikroEventManager createMikroEventManager() throws Exception;
 
+	/**
+	 * Called on the event dispatching thread when the Login button is clicked,
+	 * before the login starts. Subclasses should read everything that
+	 * {@link #createMikroEventManager()} needs from the {@link LoginDialog}
+	 * here, because Swing components must not be read on the login thread.
+	 * By default, this method does nothing.
+	 */
+	protected void prepareLogin() {
+		// No-op.
+	}
+
+	/**
+	 * Returns the name of the backend that this {@link LoginAction} logs into,
+	 * such as "local" or "twitter". It is used to tag the latencies that are
+	 * recorded in {@link LoginMetrics}.
+	 * 
+	 * @return the name of the backend
+	 */
+	protected String getBackendName() {
+		return getClass().getSimpleName();
+	}
+	
+	/**
+	 * Returns the name of the service that is about to be logged into. It is
+	 * used to tag the latencies that are recorded in {@link LoginMetrics}.
+	 * This method is called on the event dispatching thread.
+	 * 
+	 * @return the name of the service
+	 */
+	protected String getServiceName() {
+		return "default";
+	}
+
+	/**
+	 * Records where the service behind a {@link MikroEventManager} that
+	 * {@link #createMikroEventManager()} is about to return actually is, such
+	 * as the canonical path of a local file or the URL of the Twitter service
+	 * that was chosen. Pending writes are journaled under this location, so
+	 * that they are only ever delivered to the service they were made
+	 * against. If no location is recorded, the service name is used.
+	 * 
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager}
+	 * @param location
+	 *            the location of its service
+	 */
+	protected void setServiceLocation(MikroEventManager mikroEventManager, String location) {
+		serviceLocations.put(mikroEventManager, location);
+	}
+
+	/**
+	 * Returns an estimate of how much heap a logged-in session of this
+	 * backend uses, which counts towards the budget of the
+	 * {@link SessionPool}. This method is called on the login thread, after
+	 * the {@link MikroEventManager} has been created. By default, a fixed
+	 * estimate is used.
+	 * 
+	 * @return the estimated size in bytes
+	 */
+	protected long estimateSessionSize() {
+		return DEFAULT_SESSION_SIZE;
+	}
+
+	/**
+	 * Returns the message to show to the user when login fails. By default,
+	 * the message depends on the {@link LoginFailure} that the
+	 * {@link Exception} is classified as.
+	 * 
+	 * @param exception
+	 *            the {@link Exception} that caused the login to fail
+	 * @return the message
+	 */
+	protected String getFailureMessage(Exception exception) {
+		return LoginFailure.classify(exception).getMessage();
+	}
+
+	/**
+	 * Called on the event dispatching thread after a login has succeeded and
+	 * the login dialog has been disposed of. By default, this method does
+	 * nothing.
+	 * 
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager} that was logged in to
+	 */
+	protected void loggedIn(MikroEventManager mikroEventManager) {
+		// No-op.
+	}
+	
 	/**
 	 * Returns the {@link LoginDialog} that this {@link LoginAction} is tied to.
 	 * 
@@ -85,61 +287,80 @@ public abstract class LoginAction extends AbstractAction {
 		return loginDialog;
 	}
 	
+	/**
+	 * Returns the {@link Action} that cancels the login that is in progress.
+	 * The {@link Action} is only enabled while a login is in progress.
+	 * 
+	 * @return the cancel {@link Action}
+	 */
+	public Action getCancelAction() {
+		return cancelAction;
+	}
+	
+	/**
+	 * Returns the number of milliseconds that a login may take before it is
+	 * cancelled.
+	 * 
+	 * @return the timeout in milliseconds
+	 */
+	protected long getLoginTimeout() {
+		return loginTimeout;
+	}
+	
+	/**
+	 * Sets the number of milliseconds that a login may take before it is
+	 * cancelled.
+	 * 
+	 * @param loginTimeout
+	 *            the timeout in milliseconds
+	 */
+	public void setLoginTimeout(long loginTimeout) {
+		if (loginTimeout <= 0) {
+			throw new IllegalArgumentException("Login timeout must be positive.");
+		}
+		
+		this.loginTimeout = loginTimeout;
+	}
+	
 	@Override
 	public void actionPerformed(ActionEvent e) {
-		// Create a new thread for the login operation to run on.
-		// By creating a separate thread, the thread that the login dialog is
+		// Only one login may be in progress for each login dialog.
+		if (loginTask != null) {
+			return;
+		}
+		
+		prepareLogin();
+		
+		// Run the login operation on the shared login thread pool.
+		// By using a separate thread, the thread that the login dialog is
 		// running on will not block.
-		Thread loginThread = new Thread(new Runnable() {
+		final LoginTask task = new LoginTask();
+		try {
+			loginFuture = LoginExecutor.submit(task);
+		} catch (RejectedExecutionException ex) {
+			JOptionPane.showMessageDialog(
+					loginDialog, 
+					"Too many logins are in progress. Please try again later.", 
+					"Error", 
+					JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		loginTask = task;
+		
+		// Cancel the login if it does not finish before the deadline.
+		deadline = LoginExecutor.schedule(new Runnable() {
 			
 			@Override
 			public void run() {
-				try {
-					final MikroEventManager mikroEventManager = createMikroEventManager();
-					
-					// Login is successful. Change the UI accordingly on the
-					// event dispatching thread.
-					SwingUtilities.invokeLater(new Runnable() {
-						
-						@Override
-						public void run() {
-							// The cursor can be set back to normal and the
-							// login dialog can be disposed of.
-							loginDialog.setCursor(Cursor.getDefaultCursor());
-							loginDialog.dispose();
-							
-							// TODO Create the main frame and populate its components
-							// by retrieving data from the MikroEventManager.
-						}
-					});
+				SwingUtilities.invokeLater(new Runnable() {
 					
-				} catch (Exception e) {
-					// An exception is caught if login fails.
-					// Change the UI accordingly on the event dispatching
-					// thread.
-					SwingUtilities.invokeLater(new Runnable() {
-						
-						@Override
-						public void run() {
-							// The cursor can be set back to normal.
-							loginDialog.setCursor(Cursor.getDefaultCursor());
-							
-							// Show error dialog to user.
-							JOptionPane.showMessageDialog(
-									loginDialog, 
-									"Your username or password is invalid.", 
-									"Error", 
-									JOptionPane.ERROR_MESSAGE);
-							
-							// Re-enable components so that the user can fix their login
-							// information.
-							loginDialog.enableComponents(true);
-							setEnabled(true);
-						}
-					});
-				}
+					@Override
+					public void run() {
+						loginTimedOut(task);
+					}
+				});
 			}
-		});
+		}, loginTimeout);
 		
 		// Set the cursor to a throbber to indicate that logging in is in progress.
 		loginDialog.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
@@ -148,9 +369,533 @@ public abstract class LoginAction extends AbstractAction {
 		// login in is in progress.
 		setEnabled(false);
 		loginDialog.enableComponents(false);
+		cancelAction.setEnabled(true);
+	}
+	
+	/**
+	 * Cancels the login that is in progress, if any, and re-enables the
+	 * components of the {@link LoginDialog}. This method must be called on the
+	 * event dispatching thread.
+	 */
+	public void cancelLogin() {
+		if (loginTask == null) {
+			return;
+		}
+		
+		// Interrupt the thread that is creating the MikroEventManager.
+		loginFuture.cancel(true);
+		finishLogin();
+		
+		loginDialog.enableComponents(true);
+		setEnabled(true);
+	}
+	
+	/**
+	 * Called on the event dispatching thread when a {@link LoginTask} creates
+	 * its {@link MikroEventManager}. Only the current login joins the
+	 * {@link SessionPool}; the result of a login that has been cancelled or
+	 * has timed out is closed.
+	 * 
+	 * @param task
+	 *            the {@link LoginTask}
+	 * @param created
+	 *            the {@link MikroEventManager} that was created
+	 * @param mikroEventManager
+	 *            the decorated {@link MikroEventManager}
+	 * @param estimatedSize
+	 *            the estimated heap size of the session, in bytes
+	 */
+	private void loginSucceeded(LoginTask task, final MikroEventManager created, 
+			MikroEventManager mikroEventManager, long estimatedSize) {
+		// Release logins that have been cancelled or have timed out.
+		if (task != loginTask) {
+			closeInBackground(mikroEventManager);
+			return;
+		}
+		
+		// A MikroEventManager that was handed back early may already have
+		// failed in the background.
+		Exception failure = backgroundFailures.remove(created);
+		if (failure != null) {
+			closeInBackground(mikroEventManager);
+			loginFailed(task, failure);
+			return;
+		}
+		
+		// Every login joins the shared session pool, so that several
+		// calendars can be open at once within the heap budget.
+		MikroEventManager session = SessionPool.getInstance().add(
+				task.backend, task.service, task.username, mikroEventManager, estimatedSize);
+		sessions.put(created, session);
+		SessionPool.getSession(session).addCloseHook(new Closeable() {
+			
+			@Override
+			public void close() {
+				SwingUtilities.invokeLater(new Runnable() {
+					
+					@Override
+					public void run() {
+						sessions.remove(created);
+					}
+				});
+			}
+		});
+		
+		// The cursor can be set back to normal and the login dialog can be
+		// disposed of.
+		finishLogin();
+		loginDialog.dispose();
+		loggedIn(session);
+		
+		// TODO Create the main frame and populate its components
+		// by retrieving data from the MikroEventManager. Use a
+		// ChunkedEventLoader to retrieve the events so that the event
+		// dispatching thread is not blocked while they are loaded, and add
+		// them to an IntervalIndex as they arrive so that a
+		// DateTimePickerImpl created with the index warns about conflicts.
+		// Retain the SessionPool.Session while the main frame is shown, and
+		// add a close hook that tells the user if it is closed anyway.
+	}
+	
+	/**
+	 * Called on the event dispatching thread when a {@link LoginTask} fails to
+	 * create its {@link MikroEventManager}.
+	 * 
+	 * @param task
+	 *            the {@link LoginTask}
+	 * @param exception
+	 *            the {@link Exception} that caused the login to fail
+	 */
+	private void loginFailed(LoginTask task, Exception exception) {
+		// Ignore logins that have been cancelled or have timed out.
+		if (task != loginTask) {
+			return;
+		}
+		
+		// The cursor can be set back to normal.
+		finishLogin();
+		
+		// Show error dialog to user.
+		JOptionPane.showMessageDialog(
+				loginDialog, 
+				getFailureMessage(exception), 
+				"Error", 
+				JOptionPane.ERROR_MESSAGE);
+		
+		// Re-enable components so that the user can fix their login
+		// information.
+		loginDialog.enableComponents(true);
+		setEnabled(true);
+	}
+	
+	/**
+	 * Starts creating a {@link MikroEventManager} in the background, and
+	 * returns a {@link DeferredMikroEventManager} that stands in for it right
+	 * away. The creation is held to the login timeout. Calls from background
+	 * threads wait no longer than that for it, and calls on the event
+	 * dispatching thread fail until it is done. If the creation fails or times
+	 * out, the failure is reported with
+	 * {@link #backgroundLoginFailed(MikroEventManager, Exception)}. Closing the
+	 * returned {@link MikroEventManager} cancels the creation.
+	 * 
+	 * @param creation
+	 *            the {@link Callable} that creates the
+	 *            {@link MikroEventManager}
+	 * @return the {@link MikroEventManager}
+	 */
+	protected MikroEventManager createInBackground(Callable<MikroEventManager> creation) {
+		final long timeout = loginTimeout;
+		final AtomicBoolean timedOut = new AtomicBoolean();
+		final AtomicReference<MikroEventManager> deferred = new AtomicReference<MikroEventManager>();
+		final FutureTask<MikroEventManager> future = new FutureTask<MikroEventManager>(creation) {
+			
+			@Override
+			protected void done() {
+				// Being cancelled by close is not a failure.
+				if (isCancelled()) {
+					if (timedOut.get()) {
+						backgroundLoginFailed(deferred.get(), new TimeoutException(
+								"Login did not finish within " + timeout + " ms."));
+					}
+					return;
+				}
+				
+				try {
+					get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					backgroundLoginFailed(deferred.get(), cause instanceof Exception 
+							? (Exception) cause : e);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		
+		// The stand-in exists before the creation starts, so that a failure
+		// can always be tied to it.
+		deferred.set(DeferredMikroEventManager.create(future, timeout));
+		LoginExecutor.getFanOutExecutor().execute(future);
+		
+		LoginExecutor.schedule(new Runnable() {
+			
+			@Override
+			public void run() {
+				if (!future.isDone()) {
+					timedOut.set(true);
+					future.cancel(true);
+				}
+			}
+		}, timeout);
+		
+		return deferred.get();
+	}
+	
+	/**
+	 * Reports that a {@link MikroEventManager} which was handed back before it
+	 * was ready, such as a {@link DeferredMikroEventManager}, could not be
+	 * created after all. If it has joined the {@link SessionPool}, its session
+	 * is closed in the background; if it has not yet, its login fails when
+	 * it would have joined. The user is shown why, and the
+	 * {@link LoginDialog} is shown again so that they can log in again. This
+	 * method may be called on any thread.
+	 * 
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager} that was handed back
+	 * @param exception
+	 *            the {@link Exception} that caused the failure
+	 */
+	protected void backgroundLoginFailed(final MikroEventManager mikroEventManager, 
+			final Exception exception) {
+		SwingUtilities.invokeLater(new Runnable() {
+			
+			@Override
+			public void run() {
+				MikroEventManager session = sessions.remove(mikroEventManager);
+				if (session != null) {
+					closeSessionInBackground(SessionPool.getSession(session));
+				} else {
+					backgroundFailures.put(mikroEventManager, exception);
+				}
+				
+				// A login that has started since then takes precedence. If
+				// it is the login of the MikroEventManager, it fails once it
+				// finishes.
+				if (loginTask != null) {
+					return;
+				}
+				
+				JOptionPane.showMessageDialog(
+						null, 
+						getFailureMessage(exception), 
+						"Error", 
+						JOptionPane.ERROR_MESSAGE);
+				
+				loginDialog.enableComponents(true);
+				setEnabled(true);
+				loginDialog.setVisible(true);
+			}
+		});
+	}
+	
+	/**
+	 * Called on the event dispatching thread when the deadline of a
+	 * {@link LoginTask} passes.
+	 * 
+	 * @param task
+	 *            the {@link LoginTask}
+	 */
+	private void loginTimedOut(LoginTask task) {
+		// Ignore logins that have already finished.
+		if (task != loginTask) {
+			return;
+		}
+		
+		cancelLogin();
+		
+		JOptionPane.showMessageDialog(
+				loginDialog, 
+				LoginFailure.TIMEOUT.getMessage(), 
+				"Error", 
+				JOptionPane.ERROR_MESSAGE);
+	}
+	
+	/**
+	 * Closes a {@link MikroEventManager} that will not be used on the fan-out
+	 * executor of the {@link LoginExecutor}, because delivering its pending
+	 * writes may take a while.
+	 * 
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager}
+	 */
+	private static void closeInBackground(final MikroEventManager mikroEventManager) {
+		LoginExecutor.getFanOutExecutor().execute(new Runnable() {
+			
+			@Override
+			public void run() {
+				MikroEventManagers.close(mikroEventManager);
+			}
+		});
+	}
+	
+	/**
+	 * Closes a session of the {@link SessionPool} on the fan-out executor of
+	 * the {@link LoginExecutor}, because delivering its pending writes may
+	 * take a while.
+	 * 
+	 * @param session
+	 *            the {@link SessionPool.Session}
+	 */
+	private static void closeSessionInBackground(final SessionPool.Session session) {
+		LoginExecutor.getFanOutExecutor().execute(new Runnable() {
+			
+			@Override
+			public void run() {
+				SessionPool.getInstance().close(session);
+			}
+		});
+	}
+	
+	/**
+	 * Clears the login that is in progress and sets the cursor back to normal.
+	 */
+	private void finishLogin() {
+		deadline.cancel(false);
+		deadline = null;
+		loginFuture = null;
+		loginTask = null;
+		
+		cancelAction.setEnabled(false);
+		loginDialog.setCursor(Cursor.getDefaultCursor());
+	}
+	
+	/**
+	 * Wraps the {@link MikroEventManager} created by a login so that its reads
+	 * are cached by a {@link CachingMikroEventManager}, and, if it has been
+	 * turned on, some of its writes are delivered in the background by a
+	 * {@link WriteBehindMikroEventManager}.
+	 * <p>
+	 * Writing behind is off unless the <code>mikrocalendar.writeBehind</code>
+	 * system property is true. The writes that are delivered in the
+	 * background must then be listed, as comma-separated method names, in the
+	 * <code>mikrocalendar.writeBehind.replaceMethods</code> system property
+	 * for writes that set the state of an event and can safely be delivered
+	 * twice, and in the <code>mikrocalendar.writeBehind.appendMethods</code>
+	 * system property for writes that create something new each time. Writes
+	 * that are given up on are reported to the user. Pending writes are
+	 * journaled per backend, service location, and username, so that they are
+	 * only ever delivered to the account and service they were made with. If
+	 * another session of the same account and service is already using the
+	 * journal, in this or another process, the writes of this session are
+	 * delivered directly instead. The journal directory can be configured with the
+	 * <code>mikrocalendar.writeBehind.dir</code> system property. Caching can
+	 * be turned off by setting the <code>mikrocalendar.cache</code> system
+	 * property to false.
+	 * 
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager}
+	 * @param backend
+	 *            the backend that was logged into
+	 * @param service
+	 *            the service that was logged into
+	 * @param location
+	 *            the resolved location of the service
+	 * @param username
+	 *            the username that was logged in with
+	 * @return the wrapped {@link MikroEventManager}
+	 */
+	private static MikroEventManager decorate(MikroEventManager mikroEventManager, 
+			String backend, String service, String location, String username) {
+		Set<String> replaceMethods = getMethodNames("mikrocalendar.writeBehind.replaceMethods");
+		Set<String> appendMethods = getMethodNames("mikrocalendar.writeBehind.appendMethods");
+		if (Boolean.parseBoolean(System.getProperty("mikrocalendar.writeBehind", "false"))
+				&& (!replaceMethods.isEmpty() || !appendMethods.isEmpty())) {
+			File journalDirectory = new File(System.getProperty("mikrocalendar.writeBehind.dir",
+					System.getProperty("user.home") + File.separator
+					+ ".mikrocalendar" + File.separator + "journal"));
+			String journalName = createJournalName(backend, location, username);
+			try {
+				mikroEventManager = WriteBehindMikroEventManager.create(
+						mikroEventManager, new File(journalDirectory, journalName), 
+						replaceMethods, appendMethods, new WriteBehindMikroEventManager.Listener() {
+							
+							@Override
+							public void writesFailed(final String message) {
+								SwingUtilities.invokeLater(new Runnable() {
+									
+									@Override
+									public void run() {
+										JOptionPane.showMessageDialog(
+												null, 
+												message, 
+												"Error", 
+												JOptionPane.ERROR_MESSAGE);
+									}
+								});
+							}
+						});
+			} catch (IllegalStateException e) {
+				logger.log(Level.INFO, "Writes of " + username + " on " + service 
+						+ " are delivered directly.", e);
+			}
+		}
+		
+		// The cache sits in front, so that a write clears it before the
+		// write is even delivered.
+		if (Boolean.parseBoolean(System.getProperty("mikrocalendar.cache", "true"))) {
+			mikroEventManager = CachingMikroEventManager.create(mikroEventManager, backend, service, username);
+		}
+		
+		return mikroEventManager;
+	}
+	
+	/**
+	 * Returns the method names listed in a system property, separated by
+	 * commas.
+	 * 
+	 * @param property
+	 *            the name of the system property
+	 * @return the method names, which are empty if the property is not set
+	 */
+	private static Set<String> getMethodNames(String property) {
+		Set<String> names = new HashSet<String>();
+		for (String name : System.getProperty(property, "").split(",")) {
+			if (name.trim().length() > 0) {
+				names.add(name.trim());
+			}
+		}
+		return names;
+	}
+	
+	/**
+	 * Creates the name of the journal of a session. The name starts with the
+	 * backend and username so that it can be recognized, and ends with a
+	 * digest of the backend, service location, and username, because two
+	 * locations can look the same once they have been made safe to use in a
+	 * file name.
+	 * 
+	 * @param backend
+	 *            the backend that was logged into
+	 * @param location
+	 *            the resolved location of the service
+	 * @param username
+	 *            the username that was logged in with
+	 * @return the name of the journal file
+	 */
+	private static String createJournalName(String backend, String location, String username) {
+		String digest;
+		try {
+			byte[] bytes = MessageDigest.getInstance("SHA-256").digest(
+					(backend + "\n" + location + "\n" + username).getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder();
+			for (int i = 0; i < 16; i++) {
+				hex.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+				hex.append(Character.forDigit(bytes[i] & 0xf, 16));
+			}
+			digest = hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
 		
-		// Start login thread.
-		loginThread.start();
+		return (backend + "-" + username).replaceAll("[^A-Za-z0-9._-]", "_") 
+				+ "-" + digest + ".journal";
+	}
+	
+	/**
+	 * This {@link Callable} creates the {@link MikroEventManager} on a login
+	 * thread and reports the result back on the event dispatching thread. The
+	 * latency of each phase of the login is recorded in {@link LoginMetrics}.
+	 */
+	private class LoginTask implements Callable<MikroEventManager> {
+		
+		/**
+		 * The backend that is being logged into.
+		 */
+		private final String backend;
+		
+		/**
+		 * The name of the service that is being logged into.
+		 */
+		private final String service;
+		
+		/**
+		 * The username that is being logged in with.
+		 */
+		private final String username;
+		
+		/**
+		 * The time, in nanoseconds, at which the Login button was clicked.
+		 */
+		private final long clickTime;
+		
+		/**
+		 * Creates a new {@link LoginTask}. This constructor must be called on
+		 * the event dispatching thread.
+		 */
+		public LoginTask() {
+			backend = getBackendName();
+			service = getServiceName();
+			username = loginDialog.getUsername();
+			clickTime = System.nanoTime();
+		}
+		
+		@Override
+		public MikroEventManager call() throws Exception {
+			final long startTime = System.nanoTime();
+			LoginMetrics.record(backend, service, "queue", startTime - clickTime);
+			
+			try {
+				// The login only joins the session pool once it is known to
+				// still be wanted, on the event dispatching thread.
+				final MikroEventManager created = createMikroEventManager();
+				String location = serviceLocations.remove(created);
+				final MikroEventManager mikroEventManager;
+				try {
+					mikroEventManager = decorate(
+							created, backend, service, location != null ? location : service, username);
+				} catch (RuntimeException e) {
+					MikroEventManagers.close(created);
+					throw e;
+				}
+				final long estimatedSize = estimateSessionSize();
+				final long loginTime = System.nanoTime();
+				LoginMetrics.record(backend, service, "login", loginTime - startTime);
+				
+				// Login is successful. Change the UI accordingly on the
+				// event dispatching thread.
+				SwingUtilities.invokeLater(new Runnable() {
+					
+					@Override
+					public void run() {
+						long dispatchTime = System.nanoTime();
+						LoginMetrics.record(backend, service, "dispatch", dispatchTime - loginTime);
+						LoginMetrics.record(backend, service, "total", dispatchTime - clickTime);
+						
+						loginSucceeded(LoginTask.this, created, mikroEventManager, estimatedSize);
+					}
+				});
+				
+				return mikroEventManager;
+				
+			} catch (final Exception e) {
+				LoginMetrics.record(backend, service, "failed", System.nanoTime() - startTime);
+				
+				// An exception is caught if login fails.
+				// Change the UI accordingly on the event dispatching
+				// thread.
+				SwingUtilities.invokeLater(new Runnable() {
+					
+					@Override
+					public void run() {
+						loginFailed(LoginTask.this, e);
+					}
+				});
+				
+				throw e;
+			}
+		}
 	}
 
 }
@@ -0,0 +1,60 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login;
+
+/**
+ * This interface is implemented by every event logging system that can be
+ * logged into. Backends are discovered with {@link java.util.ServiceLoader},
+ * by listing their class names in
+ * <code>META-INF/services/ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LoginBackend</code>,
+ * so new backends can be added without changing
+ * {@link LoginDialogFactory}.
+ * <p>
+ * Implementations should be small and have no static state, because every
+ * backend is instantiated when backends are looked up. The classes of the
+ * dialog, the action, and the event manager should only be reached through a
+ * static factory method called from {@link #createLoginDialog()}. Returning
+ * a subclass of {@link LoginDialog} directly would make the class verifier
+ * load it as soon as the backend is, even if the backend is never chosen.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public interface LoginBackend {
+
+	/**
+	 * Returns the name that the backend is chosen by, such as "local" or
+	 * "twitter".
+	 * 
+	 * @return the name
+	 */
+	String getName();
+
+	/**
+	 * Creates a new {@link LoginDialog} for the backend, with its
+	 * {@link LoginAction} and cancel action already set. The
+	 * {@link LoginDialogFactory} takes care of sizing and placing it. This
+	 * method is called on the event dispatching thread.
+	 * 
+	 * @return the {@link LoginDialog}
+	 */
+	LoginDialog createLoginDialog();
+
+}
@@ -60,6 +60,12 @@ public class LoginDialog extends JDialog {
 	 */
 	private final JButton loginButton;
 
+	/**
+	 * This {@link JButton} can be clicked to cancel a login that is in
+	 * progress.
+	 */
+	private final JButton cancelButton;
+
 	/**
 	 * This {@link JPanel} contains the main components of the login form.
 	 */
@@ -77,7 +83,7 @@ public class LoginDialog extends JDialog {
 		final JLabel usernameLabel = new JLabel("Username:");
 		usernameTextField = new JTextField();
 		
-		// Create the Quit and Login buttons.
+		// Create the Quit, Cancel, and Login buttons.
 		final JButton quitButton = new JButton(new AbstractAction("Quit") {
 			
 			@Override
@@ -85,6 +91,8 @@ public class LoginDialog extends JDialog {
 				LoginDialog.this.dispose();
 			}
 		});
+		cancelButton = new JButton("Cancel");
+		cancelButton.setEnabled(false);
 		loginButton = new JButton("Login");
 		
 		// Add main components to panel.
@@ -102,6 +110,8 @@ public class LoginDialog extends JDialog {
 		buttonPanel.add(Box.createHorizontalGlue());
 		buttonPanel.add(quitButton);
 		buttonPanel.add(Box.createRigidArea(new Dimension(10, 0)));
+		buttonPanel.add(cancelButton);
+		buttonPanel.add(Box.createRigidArea(new Dimension(10, 0)));
 		buttonPanel.add(loginButton);
 		
 		// Reposition the two panels.
@@ -129,6 +139,17 @@ public class LoginDialog extends JDialog {
 		loginButton.setAction(loginAction);
 	}
 
+	/**
+	 * Sets the {@link Action} to perform when the Cancel button is clicked
+	 * while a login is in progress.
+	 * 
+	 * @param cancelAction
+	 *            the action
+	 */
+	public void setCancelAction(Action cancelAction) {
+		cancelButton.setAction(cancelAction);
+	}
+
 	/**
 	 * Enables or disables all of the user editable components in the login
 	 * form.
@@ -141,6 +162,16 @@ public class LoginDialog extends JDialog {
 		usernameTextField.setEnabled(enable);
 	}
 	
+	/**
+	 * Returns the {@link JTextField} that the username is entered in, so that
+	 * subclasses can listen to it.
+	 * 
+	 * @return the username {@link JTextField}
+	 */
+	protected JTextField getUsernameTextField() {
+		return usernameTextField;
+	}
+	
 	/**
 	 * Returns the username that is entered in the {@link JTextField}.
 	 * 
@@ -19,23 +19,61 @@
 
 package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login;
 
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+
 import javax.swing.JDialog;
 
-import ca.uwaterloo.cs.cs349.mikrocalendar.events.twitter.TwitterEventManager;
-import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.local.LocalLoginAction;
-import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.local.LocalLoginDialog;
-import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.twitter.TwitterLoginAction;
-import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.twitter.TwitterLoginDialog;
-import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.twitter.TwitterService;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.EdtWatchdog;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.StartupProfile;
 
 /**
- * This factory class creates instances of {@link LoginDialog}.
+ * This factory class creates instances of {@link LoginDialog}. The event
+ * logging systems that can be logged into are {@link LoginBackend}s, which
+ * are discovered with {@link ServiceLoader}. The classes of a backend's
+ * dialog and action are only loaded once that backend is chosen.
+ * <p>
+ * The time taken to create and show the first dialog is recorded in phases
+ * by {@link StartupProfile}.
  * 
  * @author Terry Yiu
  * 
  */
 public class LoginDialogFactory {
 
+	/**
+	 * The name of the backend that is used when none is specified.
+	 */
+	public static final String DEFAULT_BACKEND = "twitter";
+
+	/**
+	 * The {@link LoginBackend}s found by the {@link ServiceLoader}. The list
+	 * is created when it is first needed and is never modified after that, so
+	 * that it can be read on any thread.
+	 */
+	private static List<LoginBackend> backends;
+
+	/**
+	 * The {@link LoginDialog}s that were built ahead of time by
+	 * {@link #prewarm(String)}, keyed by backend name. This map also guards
+	 * {@link #requested}.
+	 */
+	private static final Map<String, LoginDialog> prewarmed = new HashMap<String, LoginDialog>();
+
+	/**
+	 * The names of the backends that {@link LoginDialog}s have been created
+	 * for.
+	 */
+	private static final Set<String> requested = new HashSet<String>();
+
 	/**
 	 * Instances of this factory cannot be created.
 	 */
@@ -50,7 +88,7 @@ public class LoginDialogFactory {
 	 * @return the dialog
 	 */
 	public static LoginDialog createLoginDialog() {
-		return createLoginDialog(false);
+		return createLoginDialog(DEFAULT_BACKEND);
 	}
 
 	/**
@@ -61,30 +99,51 @@ public class LoginDialogFactory {
 	 *            true if a local event system should be accessed. false if a
 	 *            Twitter service should be accessed.
 	 * @return the {@link LoginDialog}
+	 * @deprecated Use {@link #createLoginDialog(String)} with "local" or
+	 *             "twitter" instead.
 	 */
+	@Deprecated
 	public static LoginDialog createLoginDialog(boolean local) {
-		LoginDialog loginDialog;
+		return createLoginDialog(local ? "local" : "twitter");
+	}
+
+	/**
+	 * Creates a new {@link LoginDialog} for the {@link LoginBackend} with the
+	 * specified name.
+	 * 
+	 * @param backendName
+	 *            the name of the backend, such as "local" or "twitter"
+	 * @return the {@link LoginDialog}
+	 * @throws IllegalArgumentException
+	 *             Thrown if there is no backend with the specified name.
+	 */
+	public static LoginDialog createLoginDialog(String backendName) {
+		if (backendName == null) {
+			throw new IllegalArgumentException("Backend name cannot be null.");
+		}
 		
-		// Set the action to perform when the Login button is clicked.
-		if (local) {
-			LocalLoginDialog localLoginDialog = new LocalLoginDialog();
-			localLoginDialog.setLoginAction(new LocalLoginAction(localLoginDialog));
-			
-			loginDialog = localLoginDialog;
-			
+		StartupProfile.mark("launch");
+		
+		// Hand out a dialog that was built ahead of time if there is one.
+		LoginDialog loginDialog;
+		synchronized (prewarmed) {
+			requested.add(backendName);
+			loginDialog = prewarmed.remove(backendName);
+		}
+		if (loginDialog != null) {
+			StartupProfile.mark("prewarmed");
 		} else {
-			TwitterLoginDialog twitterLoginDialog = new TwitterLoginDialog();
-			twitterLoginDialog.setLoginAction(
-					new TwitterLoginAction(twitterLoginDialog));
+			// Watch for the event dispatching thread being blocked.
+			EdtWatchdog.install();
+			StartupProfile.mark("watchdog");
 			
-			// Create and add the two Twitter services.
-			TwitterService productionService = new TwitterService("Channel W", TwitterEventManager.PRODUCTION_SERVICE_URL);
-			TwitterService testingService = new TwitterService("Channel W Test", TwitterEventManager.TESTING_SERVICE_URL);
+			LoginBackend backend = getBackend(backendName);
+			StartupProfile.mark("backend");
 			
-			twitterLoginDialog.addTwitterService(productionService);
-			twitterLoginDialog.addTwitterService(testingService);
-			
-			loginDialog = twitterLoginDialog;
+			// The backend sets the action to perform when the Login button is
+			// clicked.
+			loginDialog = backend.createLoginDialog();
+			StartupProfile.mark("dialog");
 		}
 		
 		// Ensure that the dialog is disposed of when closed.
@@ -99,8 +158,114 @@ public class LoginDialogFactory {
 		// Prevent dialog from being resized. It should already be set to an
 		// optimal size.
 		loginDialog.setResizable(false);
+		StartupProfile.mark("pack");
+		
+		// The startup profile ends when the first dialog is shown.
+		if (!StartupProfile.isFinished()) {
+			loginDialog.addWindowListener(new WindowAdapter() {
+				@Override
+				public void windowOpened(WindowEvent e) {
+					e.getWindow().removeWindowListener(this);
+					StartupProfile.finish("shown");
+				}
+			});
+		}
 		
 		return loginDialog;
 	}
 	
+	/**
+	 * Builds the {@link LoginDialog} of the {@link LoginBackend} with the
+	 * specified name ahead of time, so that the next call to
+	 * {@link #createLoginDialog(String)} for that backend returns it without
+	 * building it. The dialog's components are created and their preferred
+	 * sizes computed, but it is not made displayable, so that a dialog that is
+	 * never used does not keep the AWT running. Nothing is done if a dialog
+	 * for the backend has already been created or built ahead of time.
+	 * <p>
+	 * This must be called on the event dispatching thread.
+	 * 
+	 * @param backendName
+	 *            the name of the backend, such as "local" or "twitter"
+	 * @throws IllegalArgumentException
+	 *             Thrown if there is no backend with the specified name.
+	 */
+	public static void prewarm(String backendName) {
+		if (backendName == null) {
+			throw new IllegalArgumentException("Backend name cannot be null.");
+		}
+		
+		synchronized (prewarmed) {
+			if (requested.contains(backendName) || prewarmed.containsKey(backendName)) {
+				return;
+			}
+		}
+		
+		EdtWatchdog.install();
+		
+		LoginDialog loginDialog = getBackend(backendName).createLoginDialog();
+		loginDialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+		
+		// Lay out the components without creating the native window.
+		loginDialog.getPreferredSize();
+		
+		synchronized (prewarmed) {
+			if (!requested.contains(backendName)) {
+				prewarmed.put(backendName, loginDialog);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the names of the {@link LoginBackend}s that can be logged into.
+	 * 
+	 * @return the names
+	 */
+	public static List<String> getBackendNames() {
+		List<String> names = new ArrayList<String>();
+		for (LoginBackend backend : getBackends()) {
+			names.add(backend.getName());
+		}
+		return names;
+	}
+	
+	/**
+	 * Returns the {@link LoginBackend} with the specified name.
+	 * 
+	 * @param backendName
+	 *            the name of the backend
+	 * @return the {@link LoginBackend}
+	 * @throws IllegalArgumentException
+	 *             Thrown if there is no backend with the specified name.
+	 */
+	private static LoginBackend getBackend(String backendName) {
+		for (LoginBackend backend : getBackends()) {
+			if (backend.getName().equals(backendName)) {
+				return backend;
+			}
+		}
+		
+		throw new IllegalArgumentException("There is no login backend named " + backendName + ".");
+	}
+	
+	/**
+	 * Returns the {@link LoginBackend}s, finding them with a
+	 * {@link ServiceLoader} if needed. A {@link ServiceLoader} is not
+	 * thread-safe, so it is only iterated once, under the lock, and the
+	 * backends are copied into an unmodifiable list that is reused.
+	 * 
+	 * @return the {@link LoginBackend}s
+	 */
+	private static synchronized List<LoginBackend> getBackends() {
+		if (backends == null) {
+			List<LoginBackend> found = new ArrayList<LoginBackend>();
+			for (LoginBackend backend : ServiceLoader.load(
+					LoginBackend.class, LoginDialogFactory.class.getClassLoader())) {
+				found.add(backend);
+			}
+			backends = Collections.unmodifiableList(found);
+		}
+		return backends;
+	}
+	
 }
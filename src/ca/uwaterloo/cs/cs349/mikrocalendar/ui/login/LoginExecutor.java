@@ -0,0 +1,209 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class holds the shared, bounded thread pool that all login operations
+ * run on. Using a shared pool instead of a new {@link Thread} per login caps
+ * the number of threads that can be stuck on a stalled service.
+ * <p>
+ * The pool size, queue capacity, and default login timeout can be configured
+ * with the <code>mikrocalendar.login.threads</code>,
+ * <code>mikrocalendar.login.queue</code>, and
+ * <code>mikrocalendar.login.timeout</code> (in milliseconds) system
+ * properties. Virtual threads are used when the JDK supports them.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class LoginExecutor {
+
+	/**
+	 * The default number of logins that can run at the same time.
+	 */
+	private static final int DEFAULT_THREADS = 4;
+
+	/**
+	 * The default number of logins that can wait for a thread.
+	 */
+	private static final int DEFAULT_QUEUE = 16;
+
+	/**
+	 * The default number of milliseconds that a login may take before it is
+	 * cancelled.
+	 */
+	private static final long DEFAULT_TIMEOUT = 30000L;
+
+	/**
+	 * The {@link ThreadPoolExecutor} that login operations run on.
+	 */
+	private static final ThreadPoolExecutor executor;
+
+	/**
+	 * The {@link ScheduledExecutorService} that enforces login deadlines.
+	 */
+	private static final ScheduledExecutorService scheduler;
+
+	/**
+	 * The {@link ThreadPoolExecutor} that parts of a login operation, such as
+	 * logging into several services at once, run on. It is separate from the
+	 * login thread pool so that a login waiting on its parts can never starve
+	 * them of threads.
+	 */
+	private static final ThreadPoolExecutor fanOutExecutor;
+
+	static {
+		int threads = Integer.getInteger("mikrocalendar.login.threads", DEFAULT_THREADS).intValue();
+		int queue = Integer.getInteger("mikrocalendar.login.queue", DEFAULT_QUEUE).intValue();
+
+		executor = new ThreadPoolExecutor(
+				threads,
+				threads,
+				30L,
+				TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queue),
+				createThreadFactory("MikroCalendar-Login-"));
+		executor.allowCoreThreadTimeOut(true);
+
+		ScheduledThreadPoolExecutor deadlineScheduler = new ScheduledThreadPoolExecutor(
+				1, createThreadFactory("MikroCalendar-Login-Deadline-"));
+		deadlineScheduler.setRemoveOnCancelPolicy(true);
+		scheduler = deadlineScheduler;
+		
+		// When every fan-out thread is busy, the login thread runs the part
+		// itself instead of queueing it.
+		fanOutExecutor = new ThreadPoolExecutor(
+				0,
+				threads * 2,
+				30L,
+				TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(),
+				createThreadFactory("MikroCalendar-Login-FanOut-"),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	/**
+	 * Instances of this class cannot be created.
+	 */
+	private LoginExecutor() {
+		// No-op.
+	}
+
+	/**
+	 * Submits a login operation to the shared thread pool.
+	 * 
+	 * @param task
+	 *            the login operation
+	 * @return the {@link Future} that can be used to cancel the operation
+	 * @throws RejectedExecutionException
+	 *             Thrown if too many logins are already in progress.
+	 */
+	public static <T> Future<T> submit(Callable<T> task) {
+		return executor.submit(task);
+	}
+
+	/**
+	 * Returns the {@link Executor} that parts of a login operation should be
+	 * run on when a login operation needs to do several things at once.
+	 * 
+	 * @return the fan-out {@link Executor}
+	 */
+	public static Executor getFanOutExecutor() {
+		return fanOutExecutor;
+	}
+
+	/**
+	 * Schedules a task to run after a login deadline has passed.
+	 * 
+	 * @param task
+	 *            the task to run when the deadline passes
+	 * @param delay
+	 *            the number of milliseconds until the deadline
+	 * @return the {@link ScheduledFuture} that can be used to cancel the
+	 *         deadline
+	 */
+	public static ScheduledFuture<?> schedule(Runnable task, long delay) {
+		return scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Returns the default number of milliseconds that a login may take before
+	 * it is cancelled.
+	 * 
+	 * @return the default timeout in milliseconds
+	 */
+	public static long getDefaultTimeout() {
+		return Long.getLong("mikrocalendar.login.timeout", DEFAULT_TIMEOUT).longValue();
+	}
+
+	/**
+	 * Creates a {@link ThreadFactory} that names its threads with the
+	 * specified prefix. Virtual threads are created if the JDK supports them.
+	 * Otherwise, daemon platform threads are created so that a stalled login
+	 * does not keep the application alive.
+	 * 
+	 * @param prefix
+	 *            the prefix of each thread name
+	 * @return the {@link ThreadFactory}
+	 */
+	public static ThreadFactory createThreadFactory(final String prefix) {
+		try {
+			// Thread.ofVirtual().name(prefix, 1).factory() is only available
+			// on newer JDKs, so it is looked up reflectively.
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Method name = builderClass.getMethod("name", String.class, long.class);
+			Method factory = builderClass.getMethod("factory");
+			
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = name.invoke(builder, prefix, Long.valueOf(1L));
+			return (ThreadFactory) factory.invoke(builder);
+
+		} catch (Exception e) {
+			// Virtual threads are not supported. Fall back to platform threads.
+		}
+
+		final AtomicInteger count = new AtomicInteger(1);
+		return new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, prefix + count.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+}
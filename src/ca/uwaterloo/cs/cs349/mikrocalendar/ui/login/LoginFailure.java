@@ -0,0 +1,154 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This enumeration classifies why a login failed, so that the user can be
+ * told what went wrong and so that only transient failures are retried.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public enum LoginFailure {
+
+	/**
+	 * The service rejected the username or password.
+	 */
+	AUTHENTICATION("Your username or password is invalid."),
+
+	/**
+	 * The service could not be reached because of a network problem.
+	 */
+	NETWORK("The service could not be reached. Please check your network connection and try again."),
+
+	/**
+	 * The service took too long to respond.
+	 */
+	TIMEOUT("The service took too long to respond. Please try again."),
+
+	/**
+	 * The service is known to be down, so the login was not attempted.
+	 */
+	UNAVAILABLE("The service is currently unavailable. Please try again later or choose another service."),
+
+	/**
+	 * The login was cancelled or interrupted before it finished. It says
+	 * nothing about the service or the credentials.
+	 */
+	CANCELLED("The login was cancelled."),
+
+	/**
+	 * The login failed because of an unexpected error. It says nothing about
+	 * the service or the credentials.
+	 */
+	UNKNOWN("An unexpected error occurred while logging in. Please try again.");
+
+	/**
+	 * The message to show to the user.
+	 * 
+	 * @see #getMessage()
+	 */
+	private final String message;
+
+	/**
+	 * Creates a new {@link LoginFailure} with the specified message.
+	 * 
+	 * @param message
+	 *            the message to show to the user
+	 */
+	private LoginFailure(String message) {
+		this.message = message;
+	}
+
+	/**
+	 * Returns the message to show to the user.
+	 * 
+	 * @return the message
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Returns whether or not a login that failed this way may succeed if it is
+	 * tried again right away.
+	 * 
+	 * @return true if the failure is transient. false otherwise.
+	 */
+	public boolean isTransient() {
+		return this == NETWORK;
+	}
+
+	/**
+	 * Returns whether or not a login that failed this way says anything about
+	 * the health of the service or the validity of the credentials. Failures
+	 * that do not should neither trip nor reset a {@link CircuitBreaker}, and
+	 * should not invalidate cached sessions.
+	 * 
+	 * @return true if the failure is conclusive. false otherwise.
+	 */
+	public boolean isConclusive() {
+		return this != CANCELLED && this != UNKNOWN;
+	}
+
+	/**
+	 * Classifies the specified cause of a login failure. Causes are searched
+	 * for cancellations, timeouts, and I/O problems. A failure that is only
+	 * caused by runtime exceptions or errors is unknown. Any other failure is
+	 * assumed to be an authentication failure.
+	 * 
+	 * @param throwable
+	 *            the cause of the login failure
+	 * @return the {@link LoginFailure}
+	 */
+	public static LoginFailure classify(Throwable throwable) {
+		boolean unchecked = throwable != null;
+		for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+			if (cause instanceof CircuitOpenException) {
+				return UNAVAILABLE;
+			} else if (cause instanceof InterruptedException
+					|| cause instanceof CancellationException
+					|| cause instanceof ClosedByInterruptException) {
+				return CANCELLED;
+			} else if (cause instanceof SocketTimeoutException
+					|| cause instanceof TimeoutException) {
+				return TIMEOUT;
+			} else if (cause instanceof InterruptedIOException) {
+				// Other InterruptedIOExceptions are thrown both when blocking
+				// I/O times out and when its thread is interrupted.
+				return Thread.currentThread().isInterrupted() ? CANCELLED : TIMEOUT;
+			} else if (cause instanceof IOException) {
+				return NETWORK;
+			} else if (!(cause instanceof RuntimeException || cause instanceof Error)) {
+				unchecked = false;
+			}
+		}
+
+		return unchecked ? UNKNOWN : AUTHENTICATION;
+	}
+
+}
@@ -0,0 +1,146 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class records how long each phase of a login takes. Latencies are
+ * kept in a {@link LatencyHistogram} for each combination of backend (for
+ * example, "local" or "twitter"), service, and phase, and each histogram is
+ * registered with the platform {@link MBeanServer} under the
+ * <code>ca.uwaterloo.cs.cs349.mikrocalendar</code> domain so that it can be
+ * read with any JMX client.
+ * <p>
+ * The phases recorded by {@link LoginAction} are:
+ * <ul>
+ * <li><code>queue</code> - from the Login button being clicked until the
+ * login thread starts</li>
+ * <li><code>login</code> - creating the {@link ca.uwaterloo.cs.cs349.mikrocalendar.events.MikroEventManager}</li>
+ * <li><code>dispatch</code> - from the login finishing until the event
+ * dispatching thread handles the result</li>
+ * <li><code>total</code> - from the Login button being clicked until the
+ * event dispatching thread handles the result</li>
+ * </ul>
+ * Backends may record finer phases of their own. Twitter logins record
+ * <code>dns</code>, <code>tls</code> (the TLS handshake, for services
+ * reached over HTTPS), and <code>auth</code>; local logins record
+ * <code>parse</code> (reading the JSON file).
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class LoginMetrics {
+
+	/**
+	 * The JMX domain that histograms are registered under.
+	 */
+	public static final String DOMAIN = "ca.uwaterloo.cs.cs349.mikrocalendar";
+
+	/**
+	 * The histograms, keyed by backend, service, and phase.
+	 */
+	private static final ConcurrentMap<String, LatencyHistogram> histograms =
+		new ConcurrentHashMap<String, LatencyHistogram>();
+
+	/**
+	 * Instances of this class cannot be created.
+	 */
+	private LoginMetrics() {
+		// No-op.
+	}
+
+	/**
+	 * Records the latency of a phase of a login.
+	 * 
+	 * @param backend
+	 *            the backend, such as "local" or "twitter"
+	 * @param service
+	 *            the name of the service
+	 * @param phase
+	 *            the phase
+	 * @param nanos
+	 *            the latency in nanoseconds
+	 */
+	public static void record(String backend, String service, String phase, long nanos) {
+		getHistogram(backend, service, phase).record(nanos);
+	}
+
+	/**
+	 * Returns the {@link LatencyHistogram} of a phase of a login, creating and
+	 * registering it if needed.
+	 * 
+	 * @param backend
+	 *            the backend, such as "local" or "twitter"
+	 * @param service
+	 *            the name of the service
+	 * @param phase
+	 *            the phase
+	 * @return the {@link LatencyHistogram}
+	 */
+	public static LatencyHistogram getHistogram(String backend, String service, String phase) {
+		String key = backend + '\n' + service + '\n' + phase;
+		LatencyHistogram histogram = histograms.get(key);
+		if (histogram == null) {
+			LatencyHistogram newHistogram = new LatencyHistogram();
+			histogram = histograms.putIfAbsent(key, newHistogram);
+			if (histogram == null) {
+				histogram = newHistogram;
+				register(backend, service, phase, histogram);
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Registers a {@link LatencyHistogram} with the platform
+	 * {@link MBeanServer}. Failures are ignored because metrics must never
+	 * break a login.
+	 * 
+	 * @param backend
+	 *            the backend
+	 * @param service
+	 *            the name of the service
+	 * @param phase
+	 *            the phase
+	 * @param histogram
+	 *            the {@link LatencyHistogram}
+	 */
+	private static void register(String backend, String service, String phase, LatencyHistogram histogram) {
+		try {
+			ObjectName name = new ObjectName(DOMAIN + ":type=LoginLatency"
+					+ ",backend=" + ObjectName.quote(backend)
+					+ ",service=" + ObjectName.quote(service)
+					+ ",phase=" + ObjectName.quote(phase));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(histogram, name);
+		} catch (JMException e) {
+			// The histogram is still recorded, just not exposed.
+		} catch (SecurityException e) {
+			// The histogram is still recorded, just not exposed.
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ca.uwaterloo.cs.cs349.mikrocalendar.events.MikroEventManager;
+
+/**
+ * This class contains helper methods for the {@link MikroEventManager}s that
+ * logins create, which are often wrapped in several {@link Proxy} decorators.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class MikroEventManagers {
+
+	/**
+	 * The {@link Logger} that failures to close are logged to.
+	 */
+	private static final Logger logger = Logger.getLogger(MikroEventManagers.class.getName());
+
+	/**
+	 * Instances of this class cannot be created.
+	 */
+	private MikroEventManagers() {
+		// No-op.
+	}
+
+	/**
+	 * Releases the resources held by a {@link MikroEventManager}. If it is a
+	 * {@link Proxy} whose {@link InvocationHandler} is {@link Closeable}, the
+	 * handler is closed, and is expected to close the
+	 * {@link MikroEventManager} it stands in front of in turn. Otherwise, the
+	 * {@link MikroEventManager} is closed if it is {@link Closeable} itself.
+	 * Failures are logged rather than thrown, because there is nothing the
+	 * caller can do about them.
+	 * 
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager}, or null
+	 */
+	public static void close(MikroEventManager mikroEventManager) {
+		if (mikroEventManager == null) {
+			return;
+		}
+		
+		Object closeable = mikroEventManager;
+		if (Proxy.isProxyClass(mikroEventManager.getClass())) {
+			closeable = Proxy.getInvocationHandler(mikroEventManager);
+		}
+		
+		if (closeable instanceof Closeable) {
+			try {
+				((Closeable) closeable).close();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Could not close " + mikroEventManager + ".", e);
+			} catch (RuntimeException e) {
+				logger.log(Level.WARNING, "Could not close " + mikroEventManager + ".", e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,171 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import ca.uwaterloo.cs.cs349.mikrocalendar.events.MikroEventManager;
+
+/**
+ * This {@link InvocationHandler} stands in front of a
+ * {@link MikroEventManager} that can be replaced while it is in use, such as
+ * a local event manager that is read again after its file has been changed
+ * by another program. Calls that have already started finish on the
+ * {@link MikroEventManager} they started on, and later calls go to the
+ * replacement. The replaced {@link MikroEventManager} is closed.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class ReloadableMikroEventManager implements InvocationHandler, Closeable {
+
+	/**
+	 * The {@link MikroEventManager} that calls go to, or null once this has
+	 * been closed.
+	 */
+	private volatile MikroEventManager mikroEventManager;
+
+	/**
+	 * Creates a new {@link ReloadableMikroEventManager}.
+	 * 
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager} that calls go to
+	 */
+	private ReloadableMikroEventManager(MikroEventManager mikroEventManager) {
+		this.mikroEventManager = mikroEventManager;
+	}
+
+	/**
+	 * Creates a {@link MikroEventManager} that forwards each call to the
+	 * specified {@link MikroEventManager} until it is replaced with
+	 * {@link #reload(MikroEventManager, MikroEventManager)}.
+	 * 
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager}
+	 * @return the {@link MikroEventManager}
+	 */
+	public static MikroEventManager create(MikroEventManager mikroEventManager) {
+		if (mikroEventManager == null) {
+			throw new IllegalArgumentException("MikroEventManager cannot be null.");
+		}
+
+		return (MikroEventManager) Proxy.newProxyInstance(
+				MikroEventManager.class.getClassLoader(),
+				new Class<?>[] { MikroEventManager.class },
+				new ReloadableMikroEventManager(mikroEventManager));
+	}
+
+	/**
+	 * Replaces the {@link MikroEventManager} behind a {@link MikroEventManager}
+	 * created by {@link #create(MikroEventManager)}, and closes the one that
+	 * it replaces. If the {@link MikroEventManager} was not created by this
+	 * class or has been closed, the replacement is closed instead.
+	 * 
+	 * @param reloadable
+	 *            the {@link MikroEventManager} created by
+	 *            {@link #create(MikroEventManager)}
+	 * @param replacement
+	 *            the {@link MikroEventManager} to replace it with
+	 * @return true if it was replaced. false otherwise.
+	 */
+	public static boolean reload(MikroEventManager reloadable, MikroEventManager replacement) {
+		if (replacement == null) {
+			throw new IllegalArgumentException("Replacement cannot be null.");
+		}
+
+		MikroEventManager replaced = null;
+		if (reloadable != null && Proxy.isProxyClass(reloadable.getClass())) {
+			InvocationHandler handler = Proxy.getInvocationHandler(reloadable);
+			if (handler instanceof ReloadableMikroEventManager) {
+				replaced = ((ReloadableMikroEventManager) handler).replace(replacement);
+			}
+		}
+
+		if (replaced == null) {
+			MikroEventManagers.close(replacement);
+			return false;
+		}
+		MikroEventManagers.close(replaced);
+		return true;
+	}
+
+	/**
+	 * Replaces the {@link MikroEventManager} that calls go to, unless this
+	 * has been closed.
+	 * 
+	 * @param replacement
+	 *            the replacement
+	 * @return the replaced {@link MikroEventManager}, or null if this has
+	 *         been closed
+	 */
+	private synchronized MikroEventManager replace(MikroEventManager replacement) {
+		MikroEventManager replaced = mikroEventManager;
+		if (replaced != null) {
+			mikroEventManager = replacement;
+		}
+		return replaced;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		// Object methods are answered by the proxy itself.
+		if (method.getDeclaringClass() == Object.class) {
+			if (method.getName().equals("equals")) {
+				return Boolean.valueOf(proxy == args[0]);
+			} else if (method.getName().equals("hashCode")) {
+				return Integer.valueOf(System.identityHashCode(proxy));
+			} else {
+				return "ReloadableMikroEventManager[" + mikroEventManager + "]";
+			}
+		}
+
+		MikroEventManager target = mikroEventManager;
+		if (target == null) {
+			throw new IllegalStateException("The event manager has been closed.");
+		}
+
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Closes the {@link MikroEventManager} that calls go to. Later calls fail
+	 * with an {@link IllegalStateException}.
+	 */
+	@Override
+	public void close() {
+		MikroEventManager closing;
+		synchronized (this) {
+			closing = mikroEventManager;
+			mikroEventManager = null;
+		}
+		if (closing != null) {
+			MikroEventManagers.close(closing);
+		}
+	}
+
+}
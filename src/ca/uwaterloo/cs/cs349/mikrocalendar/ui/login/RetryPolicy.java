@@ -0,0 +1,116 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * This class retries a login that fails because of a transient network
+ * problem. The delay before each retry grows exponentially, and a random
+ * amount of jitter is applied so that many clients retrying at once do not
+ * hit a struggling service at the same moment. Authentication failures,
+ * timeouts, and logins against an unavailable service are not retried.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class RetryPolicy {
+
+	/**
+	 * The {@link RetryPolicy} used for logins unless another is specified.
+	 */
+	public static final RetryPolicy DEFAULT = new RetryPolicy(3, 500L, 8000L);
+
+	/**
+	 * The {@link Random} that jitter is taken from.
+	 */
+	private static final Random random = new Random();
+
+	/**
+	 * The maximum number of attempts, including the first.
+	 */
+	private final int maxAttempts;
+
+	/**
+	 * The number of milliseconds before the first retry, before jitter.
+	 */
+	private final long initialDelay;
+
+	/**
+	 * The maximum number of milliseconds before a retry.
+	 */
+	private final long maxDelay;
+
+	/**
+	 * Creates a new {@link RetryPolicy}.
+	 * 
+	 * @param maxAttempts
+	 *            the maximum number of attempts, including the first
+	 * @param initialDelay
+	 *            the number of milliseconds before the first retry
+	 * @param maxDelay
+	 *            the maximum number of milliseconds before a retry
+	 */
+	public RetryPolicy(int maxAttempts, long initialDelay, long maxDelay) {
+		if (maxAttempts <= 0) {
+			throw new IllegalArgumentException("Maximum attempts must be positive.");
+		}
+
+		this.maxAttempts = maxAttempts;
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Runs the specified login, retrying it while it fails transiently. The
+	 * calling thread sleeps between attempts, and stops retrying if it is
+	 * interrupted.
+	 * 
+	 * @param login
+	 *            the login
+	 * @return the result of the login
+	 * @throws Exception
+	 *             Thrown if the last attempt fails, or if a failure is not
+	 *             transient.
+	 */
+	public <T> T call(Callable<T> login) throws Exception {
+		long delay = initialDelay;
+		for (int attempt = 1; ; attempt++) {
+			try {
+				return login.call();
+			} catch (Exception e) {
+				if (attempt >= maxAttempts || !LoginFailure.classify(e).isTransient()) {
+					throw e;
+				}
+			}
+
+			// Sleep for a random amount of time up to the current delay
+			// ("full jitter"), then double the delay for the next retry.
+			long jitteredDelay;
+			synchronized (random) {
+				jitteredDelay = (long) (random.nextDouble() * delay);
+			}
+			Thread.sleep(jitteredDelay);
+			delay = Math.min(delay * 2, maxDelay);
+		}
+	}
+
+}
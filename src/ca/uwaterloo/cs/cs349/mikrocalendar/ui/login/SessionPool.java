@@ -0,0 +1,613 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ca.uwaterloo.cs.cs349.mikrocalendar.events.MikroEventManager;
+
+/**
+ * This class holds every logged-in {@link MikroEventManager} in the process,
+ * so that several calendars, local or Twitter, can be open at once in one
+ * JVM. Logins run concurrently on the {@link LoginExecutor}, and sessions
+ * share the connections of the
+ * {@link ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.twitter.TwitterTransportRegistry}
+ * and the file indexes of the local backend.
+ * <p>
+ * Each session has an estimated heap size, which starts from what the backend
+ * knows at login, such as the size of a local file, and grows with the
+ * number of events that are loaded from it. When the sessions together are
+ * estimated to use more than the heap budget, the sessions that have been
+ * idle the longest are closed until the pool fits again. A session is only
+ * closed if it has not been used for a minimum idle time and is not retained.
+ * A window that shows a session should retain it while it is shown, and add
+ * a close hook to find out if it is closed anyway. Its pending writes
+ * are delivered first, and any later call to its {@link MikroEventManager}
+ * throws an {@link IllegalStateException}, after which the user has to log
+ * in again. Closing a session also closes the decorators of its
+ * {@link MikroEventManager}, and runs the close hooks that the backend added
+ * for it, such as stopping a file watcher.
+ * <p>
+ * The heap budget in bytes and the minimum idle time in milliseconds can be
+ * configured with the <code>mikrocalendar.sessions.heapBudget</code> and
+ * <code>mikrocalendar.sessions.minIdle</code> system properties. The budget
+ * defaults to half of the maximum heap size.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class SessionPool {
+
+	/**
+	 * The default number of milliseconds that a session must be idle for
+	 * before it can be closed.
+	 */
+	private static final long DEFAULT_MIN_IDLE = 60000L;
+
+	/**
+	 * The number of milliseconds between checks of the heap budget.
+	 */
+	private static final long TRIM_INTERVAL = 60000L;
+
+	/**
+	 * The estimated heap size of a loaded event, in bytes.
+	 */
+	public static final long EVENT_SIZE = 2L * 1024L;
+
+	/**
+	 * The {@link Logger} that closed sessions are logged to.
+	 */
+	private static final Logger logger = Logger.getLogger(SessionPool.class.getName());
+
+	/**
+	 * The {@link SessionPool} shared by the whole process.
+	 * 
+	 * @see #getInstance()
+	 */
+	private static final SessionPool instance = new SessionPool(
+			Long.getLong("mikrocalendar.sessions.heapBudget", Runtime.getRuntime().maxMemory() / 2L).longValue(),
+			Long.getLong("mikrocalendar.sessions.minIdle", DEFAULT_MIN_IDLE).longValue());
+
+	/**
+	 * This class is a logged-in {@link MikroEventManager} in the pool.
+	 */
+	public static class Session implements InvocationHandler {
+
+		/**
+		 * The backend that was logged into.
+		 */
+		private final String backend;
+
+		/**
+		 * The service that was logged into.
+		 */
+		private final String service;
+
+		/**
+		 * The username that was logged in with.
+		 */
+		private final String username;
+
+		/**
+		 * The {@link SessionPool} that the session is in.
+		 */
+		private final SessionPool pool;
+
+		/**
+		 * The estimated heap size of the session, in bytes.
+		 */
+		private volatile long estimatedSize;
+
+		/**
+		 * The number of times that the session has been retained and not yet
+		 * released. Guarded by the session.
+		 */
+		private int retainCount;
+
+		/**
+		 * The {@link MikroEventManager} of the session, or null once the
+		 * session has been closed.
+		 */
+		private volatile MikroEventManager mikroEventManager;
+
+		/**
+		 * The time, in milliseconds, at which the session was last used.
+		 */
+		private volatile long lastUsed = System.currentTimeMillis();
+
+		/**
+		 * The hooks to run when the session is closed. Guarded by the
+		 * session.
+		 */
+		private final List<Closeable> closeHooks = new ArrayList<Closeable>();
+
+		/**
+		 * Creates a new {@link Session}.
+		 * 
+		 * @param pool
+		 *            the {@link SessionPool} that the session is in
+		 * @param backend
+		 *            the backend that was logged into
+		 * @param service
+		 *            the service that was logged into
+		 * @param username
+		 *            the username that was logged in with
+		 * @param mikroEventManager
+		 *            the {@link MikroEventManager} of the session
+		 * @param estimatedSize
+		 *            the estimated heap size of the session, in bytes
+		 */
+		private Session(SessionPool pool, String backend, String service, String username, 
+				MikroEventManager mikroEventManager, long estimatedSize) {
+			this.pool = pool;
+			this.backend = backend;
+			this.service = service;
+			this.username = username;
+			this.mikroEventManager = mikroEventManager;
+			this.estimatedSize = estimatedSize;
+		}
+
+		/**
+		 * Returns the backend that was logged into.
+		 * 
+		 * @return the backend
+		 */
+		public String getBackend() {
+			return backend;
+		}
+
+		/**
+		 * Returns the service that was logged into.
+		 * 
+		 * @return the service
+		 */
+		public String getService() {
+			return service;
+		}
+
+		/**
+		 * Returns the username that was logged in with.
+		 * 
+		 * @return the username
+		 */
+		public String getUsername() {
+			return username;
+		}
+
+		/**
+		 * Returns the estimated heap size of the session.
+		 * 
+		 * @return the estimated size in bytes
+		 */
+		public long getEstimatedSize() {
+			return estimatedSize;
+		}
+
+		/**
+		 * Records that a number of events have been loaded from the session,
+		 * and raises its estimated heap size to match if they take up more
+		 * than it was estimated to. Sessions that have been idle the longest
+		 * may then be closed in the background to stay within the heap
+		 * budget.
+		 * 
+		 * @param count
+		 *            the number of events that have been loaded
+		 */
+		public void eventsLoaded(int count) {
+			long size = count * EVENT_SIZE;
+			synchronized (this) {
+				if (size <= estimatedSize) {
+					return;
+				}
+				estimatedSize = size;
+			}
+			pool.trimInBackground();
+		}
+
+		/**
+		 * Retains the session, so that it is not closed to stay within the
+		 * heap budget until it has been released as many times as it has
+		 * been retained. It may still be closed explicitly.
+		 */
+		public synchronized void retain() {
+			retainCount++;
+		}
+
+		/**
+		 * Releases the session after it has been retained.
+		 */
+		public synchronized void release() {
+			if (retainCount == 0) {
+				throw new IllegalStateException("Session has not been retained.");
+			}
+			retainCount--;
+		}
+
+		/**
+		 * Returns whether or not the session is retained.
+		 * 
+		 * @return true if the session has been retained more times than it
+		 *         has been released. false otherwise.
+		 */
+		public synchronized boolean isRetained() {
+			return retainCount > 0;
+		}
+
+		/**
+		 * Returns the time at which the session was last used.
+		 * 
+		 * @return the time in milliseconds
+		 */
+		public long getLastUsed() {
+			return lastUsed;
+		}
+
+		/**
+		 * Returns the {@link MikroEventManager} of the session.
+		 * 
+		 * @return the {@link MikroEventManager}, or null if the session has
+		 *         been closed
+		 */
+		MikroEventManager getMikroEventManager() {
+			return mikroEventManager;
+		}
+
+		/**
+		 * Returns whether or not the session has been closed.
+		 * 
+		 * @return true if the session has been closed. false otherwise.
+		 */
+		public boolean isClosed() {
+			return mikroEventManager == null;
+		}
+
+		/**
+		 * Adds a hook to run after the session has been closed, to release
+		 * resources that the backend holds for it. If the session has already
+		 * been closed, the hook is run right away. Hooks may be run on any
+		 * thread.
+		 * 
+		 * @param closeHook
+		 *            the hook
+		 */
+		public void addCloseHook(Closeable closeHook) {
+			if (closeHook == null) {
+				throw new IllegalArgumentException("Close hook cannot be null.");
+			}
+
+			synchronized (this) {
+				if (mikroEventManager != null) {
+					closeHooks.add(closeHook);
+					return;
+				}
+			}
+			runCloseHook(closeHook);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			// Object methods are answered by the proxy itself.
+			if (method.getDeclaringClass() == Object.class) {
+				if (method.getName().equals("equals")) {
+					return Boolean.valueOf(proxy == args[0]);
+				} else if (method.getName().equals("hashCode")) {
+					return Integer.valueOf(System.identityHashCode(proxy));
+				} else {
+					return toString();
+				}
+			}
+
+			MikroEventManager target = mikroEventManager;
+			if (target == null) {
+				throw new IllegalStateException("The session for " + username 
+						+ " has been closed. Please login again.");
+			}
+
+			lastUsed = System.currentTimeMillis();
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+
+		/**
+		 * Closes the session after delivering its pending writes, and then
+		 * closes its {@link MikroEventManager}, which unregisters its cache,
+		 * and runs its close hooks.
+		 */
+		private void close() {
+			MikroEventManager target;
+			List<Closeable> hooks;
+			synchronized (this) {
+				target = mikroEventManager;
+				mikroEventManager = null;
+				hooks = new ArrayList<Closeable>(closeHooks);
+				closeHooks.clear();
+			}
+			if (target == null) {
+				return;
+			}
+
+			WriteBehindMikroEventManager.flush(target);
+			MikroEventManagers.close(target);
+			for (Closeable hook : hooks) {
+				runCloseHook(hook);
+			}
+		}
+
+		/**
+		 * Runs a close hook. Failures are logged rather than thrown, so that
+		 * the other hooks still run.
+		 * 
+		 * @param closeHook
+		 *            the hook
+		 */
+		private void runCloseHook(Closeable closeHook) {
+			try {
+				closeHook.close();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "A close hook of " + this + " failed.", e);
+			} catch (RuntimeException e) {
+				logger.log(Level.WARNING, "A close hook of " + this + " failed.", e);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Session[" + backend + ", " + service + ", " + username + "]";
+		}
+
+	}
+
+	/**
+	 * The heap budget of the pool, in bytes.
+	 */
+	private final long heapBudget;
+
+	/**
+	 * The number of milliseconds that a session must be idle for before it
+	 * can be closed.
+	 */
+	private final long minIdle;
+
+	/**
+	 * The open sessions.
+	 */
+	private final List<Session> sessions = new ArrayList<Session>();
+
+	/**
+	 * Whether or not a check of the heap budget has been scheduled.
+	 */
+	private boolean trimScheduled;
+
+	/**
+	 * Creates a new {@link SessionPool}.
+	 * 
+	 * @param heapBudget
+	 *            the heap budget of the pool, in bytes
+	 * @param minIdle
+	 *            the number of milliseconds that a session must be idle for
+	 *            before it can be closed
+	 */
+	public SessionPool(long heapBudget, long minIdle) {
+		this.heapBudget = heapBudget;
+		this.minIdle = minIdle;
+	}
+
+	/**
+	 * Returns the {@link SessionPool} shared by the whole process.
+	 * 
+	 * @return the {@link SessionPool}
+	 */
+	public static SessionPool getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Adds a logged-in {@link MikroEventManager} to the pool, closing idle
+	 * sessions if the pool is over its heap budget.
+	 * 
+	 * @param backend
+	 *            the backend that was logged into
+	 * @param service
+	 *            the service that was logged into
+	 * @param username
+	 *            the username that was logged in with
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager}
+	 * @param estimatedSize
+	 *            the estimated heap size of the session, in bytes
+	 * @return the {@link MikroEventManager} to use for the session, which
+	 *         keeps track of when the session is used
+	 */
+	public MikroEventManager add(String backend, String service, String username, 
+			MikroEventManager mikroEventManager, long estimatedSize) {
+		if (mikroEventManager == null) {
+			throw new IllegalArgumentException("MikroEventManager cannot be null.");
+		}
+
+		Session session = new Session(this, backend, service, username, mikroEventManager, estimatedSize);
+		synchronized (this) {
+			sessions.add(session);
+			scheduleTrim();
+		}
+		trimInBackground();
+
+		return (MikroEventManager) Proxy.newProxyInstance(
+				MikroEventManager.class.getClassLoader(),
+				new Class<?>[] { MikroEventManager.class },
+				session);
+	}
+
+	/**
+	 * Returns the {@link Session} of a {@link MikroEventManager} returned by
+	 * {@link #add(String, String, String, MikroEventManager, long)}.
+	 * 
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager}
+	 * @return the {@link Session}, or null if the {@link MikroEventManager}
+	 *         is not the {@link MikroEventManager} of a session
+	 */
+	public static Session getSession(MikroEventManager mikroEventManager) {
+		if (mikroEventManager == null || !Proxy.isProxyClass(mikroEventManager.getClass())) {
+			return null;
+		}
+
+		InvocationHandler handler = Proxy.getInvocationHandler(mikroEventManager);
+		return handler instanceof Session ? (Session) handler : null;
+	}
+
+	/**
+	 * Returns the open sessions.
+	 * 
+	 * @return the sessions
+	 */
+	public synchronized List<Session> getSessions() {
+		return new ArrayList<Session>(sessions);
+	}
+
+	/**
+	 * Returns the estimated heap size of the open sessions.
+	 * 
+	 * @return the estimated size in bytes
+	 */
+	public synchronized long getEstimatedSize() {
+		long size = 0L;
+		for (Session session : sessions) {
+			size += session.estimatedSize;
+		}
+		return size;
+	}
+
+	/**
+	 * Closes a session after delivering its pending writes. This may block
+	 * while writes are delivered, so it should not be called on the event
+	 * dispatching thread.
+	 * 
+	 * @param session
+	 *            the {@link Session}
+	 */
+	public void close(Session session) {
+		synchronized (this) {
+			if (!sessions.remove(session)) {
+				return;
+			}
+		}
+		session.close();
+	}
+
+	/**
+	 * Closes the sessions that have been idle the longest until the pool fits
+	 * in its heap budget. Sessions that have been used within the minimum
+	 * idle time, and sessions that are retained, are never closed.
+	 */
+	public void trim() {
+		List<Session> closed = new ArrayList<Session>();
+		synchronized (this) {
+			long size = getEstimatedSize();
+			if (size <= heapBudget) {
+				return;
+			}
+
+			List<Session> idleSessions = new ArrayList<Session>(sessions);
+			Collections.sort(idleSessions, new Comparator<Session>() {
+
+				@Override
+				public int compare(Session s1, Session s2) {
+					return s1.lastUsed < s2.lastUsed ? -1 : (s1.lastUsed == s2.lastUsed ? 0 : 1);
+				}
+			});
+
+			long now = System.currentTimeMillis();
+			for (Session session : idleSessions) {
+				if (size <= heapBudget || now - session.lastUsed < minIdle) {
+					break;
+				}
+				if (session.isRetained()) {
+					continue;
+				}
+				sessions.remove(session);
+				closed.add(session);
+				size -= session.estimatedSize;
+			}
+		}
+
+		// Pending writes are delivered outside of the lock.
+		for (Session session : closed) {
+			logger.log(Level.INFO, "Closing the idle " + session.backend + " session of " 
+					+ session.username + " on " + session.service + ".");
+			session.close();
+		}
+	}
+
+	/**
+	 * Schedules the next check of the heap budget, unless one already has
+	 * been, so that sessions that become idle are closed even if no new
+	 * sessions are added.
+	 */
+	private synchronized void scheduleTrim() {
+		if (trimScheduled) {
+			return;
+		}
+		trimScheduled = true;
+
+		LoginExecutor.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				synchronized (SessionPool.this) {
+					trimScheduled = false;
+					if (!sessions.isEmpty()) {
+						scheduleTrim();
+					}
+				}
+				trimInBackground();
+			}
+		}, TRIM_INTERVAL);
+	}
+
+	/**
+	 * Runs {@link #trim()} on the fan-out executor of the
+	 * {@link LoginExecutor}, because delivering the pending writes of closed
+	 * sessions may take a while.
+	 */
+	private void trimInBackground() {
+		LoginExecutor.getFanOutExecutor().execute(new Runnable() {
+
+			@Override
+			public void run() {
+				trim();
+			}
+		});
+	}
+
+}
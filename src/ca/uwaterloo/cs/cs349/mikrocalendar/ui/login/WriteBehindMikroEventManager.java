@@ -0,0 +1,1373 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.SwingUtilities;
+
+import ca.uwaterloo.cs.cs349.mikrocalendar.events.MikroEventManager;
+
+/**
+ * This {@link InvocationHandler} stands in front of a
+ * {@link MikroEventManager} and makes some of its writes asynchronous. The
+ * methods that are written behind are listed when it is created, because the
+ * name of a method does not tell whether it stores anything. They must
+ * return nothing, and are of two kinds:
+ * <ul>
+ * <li>A replacing write, such as an update or a delete, sets the state of
+ * the event given as its first argument. Delivering it twice is harmless, so
+ * repeated replacing writes of the same event are coalesced and only the
+ * last one is delivered.</li>
+ * <li>An appending write, such as adding an event or posting a tweet,
+ * creates something new each time it is delivered. It is never
+ * coalesced.</li>
+ * </ul>
+ * These writes return to the caller right away and are delivered in order,
+ * in batches, on a background thread. Their arguments are serialized when
+ * the write is made, and a copy of them is delivered, so that changes the
+ * caller makes to them afterwards are not. Every other call asks for the
+ * pending writes to be delivered right away and waits a bounded time for the
+ * ones made before it, so that it sees them. Calls on the event dispatching
+ * thread never wait.
+ * <p>
+ * At most a fixed number of writes can be pending. Once that many are
+ * pending, a further write waits a bounded time for room, and is then
+ * delivered by the caller after the pending writes, as it would be without
+ * write-behind. So is a write whose arguments cannot be serialized. A write
+ * that fails is retried with backoff. After a fixed number of attempts it is
+ * moved to a dead letter file next to the journal, so that it cannot hold up
+ * the writes behind it forever, and the {@link Listener} is told, so that
+ * the user does not think that it was saved.
+ * <p>
+ * Pending writes are appended to a journal file by a background thread, and
+ * the journal is only cleared once they have been delivered. If the program
+ * exits first, the replacing writes in it are delivered the next time a
+ * {@link WriteBehindMikroEventManager} is created with the same journal. Only
+ * one {@link WriteBehindMikroEventManager} at a time, in this or any other
+ * process, can use a journal, so that one cannot rewrite or replay the
+ * writes of another; the journal is locked from when it is created until it
+ * is closed. An
+ * appending write in it may already have been delivered, and delivering it
+ * again would duplicate it, so it is moved to the dead letter file instead
+ * and reported to the {@link Listener} as unconfirmed. Closing a
+ * {@link WriteBehindMikroEventManager} delivers its pending writes and then
+ * closes the {@link MikroEventManager} behind it. Because the journal is a
+ * file that other programs could write, it is only read back through a
+ * {@link JournalInputStream}, which refuses every class that is not known to
+ * appear in a write.
+ * <p>
+ * The number of pending writes, the number of writes in a batch, the number
+ * of milliseconds to wait before delivering a batch, the number of attempts
+ * before a write is dead-lettered, and the number of milliseconds that a
+ * call waits for room or for earlier writes can be configured with the
+ * <code>mikrocalendar.writeBehind.capacity</code>,
+ * <code>mikrocalendar.writeBehind.batchSize</code>,
+ * <code>mikrocalendar.writeBehind.delay</code>,
+ * <code>mikrocalendar.writeBehind.maxAttempts</code>, and
+ * <code>mikrocalendar.writeBehind.wait</code> system properties.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class WriteBehindMikroEventManager implements InvocationHandler, Closeable {
+
+	/**
+	 * The default maximum number of pending writes.
+	 */
+	private static final int DEFAULT_CAPACITY = 256;
+
+	/**
+	 * The default maximum number of writes that are delivered in one batch.
+	 */
+	private static final int DEFAULT_BATCH_SIZE = 50;
+
+	/**
+	 * The default number of milliseconds to wait after a write before
+	 * delivering a batch, so that more writes can join it.
+	 */
+	private static final long DEFAULT_DELAY = 500L;
+
+	/**
+	 * The default number of times that a write is attempted before it is
+	 * dead-lettered.
+	 */
+	private static final int DEFAULT_MAX_ATTEMPTS = 5;
+
+	/**
+	 * The default number of milliseconds that a call waits for room, or for
+	 * the writes made before it to be delivered.
+	 */
+	private static final long DEFAULT_WAIT = 2000L;
+
+	/**
+	 * The longest number of milliseconds to wait before retrying a write that
+	 * failed.
+	 */
+	private static final long MAX_RETRY_DELAY = 60000L;
+
+	/**
+	 * The largest journal record that is read back, in bytes.
+	 */
+	private static final int MAX_RECORD_LENGTH = 1024 * 1024;
+
+	/**
+	 * The {@link Logger} that failed writes are logged to.
+	 */
+	private static final Logger logger = Logger.getLogger(WriteBehindMikroEventManager.class.getName());
+
+	/**
+	 * The {@link ScheduledExecutorService} that writes are delivered on.
+	 */
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+			LoginExecutor.createThreadFactory("MikroCalendar-WriteBehind-"));
+
+	/**
+	 * The {@link ExecutorService} that journals are written on, one change at
+	 * a time and in order, so that callers never wait for the disk.
+	 */
+	private static final ExecutorService journaler = Executors.newSingleThreadExecutor(
+			LoginExecutor.createThreadFactory("MikroCalendar-Journal-"));
+
+	/**
+	 * This interface is notified of writes that have been given up on.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called when writes have been moved to the dead letter file, either
+		 * because they failed too many times or because it cannot be known
+		 * whether they were delivered before the program last exited. This is
+		 * called on a background thread.
+		 * 
+		 * @param message
+		 *            a description of the writes to show to the user
+		 */
+		void writesFailed(String message);
+
+	}
+
+	/**
+	 * This class is a write that has not been delivered yet.
+	 */
+	private static class PendingWrite {
+
+		/**
+		 * The method of the write.
+		 */
+		private final Method method;
+
+		/**
+		 * The copy of the arguments of the write that is delivered.
+		 */
+		private final Object[] args;
+
+		/**
+		 * The serialized {@link JournalRecord} of the write, taken when it
+		 * was made.
+		 */
+		private final byte[] record;
+
+		/**
+		 * The order in which the write was made.
+		 */
+		private final long sequence;
+
+		/**
+		 * The number of times that delivering the write has failed. Only
+		 * accessed while the delivery lock is held.
+		 */
+		private int failures;
+
+		/**
+		 * Creates a new {@link PendingWrite}.
+		 * 
+		 * @param method
+		 *            the method of the write
+		 * @param args
+		 *            the copy of the arguments of the write
+		 * @param record
+		 *            the serialized {@link JournalRecord} of the write
+		 * @param sequence
+		 *            the order in which the write was made
+		 */
+		private PendingWrite(Method method, Object[] args, byte[] record, long sequence) {
+			this.method = method;
+			this.args = args;
+			this.record = record;
+			this.sequence = sequence;
+		}
+
+	}
+
+	/**
+	 * This class is the form in which a write is stored in the journal.
+	 */
+	private static class JournalRecord implements Serializable {
+
+		/**
+		 * The version of this class.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The name of the method of the write.
+		 */
+		private final String methodName;
+
+		/**
+		 * The names of the parameter types of the method.
+		 */
+		private final String[] parameterTypes;
+
+		/**
+		 * The arguments of the write.
+		 */
+		private final Object[] args;
+
+		/**
+		 * Creates a new {@link JournalRecord}.
+		 * 
+		 * @param method
+		 *            the method of the write
+		 * @param args
+		 *            the arguments of the write
+		 */
+		private JournalRecord(Method method, Object[] args) {
+			methodName = method.getName();
+			Class<?>[] types = method.getParameterTypes();
+			parameterTypes = new String[types.length];
+			for (int i = 0; i < types.length; i++) {
+				parameterTypes[i] = types[i].getName();
+			}
+			this.args = args;
+		}
+
+		/**
+		 * Returns the method of the write that this record stores.
+		 * 
+		 * @return the method, or null if it no longer exists
+		 */
+		private Method findMethod() {
+			for (Method method : MikroEventManager.class.getMethods()) {
+				if (!method.getName().equals(methodName)) {
+					continue;
+				}
+				Class<?>[] types = method.getParameterTypes();
+				if (types.length != parameterTypes.length) {
+					continue;
+				}
+				boolean matches = true;
+				for (int i = 0; i < types.length && matches; i++) {
+					matches = types[i].getName().equals(parameterTypes[i]);
+				}
+				if (matches) {
+					return method;
+				}
+			}
+			return null;
+		}
+
+	}
+
+	/**
+	 * This {@link ObjectInputStream} reads {@link JournalRecord}s, and only
+	 * resolves the classes that a record of a write can contain: the record
+	 * itself, Strings, numbers, and other basic values, the classes of the
+	 * events and of Joda-Time, the parameter types of the methods of
+	 * {@link MikroEventManager}, and arrays of these. Any other class, and
+	 * any {@link Proxy} class, is refused before it is instantiated, so that
+	 * a tampered journal cannot run code while it is read.
+	 */
+	private static class JournalInputStream extends ObjectInputStream {
+
+		/**
+		 * The names of the classes, other than those of the allowed
+		 * packages, that may be read.
+		 */
+		private static final Set<String> ALLOWED_CLASSES = new HashSet<String>();
+
+		/**
+		 * The prefixes of the names of the packages whose classes may be read.
+		 */
+		private static final String[] ALLOWED_PACKAGES = {
+			"ca.uwaterloo.cs.cs349.mikrocalendar.events.",
+			"org.joda.time."
+		};
+
+		static {
+			Class<?>[] allowed = {
+				JournalRecord.class, Object.class, String.class, Number.class, Boolean.class, 
+				Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class, 
+				Double.class, Enum.class, java.util.Date.class, java.math.BigInteger.class, 
+				java.math.BigDecimal.class
+			};
+			for (Class<?> type : allowed) {
+				ALLOWED_CLASSES.add(type.getName());
+			}
+			for (Method method : MikroEventManager.class.getMethods()) {
+				for (Class<?> type : method.getParameterTypes()) {
+					ALLOWED_CLASSES.add(type.getName());
+				}
+			}
+		}
+
+		/**
+		 * Creates a new {@link JournalInputStream}.
+		 * 
+		 * @param in
+		 *            the serialized record
+		 * @throws IOException
+		 *             Thrown if the stream header cannot be read.
+		 */
+		private JournalInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass description) 
+				throws IOException, ClassNotFoundException {
+			String name = description.getName();
+			
+			// Arrays are allowed if their component type is. The name of an
+			// array of objects is like "[Ljava.lang.String;", and the name of
+			// an array of a primitive type is like "[I".
+			String componentName = name;
+			int dimensions = 0;
+			while (componentName.startsWith("[")) {
+				componentName = componentName.substring(1);
+				dimensions++;
+			}
+			if (dimensions > 0 && componentName.startsWith("L") && componentName.endsWith(";")) {
+				componentName = componentName.substring(1, componentName.length() - 1);
+			} else if (dimensions > 0) {
+				return super.resolveClass(description);
+			}
+			
+			if (!isAllowed(componentName)) {
+				throw new InvalidClassException(name, "Not allowed in a write-behind journal.");
+			}
+			return super.resolveClass(description);
+		}
+
+		@Override
+		protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+			throw new InvalidClassException("Proxy classes are not allowed in a write-behind journal.");
+		}
+
+		/**
+		 * Returns whether or not a class may be read.
+		 * 
+		 * @param name
+		 *            the name of the class
+		 * @return true if the class may be read. false otherwise.
+		 */
+		private static boolean isAllowed(String name) {
+			if (ALLOWED_CLASSES.contains(name)) {
+				return true;
+			}
+			for (String allowedPackage : ALLOWED_PACKAGES) {
+				if (name.startsWith(allowedPackage)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+	}
+
+	/**
+	 * The {@link MikroEventManager} that writes are delivered to.
+	 */
+	private final MikroEventManager mikroEventManager;
+
+	/**
+	 * The journal file, or null if pending writes are not kept on disk.
+	 */
+	private final File journal;
+
+	/**
+	 * The lock on the journal, or null if it is not locked.
+	 */
+	private FileLock journalLock;
+
+	/**
+	 * The names of the replacing writes.
+	 */
+	private final Set<String> replaceMethods;
+
+	/**
+	 * The names of the appending writes.
+	 */
+	private final Set<String> appendMethods;
+
+	/**
+	 * The {@link Listener} to notify of writes that have been given up on, or
+	 * null if there is none.
+	 */
+	private final Listener listener;
+
+	/**
+	 * The maximum number of pending writes.
+	 */
+	private final int capacity;
+
+	/**
+	 * The maximum number of writes that are delivered in one batch.
+	 */
+	private final int batchSize;
+
+	/**
+	 * The number of milliseconds to wait after a write before delivering a
+	 * batch.
+	 */
+	private final long delay;
+
+	/**
+	 * The number of times that a write is attempted before it is
+	 * dead-lettered.
+	 */
+	private final int maxAttempts;
+
+	/**
+	 * The number of milliseconds that a call waits for room, or for the
+	 * writes made before it to be delivered.
+	 */
+	private final long wait;
+
+	/**
+	 * The sequence number of the next write.
+	 */
+	private long nextSequence;
+
+	/**
+	 * The pending writes in the order that they are delivered in. Coalesced
+	 * writes are keyed by their method and first argument, and other writes
+	 * by a key of their own.
+	 */
+	private final LinkedHashMap<Object, PendingWrite> pendingWrites = 
+		new LinkedHashMap<Object, PendingWrite>();
+
+	/**
+	 * This lock is held while writes are delivered, so that they are
+	 * delivered one at a time and in order.
+	 */
+	private final Object deliveryLock = new Object();
+
+	/**
+	 * Whether or not a batch has been scheduled.
+	 */
+	private boolean batchScheduled;
+
+	/**
+	 * Whether or not a batch has been requested to run right away.
+	 */
+	private boolean batchRequested;
+
+	/**
+	 * Whether or not this has been closed, after which batches are no longer
+	 * delivered in the background.
+	 */
+	private boolean closed;
+
+	/**
+	 * The number of milliseconds to wait before retrying a write that failed.
+	 */
+	private long retryDelay;
+
+	/**
+	 * Creates a new {@link WriteBehindMikroEventManager}.
+	 * 
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager} that writes are delivered to
+	 * @param journal
+	 *            the journal file, or null if pending writes should not be
+	 *            kept on disk
+	 * @param replaceMethods
+	 *            the names of the replacing writes
+	 * @param appendMethods
+	 *            the names of the appending writes
+	 * @param listener
+	 *            the {@link Listener} to notify of writes that have been given
+	 *            up on, or null
+	 */
+	private WriteBehindMikroEventManager(MikroEventManager mikroEventManager, File journal, 
+			Set<String> replaceMethods, Set<String> appendMethods, Listener listener) {
+		this.mikroEventManager = mikroEventManager;
+		this.journal = journal;
+		this.replaceMethods = Collections.unmodifiableSet(new HashSet<String>(replaceMethods));
+		this.appendMethods = Collections.unmodifiableSet(new HashSet<String>(appendMethods));
+		this.listener = listener;
+		this.capacity = Math.max(1, Integer.getInteger("mikrocalendar.writeBehind.capacity", 
+				DEFAULT_CAPACITY).intValue());
+		this.batchSize = Math.max(1, Integer.getInteger("mikrocalendar.writeBehind.batchSize", 
+				DEFAULT_BATCH_SIZE).intValue());
+		this.delay = Long.getLong("mikrocalendar.writeBehind.delay", DEFAULT_DELAY).longValue();
+		this.maxAttempts = Math.max(1, Integer.getInteger("mikrocalendar.writeBehind.maxAttempts", 
+				DEFAULT_MAX_ATTEMPTS).intValue());
+		this.wait = Math.max(0L, Long.getLong("mikrocalendar.writeBehind.wait", DEFAULT_WAIT).longValue());
+		this.retryDelay = delay;
+	}
+
+	/**
+	 * Creates a {@link MikroEventManager} whose listed writes are delivered to
+	 * the specified {@link MikroEventManager} in the background. Replacing
+	 * writes left in the journal by an earlier run are delivered first, and
+	 * appending writes left in it are reported to the {@link Listener}. This
+	 * method reads the journal, so it should not be called on the event
+	 * dispatching thread.
+	 * 
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager} that writes are delivered to
+	 * @param journal
+	 *            the journal file, or null if pending writes should not be
+	 *            kept on disk
+	 * @param replaceMethods
+	 *            the names of the methods that are replacing writes
+	 * @param appendMethods
+	 *            the names of the methods that are appending writes
+	 * @param listener
+	 *            the {@link Listener} to notify of writes that have been given
+	 *            up on, or null
+	 * @return the {@link MikroEventManager}
+	 * @throws IllegalStateException
+	 *             Thrown if the journal is being used by another
+	 *             {@link WriteBehindMikroEventManager}, or cannot be locked.
+	 */
+	public static MikroEventManager create(MikroEventManager mikroEventManager, File journal, 
+			Set<String> replaceMethods, Set<String> appendMethods, Listener listener) {
+		if (mikroEventManager == null) {
+			throw new IllegalArgumentException("MikroEventManager cannot be null.");
+		}
+		if (replaceMethods == null || appendMethods == null) {
+			throw new IllegalArgumentException("Write methods cannot be null.");
+		}
+
+		WriteBehindMikroEventManager handler = new WriteBehindMikroEventManager(
+				mikroEventManager, journal, replaceMethods, appendMethods, listener);
+		handler.lockJournal();
+		handler.replayJournal();
+
+		return (MikroEventManager) Proxy.newProxyInstance(
+				MikroEventManager.class.getClassLoader(),
+				new Class<?>[] { MikroEventManager.class },
+				handler);
+	}
+
+	/**
+	 * Delivers all of the pending writes of a {@link MikroEventManager}
+	 * created by {@link #create(MikroEventManager, File, Set, Set, Listener)},
+	 * and waits until
+	 * they have been delivered and the journal has been updated. This should
+	 * be called before the program exits, and not on the event dispatching
+	 * thread. A {@link CachingMikroEventManager} in front of it is looked
+	 * through. Does nothing for any other {@link MikroEventManager}.
+	 * 
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager}
+	 * @return true if every pending write has been delivered. false
+	 *         otherwise.
+	 */
+	public static boolean flush(MikroEventManager mikroEventManager) {
+		if (mikroEventManager == null || !Proxy.isProxyClass(mikroEventManager.getClass())) {
+			return true;
+		}
+
+		InvocationHandler handler = Proxy.getInvocationHandler(mikroEventManager);
+		if (handler instanceof WriteBehindMikroEventManager) {
+			boolean delivered = ((WriteBehindMikroEventManager) handler).deliver(Integer.MAX_VALUE);
+			awaitJournal();
+			return delivered;
+		} else if (handler instanceof CachingMikroEventManager) {
+			return flush(((CachingMikroEventManager) handler).getMikroEventManager());
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether or not a {@link MikroEventManager} created by
+	 * {@link #create(MikroEventManager, File, Set, Set, Listener)} has writes
+	 * that have not been delivered yet.
+	 * 
+	 * @param mikroEventManager
+	 *            the {@link MikroEventManager}
+	 * @return true if it has pending writes. false if it does not, or if it
+	 *         was not created by this class.
+	 */
+	static boolean hasPendingWrites(MikroEventManager mikroEventManager) {
+		if (mikroEventManager == null || !Proxy.isProxyClass(mikroEventManager.getClass())) {
+			return false;
+		}
+
+		InvocationHandler handler = Proxy.getInvocationHandler(mikroEventManager);
+		if (!(handler instanceof WriteBehindMikroEventManager)) {
+			return false;
+		}
+		WriteBehindMikroEventManager writeBehind = (WriteBehindMikroEventManager) handler;
+		synchronized (writeBehind) {
+			return !writeBehind.pendingWrites.isEmpty();
+		}
+	}
+
+	/**
+	 * Delivers the pending writes, waits until the journal has been updated,
+	 * and then closes the {@link MikroEventManager} that writes are delivered
+	 * to. Writes that cannot be delivered are left in the journal for the
+	 * next run. This should not be called on the event dispatching thread.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			closed = true;
+		}
+		deliver(Integer.MAX_VALUE);
+		awaitJournal();
+		unlockJournal();
+
+		MikroEventManagers.close(mikroEventManager);
+	}
+
+	/**
+	 * Locks the journal, so that no other {@link WriteBehindMikroEventManager}
+	 * can use it until this one is closed. The lock is held on a lock file
+	 * next to the journal, because the journal itself is replaced when it is
+	 * rewritten.
+	 * 
+	 * @throws IllegalStateException
+	 *             Thrown if the journal is already locked, or cannot be
+	 *             locked.
+	 */
+	private synchronized void lockJournal() {
+		if (journal == null) {
+			return;
+		}
+
+		File lockFile = new File(journal.getPath() + ".lock");
+		RandomAccessFile file = null;
+		try {
+			File parent = lockFile.getParentFile();
+			if (parent != null && !parent.isDirectory()) {
+				parent.mkdirs();
+			}
+
+			file = new RandomAccessFile(lockFile, "rw");
+			journalLock = file.getChannel().tryLock();
+		} catch (OverlappingFileLockException e) {
+			// Another session in this process holds the lock.
+			journalLock = null;
+		} catch (IOException e) {
+			closeQuietly(file);
+			throw new IllegalStateException("The journal " + journal + " cannot be locked.", e);
+		}
+
+		if (journalLock == null) {
+			closeQuietly(file);
+			throw new IllegalStateException("The journal " + journal + " is being used by another session.");
+		}
+	}
+
+	/**
+	 * Releases the lock on the journal, if it is held.
+	 */
+	private synchronized void unlockJournal() {
+		if (journalLock == null) {
+			return;
+		}
+
+		try {
+			journalLock.release();
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Could not unlock " + journal + ".", e);
+		}
+		closeQuietly(journalLock.channel());
+		journalLock = null;
+	}
+
+	/**
+	 * Closes a {@link Closeable}, logging rather than throwing a failure.
+	 * 
+	 * @param closeable
+	 *            the {@link Closeable}, or null
+	 */
+	private static void closeQuietly(Closeable closeable) {
+		if (closeable == null) {
+			return;
+		}
+
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Could not close " + closeable + ".", e);
+		}
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		// Object methods should not wait for pending writes.
+		if (method.getDeclaringClass() == Object.class) {
+			if (method.getName().equals("equals")) {
+				return Boolean.valueOf(proxy == args[0]);
+			} else if (method.getName().equals("hashCode")) {
+				return Integer.valueOf(System.identityHashCode(proxy));
+			} else {
+				return "WriteBehindMikroEventManager[" + mikroEventManager + "]";
+			}
+		}
+
+		if (isWrittenBehind(method)) {
+			// The arguments are copied now, so that later changes to them
+			// are neither journaled nor delivered.
+			Object[] arguments = args == null ? new Object[0] : args;
+			PendingWrite snapshot = null;
+			try {
+				byte[] record = serialize(new JournalRecord(method, arguments));
+				snapshot = new PendingWrite(method, deserialize(record).args, record, -1L);
+			} catch (IOException e) {
+				logger.log(Level.FINE, "The arguments of " + method.getName() 
+						+ " cannot be copied; it is delivered directly.", e);
+			} catch (ClassNotFoundException e) {
+				logger.log(Level.FINE, "The arguments of " + method.getName() 
+						+ " cannot be copied; it is delivered directly.", e);
+			}
+			
+			if (snapshot != null) {
+				try {
+					if (enqueue(snapshot)) {
+						return null;
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			
+			// Deliver the write directly, after the pending writes, rather
+			// than losing it or failing.
+			synchronized (deliveryLock) {
+				deliver(Integer.MAX_VALUE);
+				return call(method, args);
+			}
+		}
+
+		// Everything else sees the pending writes. If they cannot be
+		// delivered in time, the call goes ahead anyway.
+		awaitDelivery();
+		return call(method, args);
+	}
+
+	/**
+	 * Calls a method of the {@link MikroEventManager}.
+	 * 
+	 * @param method
+	 *            the method
+	 * @param args
+	 *            the arguments
+	 * @return the result
+	 * @throws Throwable
+	 *             Thrown if the method fails.
+	 */
+	private Object call(Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(mikroEventManager, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Returns whether or not a method of {@link MikroEventManager} is one of
+	 * the listed writes that are delivered in the background. Only methods
+	 * that return nothing can be.
+	 * 
+	 * @param method
+	 *            the method
+	 * @return true if the method is written behind. false otherwise.
+	 */
+	private boolean isWrittenBehind(Method method) {
+		return method.getReturnType() == Void.TYPE 
+				&& (replaceMethods.contains(method.getName()) || appendMethods.contains(method.getName()));
+	}
+
+	/**
+	 * Returns the number of milliseconds that the current thread may wait
+	 * for room or for earlier writes. The event dispatching thread never
+	 * waits.
+	 * 
+	 * @return the number of milliseconds
+	 */
+	private long getWait() {
+		return SwingUtilities.isEventDispatchThread() ? 0L : wait;
+	}
+
+	/**
+	 * Adds a write to the pending writes, waiting a bounded time for room if
+	 * there are too many, and schedules a batch.
+	 * 
+	 * @param snapshot
+	 *            the write, with the copy of its arguments
+	 * @return true if the write was added. false if there was still no room
+	 *         after waiting.
+	 * @throws InterruptedException
+	 *             Thrown if the thread is interrupted while waiting for room.
+	 */
+	private synchronized boolean enqueue(PendingWrite snapshot) throws InterruptedException {
+		Object key = createKey(snapshot.method, snapshot.args);
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getWait());
+		while (pendingWrites.size() >= capacity && !pendingWrites.containsKey(key)) {
+			long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if (remaining <= 0L) {
+				return false;
+			}
+			wait(remaining);
+		}
+
+		// A coalesced write moves to the end, after any writes that were
+		// made since the write it replaces.
+		PendingWrite write = new PendingWrite(snapshot.method, snapshot.args, snapshot.record, nextSequence++);
+		pendingWrites.remove(key);
+		pendingWrites.put(key, write);
+		appendToJournal(journal, write);
+
+		scheduleBatch(delay);
+		return true;
+	}
+
+	/**
+	 * Creates the key that a write is pending under. Replacing writes share a
+	 * key with earlier replacing writes of the same event, so that they are
+	 * coalesced.
+	 * 
+	 * @param method
+	 *            the method of the write
+	 * @param args
+	 *            the arguments of the write
+	 * @return the key
+	 */
+	private Object createKey(Method method, Object[] args) {
+		if (args.length > 0 && replaceMethods.contains(method.getName())) {
+			return Arrays.asList(method, args[0]);
+		}
+		return new Object();
+	}
+
+	/**
+	 * Schedules a batch to be delivered, unless one already has been.
+	 * 
+	 * @param batchDelay
+	 *            the number of milliseconds to wait before delivering it
+	 */
+	private synchronized void scheduleBatch(long batchDelay) {
+		if (batchScheduled) {
+			return;
+		}
+		batchScheduled = true;
+
+		scheduler.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				synchronized (WriteBehindMikroEventManager.this) {
+					batchScheduled = false;
+				}
+				runBatch(batchSize);
+			}
+		}, batchDelay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Asks for all of the pending writes to be delivered right away, unless
+	 * that has already been asked for, or delivery is backing off after a
+	 * failure.
+	 */
+	private synchronized void requestBatch() {
+		if (batchRequested || retryDelay > delay) {
+			return;
+		}
+		batchRequested = true;
+
+		scheduler.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				synchronized (WriteBehindMikroEventManager.this) {
+					batchRequested = false;
+				}
+				runBatch(Integer.MAX_VALUE);
+			}
+		});
+	}
+
+	/**
+	 * Delivers a batch on the scheduler, and schedules the next one. After a
+	 * failure, the next batch is delayed by twice as long as the last one, up
+	 * to {@link #MAX_RETRY_DELAY}.
+	 * 
+	 * @param maxWrites
+	 *            the maximum number of writes to deliver
+	 */
+	private void runBatch(int maxWrites) {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+		}
+		boolean delivered = deliver(maxWrites);
+		synchronized (this) {
+			if (!delivered) {
+				retryDelay = Math.min(MAX_RETRY_DELAY, retryDelay * 2L);
+				scheduleBatch(retryDelay);
+			} else {
+				retryDelay = delay;
+				if (!pendingWrites.isEmpty()) {
+					scheduleBatch(0L);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits a bounded time for the writes that are pending now to be
+	 * delivered, after asking for them to be delivered right away. The event
+	 * dispatching thread only asks, and does not wait.
+	 */
+	private void awaitDelivery() {
+		long sequence;
+		synchronized (this) {
+			if (pendingWrites.isEmpty()) {
+				return;
+			}
+			sequence = nextSequence - 1L;
+		}
+		requestBatch();
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getWait());
+		synchronized (this) {
+			try {
+				while (isPending(sequence)) {
+					long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+					if (remaining <= 0L) {
+						return;
+					}
+					wait(remaining);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Returns whether or not any write made up to the specified sequence
+	 * number is still pending.
+	 * 
+	 * @param sequence
+	 *            the sequence number
+	 * @return true if such a write is pending. false otherwise.
+	 */
+	private synchronized boolean isPending(long sequence) {
+		for (PendingWrite write : pendingWrites.values()) {
+			if (write.sequence <= sequence) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Delivers up to the specified number of pending writes, in order.
+	 * Delivery stops at the first write that fails, which stays pending,
+	 * unless it has now failed too many times, in which case it is moved to
+	 * the dead letter file and delivery goes on.
+	 * 
+	 * @param maxWrites
+	 *            the maximum number of writes to deliver
+	 * @return true if the writes were delivered or dead-lettered. false if a
+	 *         write failed and will be retried.
+	 */
+	private boolean deliver(int maxWrites) {
+		synchronized (deliveryLock) {
+			List<Map.Entry<Object, PendingWrite>> batch;
+			synchronized (this) {
+				if (pendingWrites.isEmpty()) {
+					return true;
+				}
+				batch = new ArrayList<Map.Entry<Object, PendingWrite>>();
+				Iterator<Map.Entry<Object, PendingWrite>> iterator = pendingWrites.entrySet().iterator();
+				while (iterator.hasNext() && batch.size() < maxWrites) {
+					Map.Entry<Object, PendingWrite> entry = iterator.next();
+					batch.add(new AbstractMap.SimpleImmutableEntry<Object, PendingWrite>(entry));
+				}
+			}
+
+			try {
+				for (Map.Entry<Object, PendingWrite> entry : batch) {
+					PendingWrite write = entry.getValue();
+					try {
+						write.method.invoke(mikroEventManager, write.args);
+					} catch (InvocationTargetException e) {
+						write.failures++;
+						if (write.failures < maxAttempts) {
+							logger.log(Level.WARNING, "Could not deliver " + write.method.getName() 
+									+ "; it will be retried.", e.getCause());
+							return false;
+						}
+						
+						logger.log(Level.SEVERE, "Could not deliver " + write.method.getName() 
+								+ " after " + write.failures + " attempts; it has been moved to " 
+								+ getDeadLetterFile() + ".", e.getCause());
+						appendToJournal(getDeadLetterFile(), write);
+						reportFailure("A change (" + write.method.getName() + ") could not be saved after " 
+								+ write.failures + " attempts, and has not been saved. It has been kept in " 
+								+ getDeadLetterFile() + ".");
+					} catch (IllegalAccessException e) {
+						throw new IllegalStateException(e);
+					}
+
+					// Keep the write if it was coalesced while it was being
+					// delivered.
+					synchronized (this) {
+						if (pendingWrites.get(entry.getKey()) == write) {
+							pendingWrites.remove(entry.getKey());
+							notifyAll();
+						}
+					}
+				}
+			} finally {
+				synchronized (this) {
+					rewriteJournal();
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the file that writes which could not be delivered are moved to.
+	 * 
+	 * @return the dead letter file, or null if there is no journal
+	 */
+	private File getDeadLetterFile() {
+		return journal == null ? null : new File(journal.getPath() + ".dead");
+	}
+
+	/**
+	 * Tells the {@link Listener}, if there is one, that writes have been
+	 * given up on.
+	 * 
+	 * @param message
+	 *            a description of the writes to show to the user
+	 */
+	private void reportFailure(String message) {
+		if (listener == null) {
+			return;
+		}
+		try {
+			listener.writesFailed(message);
+		} catch (RuntimeException e) {
+			logger.log(Level.WARNING, "Could not report writes that failed.", e);
+		}
+	}
+
+	/**
+	 * Appends a write to a journal file in the background. The record of the
+	 * write was serialized when it was made.
+	 * 
+	 * @param file
+	 *            the journal file, or null if writes are not kept on disk
+	 * @param write
+	 *            the {@link PendingWrite}
+	 */
+	private static void appendToJournal(File file, PendingWrite write) {
+		appendToJournal(file, write.record, write.method.getName());
+	}
+
+	/**
+	 * Appends a serialized record to a journal file in the background.
+	 * 
+	 * @param file
+	 *            the journal file, or null if writes are not kept on disk
+	 * @param record
+	 *            the serialized {@link JournalRecord}
+	 * @param methodName
+	 *            the name of the method of the write, for logging
+	 */
+	private static void appendToJournal(final File file, final byte[] record, final String methodName) {
+		if (file == null) {
+			return;
+		}
+
+		journaler.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					File parent = file.getParentFile();
+					if (parent != null && !parent.isDirectory()) {
+						parent.mkdirs();
+					}
+
+					FileOutputStream fileOut = new FileOutputStream(file, true);
+					try {
+						DataOutputStream out = new DataOutputStream(fileOut);
+						out.writeInt(record.length);
+						out.write(record);
+						out.flush();
+						fileOut.getFD().sync();
+					} finally {
+						fileOut.close();
+					}
+				} catch (IOException e) {
+					logger.log(Level.FINE, "Could not journal " + methodName + ".", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Rewrites the journal in the background so that it only holds the
+	 * writes that are pending now, or deletes it if there are none. Must be
+	 * called while holding the lock of this handler.
+	 */
+	private void rewriteJournal() {
+		if (journal == null) {
+			return;
+		}
+
+		final List<PendingWrite> writes = new ArrayList<PendingWrite>(pendingWrites.values());
+		journaler.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				if (writes.isEmpty()) {
+					journal.delete();
+					return;
+				}
+
+				File temporary = new File(journal.getPath() + ".tmp");
+				try {
+					FileOutputStream fileOut = new FileOutputStream(temporary);
+					try {
+						DataOutputStream out = new DataOutputStream(fileOut);
+						for (PendingWrite write : writes) {
+							out.writeInt(write.record.length);
+							out.write(write.record);
+						}
+						out.flush();
+						fileOut.getFD().sync();
+					} finally {
+						fileOut.close();
+					}
+
+					if (!temporary.renameTo(journal)) {
+						journal.delete();
+						temporary.renameTo(journal);
+					}
+				} catch (IOException e) {
+					// The old journal is kept. It may hold writes that have
+					// been delivered. The replacing writes among them are
+					// harmless to deliver again, and the appending writes
+					// are reported rather than delivered again.
+					temporary.delete();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits a bounded time for the journal changes made so far to be written.
+	 */
+	private static void awaitJournal() {
+		Future<?> marker = journaler.submit(new Runnable() {
+
+			@Override
+			public void run() {
+				// No-op.
+			}
+		});
+		try {
+			marker.get(DEFAULT_WAIT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// The marker cannot fail.
+		} catch (TimeoutException e) {
+			logger.log(Level.WARNING, "The write-behind journal is still being written.");
+		}
+	}
+
+	/**
+	 * Reads the replacing writes left in the journal by an earlier run into
+	 * the pending writes, and schedules them to be delivered. Any other write
+	 * left in it may already have been delivered, so it is moved to the dead
+	 * letter file and reported instead.
+	 */
+	private synchronized void replayJournal() {
+		if (journal == null || !journal.isFile()) {
+			return;
+		}
+
+		int unconfirmed = 0;
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(journal));
+			try {
+				while (true) {
+					int length;
+					try {
+						length = in.readInt();
+					} catch (EOFException e) {
+						break;
+					}
+					if (length < 0 || length > MAX_RECORD_LENGTH) {
+						throw new IOException("Record of " + length + " bytes is not valid.");
+					}
+					byte[] record = new byte[length];
+					in.readFully(record);
+
+					JournalRecord journalRecord = deserialize(record);
+					Method method = journalRecord.findMethod();
+					if (method == null) {
+						logger.log(Level.WARNING, journalRecord.methodName 
+								+ " no longer exists; it has been moved to " + getDeadLetterFile() + ".");
+						appendToJournal(getDeadLetterFile(), record, journalRecord.methodName);
+						unconfirmed++;
+					} else if (!replaceMethods.contains(method.getName())) {
+						appendToJournal(getDeadLetterFile(), record, method.getName());
+						unconfirmed++;
+					} else {
+						PendingWrite write = new PendingWrite(method, journalRecord.args, record, nextSequence++);
+						Object key = createKey(write.method, write.args);
+						pendingWrites.remove(key);
+						pendingWrites.put(key, write);
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (InvalidClassException e) {
+			// The journal has been tampered with. Nothing after the refused
+			// record is trusted.
+			logger.log(Level.WARNING, "The write-behind journal " + journal 
+					+ " contains a class that is not allowed.", e);
+		} catch (IOException e) {
+			// A record was cut short while it was being written. The writes
+			// before it are still delivered.
+			logger.log(Level.FINE, "The write-behind journal " + journal + " is incomplete.", e);
+		} catch (ClassNotFoundException e) {
+			logger.log(Level.WARNING, "The write-behind journal " + journal + " cannot be read.", e);
+		}
+
+		if (unconfirmed > 0) {
+			rewriteJournal();
+			reportFailure(unconfirmed + (unconfirmed == 1 ? " change" : " changes") 
+					+ " made before MikroCalendar last exited may not have been saved. To avoid saving " 
+					+ (unconfirmed == 1 ? "it" : "them") + " twice, " 
+					+ (unconfirmed == 1 ? "it has" : "they have") + " been kept in " 
+					+ getDeadLetterFile() + " instead.");
+		}
+		if (!pendingWrites.isEmpty()) {
+			scheduleBatch(0L);
+		}
+	}
+
+	/**
+	 * Serializes a {@link JournalRecord}.
+	 * 
+	 * @param record
+	 *            the {@link JournalRecord}
+	 * @return the serialized record
+	 * @throws IOException
+	 *             Thrown if an argument of the write cannot be serialized.
+	 */
+	private static byte[] serialize(JournalRecord record) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(record);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Deserializes a {@link JournalRecord} through a
+	 * {@link JournalInputStream}.
+	 * 
+	 * @param record
+	 *            the serialized record
+	 * @return the {@link JournalRecord}
+	 * @throws IOException
+	 *             Thrown if the record is not valid, or if it contains a
+	 *             class that is not allowed.
+	 * @throws ClassNotFoundException
+	 *             Thrown if an argument of the write is of an unknown class.
+	 */
+	private static JournalRecord deserialize(byte[] record) throws IOException, ClassNotFoundException {
+		ObjectInputStream in = new JournalInputStream(new ByteArrayInputStream(record));
+		try {
+			Object object = in.readObject();
+			if (!(object instanceof JournalRecord)) {
+				throw new InvalidClassException(object == null ? "null" : object.getClass().getName(), 
+						"Not a write-behind journal record.");
+			}
+			return (JournalRecord) object;
+		} finally {
+			in.close();
+		}
+	}
+
+}
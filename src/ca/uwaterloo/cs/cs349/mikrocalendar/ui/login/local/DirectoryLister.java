@@ -0,0 +1,222 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.local;
+
+import java.io.File;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.SwingWorker;
+
+/**
+ * This {@link SwingWorker} lists the subdirectories and JSON files of a
+ * directory on a background thread. Entries are handed to the event
+ * dispatching thread while the directory is still being listed, so that a
+ * large or slow directory shows its first entries right away. Hidden files
+ * are skipped.
+ * <p>
+ * Entries are sorted on the background thread in batches, and each batch is
+ * merged into the entries listed so far. The event dispatching thread is
+ * only handed the sorted entries, so it never has to sort or insert them one
+ * at a time. Batches grow with the number of entries, so that the merging
+ * takes O(n log n) time overall.
+ * <p>
+ * Listings are remembered in the {@link DirectoryListingCache}, and a
+ * remembered listing is used instead of listing the directory again if the
+ * directory has not changed.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+abstract class DirectoryLister extends SwingWorker<List<DirectoryListingCache.Entry>, List<DirectoryListingCache.Entry>> {
+
+	/**
+	 * The smallest number of entries that are sorted and merged at a time.
+	 */
+	private static final int MIN_BATCH_SIZE = 256;
+
+	/**
+	 * The number of nanoseconds after which a smaller batch is handed to the
+	 * event dispatching thread anyway, so that slow directories still show
+	 * their entries as they are found.
+	 */
+	private static final long BATCH_INTERVAL = 100L * 1000L * 1000L;
+
+	/**
+	 * The directory to list.
+	 */
+	private final File directory;
+
+	/**
+	 * Creates a new {@link DirectoryLister}.
+	 * 
+	 * @param directory
+	 *            the directory to list
+	 */
+	DirectoryLister(File directory) {
+		if (directory == null) {
+			throw new IllegalArgumentException("Directory cannot be null.");
+		}
+
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the directory that is listed.
+	 * 
+	 * @return the directory
+	 */
+	File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Called on the event dispatching thread with all of the entries that
+	 * have been listed so far, sorted with directories first.
+	 * 
+	 * @param entries
+	 *            the sorted entries, which must not be modified
+	 */
+	protected abstract void entriesListed(List<DirectoryListingCache.Entry> entries);
+
+	/**
+	 * Called on the event dispatching thread once the directory has been
+	 * listed, listing has failed, or listing has been cancelled.
+	 * 
+	 * @param exception
+	 *            the {@link Exception} that caused listing to fail, or null
+	 *            if listing did not fail
+	 */
+	protected abstract void listingFinished(Exception exception);
+
+	@Override
+	protected List<DirectoryListingCache.Entry> doInBackground() throws Exception {
+		DirectoryListingCache cache = DirectoryListingCache.getInstance();
+		List<DirectoryListingCache.Entry> entries = cache.get(directory);
+		if (entries != null) {
+			// Remembered listings are already sorted.
+			publish(entries);
+			return entries;
+		}
+
+		// Read the time before listing, so that a change made while listing
+		// makes the listing stale.
+		long lastModified = directory.lastModified();
+		entries = Collections.emptyList();
+		List<DirectoryListingCache.Entry> batch = new ArrayList<DirectoryListingCache.Entry>();
+		long batchTime = System.nanoTime();
+
+		DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath());
+		try {
+			for (Path path : stream) {
+				if (isCancelled()) {
+					return entries;
+				}
+
+				String name = path.getFileName().toString();
+				if (name.length() == 0 || name.charAt(0) == '.') {
+					continue;
+				}
+
+				boolean directoryEntry = Files.isDirectory(path);
+				if (directoryEntry || DirectoryListingCache.isJSONFileName(name)) {
+					DirectoryListingCache.Entry entry = new DirectoryListingCache.Entry(
+							path.toFile(), directoryEntry);
+					batch.add(entry);
+				}
+
+				if (batch.size() >= Math.max(MIN_BATCH_SIZE, entries.size() / 2)
+						|| (!batch.isEmpty() && System.nanoTime() - batchTime >= BATCH_INTERVAL)) {
+					entries = merge(entries, batch);
+					batch.clear();
+					batchTime = System.nanoTime();
+					publish(entries);
+				}
+			}
+		} finally {
+			stream.close();
+		}
+
+		if (!batch.isEmpty() || entries.isEmpty()) {
+			entries = merge(entries, batch);
+			publish(entries);
+		}
+		cache.put(directory, lastModified, entries);
+		return entries;
+	}
+
+	/**
+	 * Sorts a batch of entries and merges it into the sorted entries.
+	 * 
+	 * @param entries
+	 *            the sorted entries
+	 * @param batch
+	 *            the batch of entries, which is sorted in place
+	 * @return a new unmodifiable List of all of the entries, sorted
+	 */
+	private static List<DirectoryListingCache.Entry> merge(
+			List<DirectoryListingCache.Entry> entries, List<DirectoryListingCache.Entry> batch) {
+		Collections.sort(batch);
+
+		List<DirectoryListingCache.Entry> merged = 
+			new ArrayList<DirectoryListingCache.Entry>(entries.size() + batch.size());
+		int i = 0;
+		int j = 0;
+		while (i < entries.size() && j < batch.size()) {
+			if (batch.get(j).compareTo(entries.get(i)) < 0) {
+				merged.add(batch.get(j++));
+			} else {
+				merged.add(entries.get(i++));
+			}
+		}
+		merged.addAll(entries.subList(i, entries.size()));
+		merged.addAll(batch.subList(j, batch.size()));
+		return Collections.unmodifiableList(merged);
+	}
+
+	@Override
+	protected void process(List<List<DirectoryListingCache.Entry>> listings) {
+		// Only the latest listing matters, because it holds all of the
+		// earlier entries.
+		entriesListed(listings.get(listings.size() - 1));
+	}
+
+	@Override
+	protected void done() {
+		try {
+			get();
+			listingFinished(null);
+		} catch (CancellationException e) {
+			listingFinished(null);
+		} catch (InterruptedException e) {
+			listingFinished(e);
+		} catch (ExecutionException e) {
+			listingFinished(e.getCause() instanceof Exception
+					? (Exception) e.getCause() : e);
+		}
+	}
+
+}
@@ -0,0 +1,241 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.local;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class remembers the listings of recently browsed directories, so that
+ * going back to a directory does not list it again. A listing is only used
+ * while the last modified time of its directory is unchanged, which is the
+ * case until an entry is added to, removed from, or renamed in the directory.
+ * <p>
+ * The number of directories that are remembered can be configured with the
+ * <code>mikrocalendar.browse.cacheSize</code> system property.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+class DirectoryListingCache {
+
+	/**
+	 * This class is an entry of a directory listing: either a subdirectory or
+	 * a JSON file. Whether it is a directory is found out once, while the
+	 * directory is listed, so that it does not have to be checked again.
+	 */
+	static class Entry implements Comparable<Entry> {
+
+		/**
+		 * The file.
+		 */
+		private final File file;
+
+		/**
+		 * Whether or not the file is a directory.
+		 */
+		private final boolean directory;
+
+		/**
+		 * Creates a new {@link Entry}.
+		 * 
+		 * @param file
+		 *            the file
+		 * @param directory
+		 *            whether or not the file is a directory
+		 */
+		Entry(File file, boolean directory) {
+			this.file = file;
+			this.directory = directory;
+		}
+
+		/**
+		 * Returns the file.
+		 * 
+		 * @return the file
+		 */
+		File getFile() {
+			return file;
+		}
+
+		/**
+		 * Returns whether or not the file is a directory.
+		 * 
+		 * @return true if the file is a directory. false otherwise.
+		 */
+		boolean isDirectory() {
+			return directory;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			// Directories come before files.
+			if (directory != other.directory) {
+				return directory ? -1 : 1;
+			}
+			return file.getName().compareToIgnoreCase(other.file.getName());
+		}
+
+		@Override
+		public String toString() {
+			return directory ? file.getName() + File.separator : file.getName();
+		}
+
+	}
+
+	/**
+	 * The default number of directories that are remembered.
+	 */
+	private static final int DEFAULT_SIZE = 64;
+
+	/**
+	 * The {@link DirectoryListingCache} shared by all file browsers.
+	 * 
+	 * @see #getInstance()
+	 */
+	private static final DirectoryListingCache instance = new DirectoryListingCache(
+			Integer.getInteger("mikrocalendar.browse.cacheSize", DEFAULT_SIZE).intValue());
+
+	/**
+	 * The listings, keyed by directory, from least to most recently used.
+	 */
+	private final Map<File, Listing> listings;
+
+	/**
+	 * This class is a listing of a directory at a point in time.
+	 */
+	private static class Listing {
+
+		/**
+		 * The last modified time of the directory when it was listed.
+		 */
+		private final long lastModified;
+
+		/**
+		 * The entries of the directory.
+		 */
+		private final List<Entry> entries;
+
+		/**
+		 * Creates a new {@link Listing}.
+		 * 
+		 * @param lastModified
+		 *            the last modified time of the directory when it was
+		 *            listed
+		 * @param entries
+		 *            the entries of the directory
+		 */
+		private Listing(long lastModified, List<Entry> entries) {
+			this.lastModified = lastModified;
+			this.entries = entries;
+		}
+
+	}
+
+	/**
+	 * Creates a new {@link DirectoryListingCache}.
+	 * 
+	 * @param size
+	 *            the number of directories to remember
+	 */
+	DirectoryListingCache(final int size) {
+		listings = new LinkedHashMap<File, Listing>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<File, Listing> eldest) {
+				return size() > size;
+			}
+		};
+	}
+
+	/**
+	 * Returns the {@link DirectoryListingCache} shared by all file browsers.
+	 * 
+	 * @return the {@link DirectoryListingCache}
+	 */
+	static DirectoryListingCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the remembered listing of the specified directory, if the
+	 * directory has not changed since it was listed.
+	 * 
+	 * @param directory
+	 *            the directory
+	 * @return the entries of the directory, or null if there is no usable
+	 *         listing
+	 */
+	synchronized List<Entry> get(File directory) {
+		Listing listing = listings.get(directory);
+		if (listing == null) {
+			return null;
+		}
+
+		if (listing.lastModified != directory.lastModified()) {
+			listings.remove(directory);
+			return null;
+		}
+		return listing.entries;
+	}
+
+	/**
+	 * Remembers the listing of the specified directory.
+	 * 
+	 * @param directory
+	 *            the directory
+	 * @param lastModified
+	 *            the last modified time of the directory from before it was
+	 *            listed
+	 * @param entries
+	 *            the entries of the directory
+	 */
+	synchronized void put(File directory, long lastModified, List<Entry> entries) {
+		listings.put(directory, new Listing(lastModified,
+				Collections.unmodifiableList(new ArrayList<Entry>(entries))));
+	}
+
+	/**
+	 * Forgets the listing of the specified directory.
+	 * 
+	 * @param directory
+	 *            the directory
+	 */
+	synchronized void invalidate(File directory) {
+		listings.remove(directory);
+	}
+
+	/**
+	 * Returns whether or not the specified file name ends with the JSON
+	 * extension, ignoring case. No new Strings are created.
+	 * 
+	 * @param name
+	 *            the file name
+	 * @return true if the file name ends with ".json". false otherwise.
+	 */
+	static boolean isJSONFileName(String name) {
+		return name.regionMatches(true, name.length() - 5, ".json", 0, 5);
+	}
+
+}
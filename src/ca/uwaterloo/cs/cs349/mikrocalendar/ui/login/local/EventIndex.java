@@ -0,0 +1,673 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * This class gives lazy access to the events in a local JSON file without
+ * reading the whole file into the heap. Only its header is checked when it
+ * is opened. Events are located by scanning the file as far as needed, and
+ * each event is only decoded into a {@link String} when it is asked for.
+ * <p>
+ * The file is read through a {@link FileChannel}, one page at a time, rather
+ * than memory-mapped. The channel is only open while a method is running, so
+ * the file is never held open or locked between calls and can be replaced by
+ * other programs. A file that has been truncated since it was opened causes
+ * an {@link IOException} instead of a crash.
+ * <p>
+ * The events are the elements of the first array in the file: either the
+ * root array itself, or the first array-valued member of the root object.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class EventIndex {
+
+	/**
+	 * The {@link Charset} that JSON files are encoded in.
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The initial value of the 64-bit FNV-1a hash of each event.
+	 */
+	static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+	/**
+	 * The prime that the 64-bit FNV-1a hash is multiplied by for each byte.
+	 */
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * The number of bytes that are read from the file at a time.
+	 */
+	private static final int PAGE_SIZE = 64 * 1024;
+
+	/**
+	 * The file that is indexed.
+	 */
+	private final File file;
+
+	/**
+	 * The length of the file when it was opened.
+	 */
+	private final int length;
+
+	/**
+	 * The last modified time of the file when it was opened.
+	 */
+	private final long lastModified;
+
+	/**
+	 * The file while a method is running, or null between calls.
+	 */
+	private RandomAccessFile openFile;
+
+	/**
+	 * The number of nested calls that are using {@link #openFile}.
+	 */
+	private int openCount;
+
+	/**
+	 * The most recently read page of the file.
+	 */
+	private final byte[] page = new byte[PAGE_SIZE];
+
+	/**
+	 * The offset in the file of the first byte of {@link #page}.
+	 */
+	private int pageStart;
+
+	/**
+	 * The number of bytes of {@link #page} that have been read.
+	 */
+	private int pageLength;
+
+	/**
+	 * The offset of the start of each located event. Only the first
+	 * {@link #count} elements are used.
+	 */
+	private int[] starts;
+
+	/**
+	 * The offset just past the end of each located event. Only the first
+	 * {@link #count} elements are used.
+	 */
+	private int[] ends;
+
+	/**
+	 * The hash of each located event. Only the first {@link #count} elements
+	 * are used.
+	 */
+	private long[] hashes;
+
+	/**
+	 * The number of events that have been located.
+	 */
+	private int count;
+
+	/**
+	 * The offset at which scanning for the next event continues.
+	 */
+	private int position;
+
+	/**
+	 * true if every event has been located.
+	 */
+	private boolean complete;
+
+	/**
+	 * true if the events were located by reading a snapshot instead of
+	 * scanning the file.
+	 */
+	private boolean fromSnapshot;
+
+	/**
+	 * Creates a new {@link EventIndex}.
+	 * 
+	 * @param file
+	 *            the file that is indexed
+	 * @param length
+	 *            the length of the file when it was opened
+	 * @param lastModified
+	 *            the last modified time of the file when it was opened
+	 */
+	private EventIndex(File file, int length, long lastModified) {
+		this.file = file;
+		this.length = length;
+		this.lastModified = lastModified;
+		starts = new int[256];
+		ends = new int[256];
+		hashes = new long[256];
+	}
+
+	/**
+	 * Opens the specified JSON file and checks its header. No events are
+	 * read. If there is a valid snapshot of the file, the locations of the
+	 * events are read from it instead.
+	 * 
+	 * @param file
+	 *            the JSON file
+	 * @return the {@link EventIndex}
+	 * @throws IOException
+	 *             Thrown if the file cannot be read, or if it does not
+	 *             contain an array of events.
+	 */
+	public static EventIndex open(File file) throws IOException {
+		long lastModified = file.lastModified();
+		long length = file.length();
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("The file is too large to index: " + file);
+		}
+
+		EventIndex index = new EventIndex(file, (int) length, lastModified);
+		synchronized (index) {
+			index.openFile();
+			try {
+				// A valid snapshot means that the file has already been
+				// checked and scanned, so neither needs to be done again.
+				EventIndexSnapshot snapshot = EventIndexSnapshot.read(file, index, lastModified);
+				if (snapshot != null) {
+					index.starts = snapshot.starts;
+					index.ends = snapshot.ends;
+					index.hashes = snapshot.hashes;
+					index.count = snapshot.starts.length;
+					index.complete = true;
+					index.fromSnapshot = true;
+				} else {
+					index.position = index.findEvents();
+				}
+			} finally {
+				index.closeFile();
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the file that is indexed.
+	 * 
+	 * @return the file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns whether or not the file still has the length and last modified
+	 * time that it had when it was opened.
+	 * 
+	 * @return true if the file appears unchanged. false otherwise.
+	 */
+	public boolean isCurrent() {
+		return file.length() == length && file.lastModified() == lastModified;
+	}
+
+	/**
+	 * Returns the number of events in the file. The whole file is scanned the
+	 * first time this is called.
+	 * 
+	 * @return the number of events
+	 * @throws IOException
+	 *             Thrown if the file is not well formed.
+	 */
+	public synchronized int size() throws IOException {
+		openFile();
+		try {
+			while (!complete) {
+				locateNext();
+			}
+			return count;
+		} finally {
+			closeFile();
+		}
+	}
+
+	/**
+	 * Returns whether or not the file has at least the specified number of
+	 * events, scanning no further than needed.
+	 * 
+	 * @param n
+	 *            the number of events
+	 * @return true if there are at least n events. false otherwise.
+	 * @throws IOException
+	 *             Thrown if the file is not well formed.
+	 */
+	public synchronized boolean hasAtLeast(int n) throws IOException {
+		openFile();
+		try {
+			while (count < n && !complete) {
+				locateNext();
+			}
+			return count >= n;
+		} finally {
+			closeFile();
+		}
+	}
+
+	/**
+	 * Returns the JSON text of the event at the specified index. The file is
+	 * scanned only as far as that event.
+	 * 
+	 * @param index
+	 *            the index of the event
+	 * @return the JSON text of the event
+	 * @throws IOException
+	 *             Thrown if the file is not well formed.
+	 * @throws IndexOutOfBoundsException
+	 *             Thrown if there is no event at the index.
+	 */
+	public synchronized String getEvent(int index) throws IOException {
+		if (index < 0 || !hasAtLeast(index + 1)) {
+			throw new IndexOutOfBoundsException("No event at index " + index);
+		}
+
+		byte[] bytes = new byte[ends[index] - starts[index]];
+		openFile();
+		try {
+			readFully(starts[index], bytes, bytes.length);
+		} finally {
+			closeFile();
+		}
+		return new String(bytes, UTF_8);
+	}
+
+	/**
+	 * Returns the 64-bit FNV-1a hash of the bytes of the event at the specified
+	 * index, without decoding it. Two events with different hashes have different JSON text.
+	 * 
+	 * @param index
+	 *            the index of the event
+	 * @return the hash
+	 * @throws IOException
+	 *             Thrown if the file is not well formed.
+	 * @throws IndexOutOfBoundsException
+	 *             Thrown if there is no event at the index.
+	 */
+	public synchronized long getEventHash(int index) throws IOException {
+		if (index < 0 || !hasAtLeast(index + 1)) {
+			throw new IndexOutOfBoundsException("No event at index " + index);
+		}
+
+		return hashes[index];
+	}
+
+	/**
+	 * Returns whether or not the events were located by reading a valid
+	 * snapshot instead of scanning the file.
+	 * 
+	 * @return true if a snapshot was used. false otherwise.
+	 */
+	public synchronized boolean isFromSnapshot() {
+		return fromSnapshot;
+	}
+
+	/**
+	 * Scans the rest of the file and writes a snapshot of the located events
+	 * next to it, so that the next {@link #open(File)} does not have to scan
+	 * the file. Nothing is written if the file has changed since it was
+	 * opened.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the file is not well formed, or if the snapshot
+	 *             cannot be written.
+	 */
+	public synchronized void writeSnapshot() throws IOException {
+		openFile();
+		try {
+			size();
+			if (!isCurrent()) {
+				return;
+			}
+
+			new EventIndexSnapshot(
+					Arrays.copyOf(starts, count),
+					Arrays.copyOf(ends, count),
+					Arrays.copyOf(hashes, count)).write(file, this, lastModified);
+			fromSnapshot = true;
+		} finally {
+			closeFile();
+		}
+	}
+
+	/**
+	 * Returns the length of the file when it was opened.
+	 * 
+	 * @return the length in bytes
+	 */
+	int getLength() {
+		return length;
+	}
+
+	/**
+	 * Continues a 64-bit FNV-1a hash over a range of bytes of the file.
+	 * 
+	 * @param hash
+	 *            the hash so far
+	 * @param start
+	 *            the offset of the first byte to hash
+	 * @param end
+	 *            the offset just past the last byte to hash
+	 * @return the hash
+	 * @throws IOException
+	 *             Thrown if the file cannot be read.
+	 */
+	synchronized long hash(long hash, int start, int end) throws IOException {
+		openFile();
+		try {
+			for (int i = start; i < end; i++) {
+				hash ^= byteAt(i) & 0xff;
+				hash *= FNV_PRIME;
+			}
+			return hash;
+		} finally {
+			closeFile();
+		}
+	}
+
+	/**
+	 * Opens the file for a call, unless an enclosing call already has.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the file cannot be opened.
+	 */
+	private void openFile() throws IOException {
+		if (openCount == 0) {
+			openFile = new RandomAccessFile(file, "r");
+		}
+		openCount++;
+	}
+
+	/**
+	 * Closes the file once the outermost call that opened it is done.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the file cannot be closed.
+	 */
+	private void closeFile() throws IOException {
+		openCount--;
+		if (openCount == 0) {
+			RandomAccessFile closing = openFile;
+			openFile = null;
+			closing.close();
+		}
+	}
+
+	/**
+	 * Reads bytes of the file, starting at the specified offset.
+	 * 
+	 * @param p
+	 *            the offset of the first byte
+	 * @param bytes
+	 *            the array to read the bytes into
+	 * @param n
+	 *            the number of bytes to read
+	 * @throws IOException
+	 *             Thrown if the file cannot be read, or if it has been
+	 *             truncated.
+	 */
+	private void readFully(int p, byte[] bytes, int n) throws IOException {
+		FileChannel channel = openFile.getChannel();
+		ByteBuffer destination = ByteBuffer.wrap(bytes, 0, n);
+		while (destination.hasRemaining()) {
+			if (channel.read(destination, p + destination.position()) < 0) {
+				throw new IOException("The file was truncated: " + file);
+			}
+		}
+	}
+
+	/**
+	 * Returns the byte of the file at the specified offset, reading the page
+	 * that it is on if needed.
+	 * 
+	 * @param p
+	 *            the offset, which must be less than the length of the file
+	 * @return the byte
+	 * @throws IOException
+	 *             Thrown if the file cannot be read, or if it has been
+	 *             truncated.
+	 */
+	private byte byteAt(int p) throws IOException {
+		if (p < pageStart || p >= pageStart + pageLength) {
+			pageStart = p - p % PAGE_SIZE;
+			pageLength = 0;
+			int n = Math.min(PAGE_SIZE, length - pageStart);
+			readFully(pageStart, page, n);
+			pageLength = n;
+		}
+		return page[p - pageStart];
+	}
+
+	/**
+	 * Finds the start of the array of events.
+	 * 
+	 * @return the offset just past the opening bracket of the array
+	 * @throws IOException
+	 *             Thrown if the file does not contain an array of events.
+	 */
+	private int findEvents() throws IOException {
+		int p = skipWhitespace(skipByteOrderMark(0));
+		if (p < length && byteAt(p) == '[') {
+			return p + 1;
+		}
+
+		if (p >= length || byteAt(p) != '{') {
+			throw new IOException("The file is not a JSON object or array: " + file);
+		}
+
+		// Look for the first array-valued member of the root object.
+		p = skipWhitespace(p + 1);
+		while (p < length && byteAt(p) != '}') {
+			p = skipWhitespace(skipString(p));
+			p = skipWhitespace(expect(p, ':') + 1);
+			if (p < length && byteAt(p) == '[') {
+				return p + 1;
+			}
+			p = skipWhitespace(skipValue(p));
+			if (p < length && byteAt(p) == ',') {
+				p = skipWhitespace(p + 1);
+			}
+		}
+
+		throw new IOException("The file does not contain any events: " + file);
+	}
+
+	/**
+	 * Locates the next event, or marks the index as complete if there are no
+	 * more events.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the file is not well formed.
+	 */
+	private void locateNext() throws IOException {
+		int p = skipWhitespace(position);
+		if (p < length && byteAt(p) == ']') {
+			complete = true;
+			return;
+		}
+
+		int end = skipValue(p);
+		if (count == starts.length) {
+			starts = Arrays.copyOf(starts, count * 2);
+			ends = Arrays.copyOf(ends, count * 2);
+			hashes = Arrays.copyOf(hashes, count * 2);
+		}
+		starts[count] = p;
+		ends[count] = end;
+		hashes[count] = hash(FNV_OFFSET_BASIS, p, end);
+		count++;
+
+		p = skipWhitespace(end);
+		if (p < length && byteAt(p) == ',') {
+			position = p + 1;
+		} else {
+			expect(p, ']');
+			position = p;
+		}
+	}
+
+	/**
+	 * Skips a JSON value of any type.
+	 * 
+	 * @param p
+	 *            the offset of the value
+	 * @return the offset just past the value
+	 * @throws IOException
+	 *             Thrown if the value is not well formed.
+	 */
+	private int skipValue(int p) throws IOException {
+		if (p >= length) {
+			throw new IOException("Unexpected end of file: " + file);
+		}
+
+		byte b = byteAt(p);
+		if (b == '"') {
+			return skipString(p);
+		}
+
+		if (b == '{' || b == '[') {
+			int depth = 0;
+			while (p < length) {
+				b = byteAt(p);
+				if (b == '"') {
+					p = skipString(p);
+					continue;
+				} else if (b == '{' || b == '[') {
+					depth++;
+				} else if (b == '}' || b == ']') {
+					depth--;
+					if (depth == 0) {
+						return p + 1;
+					}
+				}
+				p++;
+			}
+			throw new IOException("Unexpected end of file: " + file);
+		}
+
+		// A number, true, false, or null.
+		int start = p;
+		while (p < length) {
+			b = byteAt(p);
+			if (b == ',' || b == ']' || b == '}' || isWhitespace(b)) {
+				break;
+			}
+			p++;
+		}
+		if (p == start) {
+			throw new IOException("Unexpected '" + (char) b + "' at offset " + p + ": " + file);
+		}
+		return p;
+	}
+
+	/**
+	 * Skips a JSON string.
+	 * 
+	 * @param p
+	 *            the offset of the opening quote
+	 * @return the offset just past the closing quote
+	 * @throws IOException
+	 *             Thrown if the string is not well formed.
+	 */
+	private int skipString(int p) throws IOException {
+		expect(p, '"');
+		for (p++; p < length; p++) {
+			byte b = byteAt(p);
+			if (b == '\\') {
+				p++;
+			} else if (b == '"') {
+				return p + 1;
+			}
+		}
+		throw new IOException("Unexpected end of file: " + file);
+	}
+
+	/**
+	 * Checks that the byte at the specified offset is the expected character.
+	 * 
+	 * @param p
+	 *            the offset
+	 * @param expected
+	 *            the expected character
+	 * @return the offset
+	 * @throws IOException
+	 *             Thrown if the byte is not the expected character.
+	 */
+	private int expect(int p, char expected) throws IOException {
+		if (p >= length || byteAt(p) != expected) {
+			throw new IOException("Expected '" + expected + "' at offset " + p + ": " + file);
+		}
+		return p;
+	}
+
+	/**
+	 * Skips a UTF-8 byte order mark, if there is one.
+	 * 
+	 * @param p
+	 *            the offset
+	 * @return the offset just past the byte order mark
+	 * @throws IOException
+	 *             Thrown if the file cannot be read.
+	 */
+	private int skipByteOrderMark(int p) throws IOException {
+		if (length >= p + 3
+				&& (byteAt(p) & 0xff) == 0xef
+				&& (byteAt(p + 1) & 0xff) == 0xbb
+				&& (byteAt(p + 2) & 0xff) == 0xbf) {
+			return p + 3;
+		}
+		return p;
+	}
+
+	/**
+	 * Skips whitespace.
+	 * 
+	 * @param p
+	 *            the offset
+	 * @return the offset of the next byte that is not whitespace
+	 * @throws IOException
+	 *             Thrown if the file cannot be read.
+	 */
+	private int skipWhitespace(int p) throws IOException {
+		while (p < length && isWhitespace(byteAt(p))) {
+			p++;
+		}
+		return p;
+	}
+
+	/**
+	 * Returns whether or not the specified byte is JSON whitespace.
+	 * 
+	 * @param b
+	 *            the byte
+	 * @return true if the byte is whitespace. false otherwise.
+	 */
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+	}
+
+}
@@ -0,0 +1,306 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.local;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * This class reads and writes the compact binary snapshot that is kept next
+ * to a local JSON file. The snapshot holds the location and hash of every
+ * event in the JSON file, so that an {@link EventIndex} can be opened
+ * without scanning the JSON text again. A snapshot is only used if the
+ * length and last modified time of the JSON file still match the ones it was
+ * written for, and so does a hash of its first and last blocks and of blocks
+ * spread evenly between them. The bytes of a sample of the events are also
+ * hashed again and checked against the snapshot, so that an edit that keeps
+ * the length and the last modified time but moves events is very unlikely
+ * to leave stale offsets behind. Only a few blocks and events are read, so
+ * checking a snapshot takes about the same time whatever the size of the
+ * file.
+ * <p>
+ * The snapshot of <code>calendar.json</code> is stored in
+ * <code>.calendar.json.idx</code> in the same directory.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+class EventIndexSnapshot {
+
+	/**
+	 * The first bytes of every snapshot file.
+	 */
+	private static final int MAGIC = 0x4d494b58;
+
+	/**
+	 * The version of the snapshot format. Version 1 hashed samples of the
+	 * JSON file without checking any events, and version 2 hashed the whole
+	 * file.
+	 */
+	private static final int VERSION = 3;
+
+	/**
+	 * The number of bytes in each block of the JSON file that is hashed.
+	 */
+	private static final int BLOCK_SIZE = 4 * 1024;
+
+	/**
+	 * The number of blocks of the JSON file that are hashed.
+	 */
+	private static final int BLOCKS = 16;
+
+	/**
+	 * The number of events whose bytes are checked against the snapshot.
+	 */
+	private static final int CHECKED_EVENTS = 64;
+
+	/**
+	 * The number of bytes in the snapshot header.
+	 */
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4;
+
+	/**
+	 * The offset of the start of each event.
+	 */
+	final int[] starts;
+
+	/**
+	 * The offset just past the end of each event.
+	 */
+	final int[] ends;
+
+	/**
+	 * The hash of each event.
+	 */
+	final long[] hashes;
+
+	/**
+	 * Creates a new {@link EventIndexSnapshot}.
+	 * 
+	 * @param starts
+	 *            the offset of the start of each event
+	 * @param ends
+	 *            the offset just past the end of each event
+	 * @param hashes
+	 *            the hash of each event
+	 */
+	EventIndexSnapshot(int[] starts, int[] ends, long[] hashes) {
+		this.starts = starts;
+		this.ends = ends;
+		this.hashes = hashes;
+	}
+
+	/**
+	 * Returns the snapshot file of the specified JSON file.
+	 * 
+	 * @param file
+	 *            the JSON file
+	 * @return the snapshot file
+	 */
+	static File getSnapshotFile(File file) {
+		return new File(file.getAbsoluteFile().getParentFile(), "." + file.getName() + ".idx");
+	}
+
+	/**
+	 * Reads the snapshot of a JSON file, if there is one and it still matches
+	 * the JSON file.
+	 * 
+	 * @param file
+	 *            the JSON file
+	 * @param contents
+	 *            the {@link EventIndex} that reads the JSON file
+	 * @param lastModified
+	 *            the last modified time of the JSON file
+	 * @return the {@link EventIndexSnapshot}, or null if there is no valid
+	 *         snapshot
+	 */
+	static EventIndexSnapshot read(File file, EventIndex contents, long lastModified) {
+		File snapshotFile = getSnapshotFile(file);
+		if (!snapshotFile.isFile() || snapshotFile.length() < HEADER_SIZE) {
+			return null;
+		}
+
+		try {
+			DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(snapshotFile), 64 * 1024));
+			try {
+				if (in.readInt() != MAGIC
+						|| in.readInt() != VERSION
+						|| in.readLong() != contents.getLength()
+						|| in.readLong() != lastModified
+						|| in.readLong() != hashContents(contents)) {
+					return null;
+				}
+
+				int count = in.readInt();
+				if (count < 0 || snapshotFile.length() - HEADER_SIZE != count * (4L + 4L + 8L)) {
+					return null;
+				}
+
+				int[] starts = new int[count];
+				int[] ends = new int[count];
+				long[] hashes = new long[count];
+				for (int i = 0; i < count; i++) {
+					starts[i] = in.readInt();
+				}
+				for (int i = 0; i < count; i++) {
+					ends[i] = in.readInt();
+				}
+				for (int i = 0; i < count; i++) {
+					hashes[i] = in.readLong();
+				}
+				if (!checkEvents(contents, starts, ends, hashes)) {
+					return null;
+				}
+				return new EventIndexSnapshot(starts, ends, hashes);
+
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// An unreadable snapshot is ignored and will be rebuilt.
+			return null;
+		}
+	}
+
+	/**
+	 * Writes this snapshot for a JSON file. The snapshot is written to a
+	 * uniquely named temporary file in the same directory first, so a
+	 * partially written snapshot is never read, and concurrent writers do
+	 * not write over each other's temporary files.
+	 * 
+	 * @param file
+	 *            the JSON file
+	 * @param contents
+	 *            the {@link EventIndex} that reads the JSON file
+	 * @param lastModified
+	 *            the last modified time of the JSON file
+	 * @throws IOException
+	 *             Thrown if the snapshot cannot be written.
+	 */
+	void write(File file, EventIndex contents, long lastModified) throws IOException {
+		File snapshotFile = getSnapshotFile(file);
+		File temporaryFile = File.createTempFile(snapshotFile.getName(), ".tmp", snapshotFile.getParentFile());
+
+		DataOutputStream out;
+		try {
+			out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temporaryFile), 64 * 1024));
+		} catch (IOException e) {
+			temporaryFile.delete();
+			throw e;
+		}
+		boolean written = false;
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(contents.getLength());
+			out.writeLong(lastModified);
+			out.writeLong(hashContents(contents));
+			out.writeInt(starts.length);
+			for (int start : starts) {
+				out.writeInt(start);
+			}
+			for (int end : ends) {
+				out.writeInt(end);
+			}
+			for (long hash : hashes) {
+				out.writeLong(hash);
+			}
+			written = true;
+		} finally {
+			out.close();
+			if (!written) {
+				temporaryFile.delete();
+			}
+		}
+
+		if (!temporaryFile.renameTo(snapshotFile)) {
+			// Some platforms cannot rename over an existing file.
+			snapshotFile.delete();
+			if (!temporaryFile.renameTo(snapshotFile)) {
+				temporaryFile.delete();
+				throw new IOException("Could not write snapshot " + snapshotFile);
+			}
+		}
+	}
+
+	/**
+	 * Returns a hash of the first and last blocks of the specified contents
+	 * and of blocks spread evenly between them. Contents that are no larger
+	 * than the blocks together are hashed whole.
+	 * 
+	 * @param contents
+	 *            the {@link EventIndex} that reads the contents
+	 * @return the hash
+	 * @throws IOException
+	 *             Thrown if the contents cannot be read.
+	 */
+	private static long hashContents(EventIndex contents) throws IOException {
+		int length = contents.getLength();
+		if (length <= BLOCKS * BLOCK_SIZE) {
+			return contents.hash(EventIndex.FNV_OFFSET_BASIS, 0, length);
+		}
+
+		long hash = EventIndex.FNV_OFFSET_BASIS;
+		for (int i = 0; i < BLOCKS; i++) {
+			int start = (int) ((long) (length - BLOCK_SIZE) * i / (BLOCKS - 1));
+			hash = contents.hash(hash, start, start + BLOCK_SIZE);
+		}
+		return hash;
+	}
+
+	/**
+	 * Checks that the bytes of a sample of the events, spread evenly through
+	 * the snapshot, still have the hashes that the snapshot holds for them.
+	 * 
+	 * @param contents
+	 *            the {@link EventIndex} that reads the contents
+	 * @param starts
+	 *            the offset of the start of each event
+	 * @param ends
+	 *            the offset just past the end of each event
+	 * @param hashes
+	 *            the hash of each event
+	 * @return true if every checked event matches. false otherwise.
+	 * @throws IOException
+	 *             Thrown if the contents cannot be read.
+	 */
+	private static boolean checkEvents(EventIndex contents, int[] starts, int[] ends, long[] hashes) 
+			throws IOException {
+		int count = starts.length;
+		int checked = Math.min(count, CHECKED_EVENTS);
+		for (int j = 0; j < checked; j++) {
+			int i = checked == 1 ? 0 : (int) ((long) (count - 1) * j / (checked - 1));
+			if (starts[i] < 0 || starts[i] >= ends[i] || ends[i] > contents.getLength()
+					|| contents.hash(EventIndex.FNV_OFFSET_BASIS, starts[i], ends[i]) != hashes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
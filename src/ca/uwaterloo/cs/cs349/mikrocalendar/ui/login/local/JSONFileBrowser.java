@@ -0,0 +1,332 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.local;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.Window;
+import java.awt.event.ActionEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import javax.swing.AbstractAction;
+import javax.swing.AbstractListModel;
+import javax.swing.Action;
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.ListSelectionModel;
+
+/**
+ * This {@link JDialog} lets the user browse for a JSON file. Unlike a
+ * {@link javax.swing.JFileChooser}, it never lists a directory on the event
+ * dispatching thread: directories are listed in the background by a
+ * {@link DirectoryLister}, and their entries appear as they are found. Only
+ * subdirectories and JSON files are shown.
+ * <p>
+ * A {@link JSONFileBrowser} is meant to be created once and shown again
+ * whenever a file needs to be chosen.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class JSONFileBrowser extends JDialog {
+
+	/**
+	 * This {@link JLabel} shows the directory that is being browsed.
+	 */
+	private final JLabel directoryLabel;
+
+	/**
+	 * This {@link JLabel} shows the progress of listing the directory.
+	 */
+	private final JLabel statusLabel;
+
+	/**
+	 * This {@link EntryListModel} holds the entries of the directory, sorted
+	 * with directories first.
+	 */
+	private final EntryListModel entryListModel;
+
+	/**
+	 * This {@link JList} shows the entries of the directory.
+	 */
+	private final JList entryList;
+
+	/**
+	 * This {@link Action} goes to the parent of the directory.
+	 */
+	private final Action upAction;
+
+	/**
+	 * The directory that is being browsed.
+	 */
+	private File directory;
+
+	/**
+	 * The {@link DirectoryLister} for the directory, or null if listing has
+	 * finished.
+	 */
+	private DirectoryLister lister;
+
+	/**
+	 * The file that was chosen, or null if no file has been chosen.
+	 */
+	private File selectedFile;
+
+	/**
+	 * Creates a new {@link JSONFileBrowser}.
+	 * 
+	 * @param owner
+	 *            the {@link Window} that owns the browser
+	 */
+	public JSONFileBrowser(Window owner) {
+		super(owner, "Open", ModalityType.DOCUMENT_MODAL);
+
+		// Create the directory components.
+		directoryLabel = new JLabel(" ");
+		upAction = new AbstractAction("Up") {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				File parent = directory == null ? null : directory.getParentFile();
+				if (parent != null) {
+					setDirectory(parent);
+				}
+			}
+		};
+
+		// Create the list of entries. Double-clicking an entry opens it.
+		entryListModel = new EntryListModel();
+		entryList = new JList(entryListModel);
+		entryList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		entryList.addMouseListener(new MouseAdapter() {
+
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount() == 2) {
+					openSelectedEntry();
+				}
+			}
+		});
+		final JScrollPane entryScrollPane = new JScrollPane(entryList);
+		entryScrollPane.setPreferredSize(new Dimension(400, 300));
+
+		// Create the Cancel and Open buttons.
+		statusLabel = new JLabel(" ");
+		final JButton cancelButton = new JButton(new AbstractAction("Cancel") {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				selectedFile = null;
+				setVisible(false);
+			}
+		});
+		final JButton openButton = new JButton(new AbstractAction("Open") {
+
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				openSelectedEntry();
+			}
+		});
+
+		// Add directory components to a panel.
+		final JPanel directoryPanel = new JPanel(new BorderLayout(10, 0));
+		directoryPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+		directoryPanel.add(directoryLabel, BorderLayout.CENTER);
+		directoryPanel.add(new JButton(upAction), BorderLayout.LINE_END);
+
+		// Add buttons to a panel.
+		final JPanel buttonPanel = new JPanel();
+		buttonPanel.setLayout(new BoxLayout(buttonPanel, BoxLayout.LINE_AXIS));
+		buttonPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+		buttonPanel.add(statusLabel);
+		buttonPanel.add(Box.createHorizontalGlue());
+		buttonPanel.add(cancelButton);
+		buttonPanel.add(Box.createRigidArea(new Dimension(10, 0)));
+		buttonPanel.add(openButton);
+
+		getContentPane().add(directoryPanel, BorderLayout.PAGE_START);
+		getContentPane().add(entryScrollPane, BorderLayout.CENTER);
+		getContentPane().add(buttonPanel, BorderLayout.PAGE_END);
+		getRootPane().setDefaultButton(openButton);
+		pack();
+	}
+
+	/**
+	 * Shows the browser and waits for the user to choose a JSON file.
+	 * 
+	 * @param start
+	 *            the file or directory to start browsing at, or null to start
+	 *            at the home directory of the user
+	 * @return the chosen JSON file, or null if no file was chosen
+	 */
+	public File showOpenDialog(File start) {
+		File startDirectory = start;
+		if (startDirectory != null && !startDirectory.isDirectory()) {
+			startDirectory = startDirectory.getParentFile();
+		}
+		if (startDirectory == null || !startDirectory.isDirectory()) {
+			startDirectory = new File(System.getProperty("user.home"));
+		}
+
+		selectedFile = null;
+		setDirectory(startDirectory.getAbsoluteFile());
+		setLocationRelativeTo(getOwner());
+		setVisible(true);
+
+		cancelListing();
+		return selectedFile;
+	}
+
+	/**
+	 * Starts browsing the specified directory. The entries of the directory
+	 * are listed in the background.
+	 * 
+	 * @param directory
+	 *            the directory
+	 */
+	private void setDirectory(File directory) {
+		cancelListing();
+
+		this.directory = directory;
+		directoryLabel.setText(directory.getPath());
+		upAction.setEnabled(directory.getParentFile() != null);
+		entryListModel.setEntries(Collections.<DirectoryListingCache.Entry>emptyList());
+		statusLabel.setText("Listing...");
+
+		lister = new DirectoryLister(directory) {
+
+			@Override
+			protected void entriesListed(List<DirectoryListingCache.Entry> entries) {
+				// Ignore listings that have been thrown away.
+				if (lister != this) {
+					return;
+				}
+				// Entries move when a batch is merged in, so the selection
+				// follows the selected entry rather than its index.
+				Object selectedEntry = entryList.getSelectedValue();
+				entryListModel.setEntries(entries);
+				if (selectedEntry != null) {
+					entryList.setSelectedValue(selectedEntry, false);
+				}
+				statusLabel.setText("Listing... " + entryListModel.getSize() + " items");
+			}
+
+			@Override
+			protected void listingFinished(Exception exception) {
+				if (lister != this) {
+					return;
+				}
+				lister = null;
+
+				if (exception != null) {
+					statusLabel.setText("The directory could not be read.");
+				} else {
+					statusLabel.setText(entryListModel.getSize() + " items");
+				}
+			}
+		};
+		lister.execute();
+	}
+
+	/**
+	 * Opens the selected entry. A directory is browsed, and a JSON file is
+	 * chosen.
+	 */
+	private void openSelectedEntry() {
+		DirectoryListingCache.Entry entry = (DirectoryListingCache.Entry) entryList.getSelectedValue();
+		if (entry == null) {
+			return;
+		}
+
+		if (entry.isDirectory()) {
+			setDirectory(entry.getFile());
+		} else {
+			selectedFile = entry.getFile();
+			setVisible(false);
+		}
+	}
+
+	/**
+	 * Stops listing the directory, if it is still being listed.
+	 */
+	private void cancelListing() {
+		if (lister != null) {
+			lister.cancel(true);
+			lister = null;
+		}
+	}
+
+	/**
+	 * This {@link AbstractListModel} shows a sorted List of entries, which is
+	 * replaced as a whole each time more entries have been listed.
+	 */
+	private static class EntryListModel extends AbstractListModel {
+
+		/**
+		 * The sorted entries.
+		 */
+		private List<DirectoryListingCache.Entry> entries = Collections.emptyList();
+
+		/**
+		 * Replaces the entries with the specified sorted entries, firing a
+		 * single event for the entries that were added and a single event
+		 * for the entries that may have moved.
+		 * 
+		 * @param entries
+		 *            the sorted entries, which must not be modified
+		 */
+		void setEntries(List<DirectoryListingCache.Entry> entries) {
+			int oldSize = this.entries.size();
+			this.entries = entries;
+			int newSize = entries.size();
+
+			if (newSize < oldSize) {
+				fireIntervalRemoved(this, newSize, oldSize - 1);
+			} else if (newSize > oldSize) {
+				fireIntervalAdded(this, oldSize, newSize - 1);
+			}
+			if (Math.min(oldSize, newSize) > 0) {
+				fireContentsChanged(this, 0, Math.min(oldSize, newSize) - 1);
+			}
+		}
+
+		@Override
+		public int getSize() {
+			return entries.size();
+		}
+
+		@Override
+		public Object getElementAt(int index) {
+			return entries.get(index);
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.local;
+
+import java.io.File;
+import java.util.List;
+
+import javax.swing.SwingWorker;
+
+/**
+ * This {@link SwingWorker} validates and scans a local JSON file in the
+ * background as soon as it is chosen, so that the work is already done when
+ * the user clicks Login. The number of events found so far is published as
+ * the file is scanned.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public abstract class LocalFilePreloader extends SwingWorker<EventIndex, Integer> {
+
+	/**
+	 * The number of events to scan between progress updates.
+	 */
+	private static final int PROGRESS_INTERVAL = 10000;
+
+	/**
+	 * The file to preload.
+	 */
+	private final File file;
+
+	/**
+	 * Creates a new {@link LocalFilePreloader}.
+	 * 
+	 * @param file
+	 *            the file to preload
+	 */
+	public LocalFilePreloader(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Called on the event dispatching thread with the number of events found
+	 * so far.
+	 * 
+	 * @param eventCount
+	 *            the number of events found so far
+	 */
+	protected abstract void progress(int eventCount);
+
+	/**
+	 * Returns the file that is being preloaded.
+	 * 
+	 * @return the file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	protected EventIndex doInBackground() throws Exception {
+		EventIndex index = EventIndex.open(file);
+
+		// Scan the whole file, publishing the count as it grows. Scanning
+		// also pulls the file into the operating system's cache, so that
+		// parsing it at login is faster.
+		int eventCount = 0;
+		while (index.hasAtLeast(eventCount + PROGRESS_INTERVAL)) {
+			if (isCancelled()) {
+				return null;
+			}
+			eventCount += PROGRESS_INTERVAL;
+			publish(Integer.valueOf(eventCount));
+		}
+
+		return index;
+	}
+
+	@Override
+	protected void process(List<Integer> eventCounts) {
+		progress(eventCounts.get(eventCounts.size() - 1).intValue());
+	}
+
+}
@@ -0,0 +1,404 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.swing.SwingUtilities;
+
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LoginExecutor;
+
+/**
+ * This class watches a local JSON file for changes made by other programs.
+ * When the file changes, it is re-indexed with an {@link EventIndex} and
+ * compared with the previous version event by event, using the hash of each
+ * event. Only the events that were added, removed, or changed are handed to
+ * the {@link Listener}, on the event dispatching thread.
+ * <p>
+ * Events are identified by their position in the file. An unchanged event
+ * that moved is matched by its hash and not reported. Of the events that
+ * remain unmatched, an event in the new version is only reported as a change
+ * of an event in the previous version at the same position; the rest are
+ * reported as added or removed. An edit that also adds or removes events
+ * before an event therefore reports that event as removed and added.
+ * <p>
+ * {@link LocalLoginAction} watches the file of every local login, reloads
+ * its {@link ca.uwaterloo.cs.cs349.mikrocalendar.events.MikroEventManager}
+ * when it changes, and then hands the changes on to its own listener.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class LocalFileWatcher {
+
+	/**
+	 * This interface is notified of changes to the watched file.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called on the event dispatching thread when the events in the file
+		 * have changed.
+		 * 
+		 * @param changes
+		 *            the changes
+		 */
+		void eventsChanged(Changes changes);
+
+		/**
+		 * Called on the event dispatching thread when the changed file could
+		 * not be read.
+		 * 
+		 * @param exception
+		 *            the {@link IOException}
+		 */
+		void watchFailed(IOException exception);
+
+	}
+
+	/**
+	 * This class describes the differences between two versions of the file.
+	 * Indexes of removed events refer to the previous version, and indexes of
+	 * added and changed events refer to the new version.
+	 */
+	public static class Changes {
+
+		/**
+		 * The indexes of the removed events in the previous version.
+		 */
+		private final List<Integer> removed = new ArrayList<Integer>();
+
+		/**
+		 * The JSON text of the added events, keyed by index in the new
+		 * version.
+		 */
+		private final Map<Integer, String> added = new HashMap<Integer, String>();
+
+		/**
+		 * The JSON text of the changed events, keyed by index in the new
+		 * version.
+		 */
+		private final Map<Integer, String> changed = new HashMap<Integer, String>();
+
+		/**
+		 * The index in the previous version of each changed event, keyed by
+		 * index in the new version.
+		 */
+		private final Map<Integer, Integer> changedFrom = new HashMap<Integer, Integer>();
+
+		/**
+		 * Returns the indexes of the removed events in the previous version.
+		 * 
+		 * @return the indexes
+		 */
+		public List<Integer> getRemoved() {
+			return Collections.unmodifiableList(removed);
+		}
+
+		/**
+		 * Returns the JSON text of the added events, keyed by index in the new
+		 * version.
+		 * 
+		 * @return the added events
+		 */
+		public Map<Integer, String> getAdded() {
+			return Collections.unmodifiableMap(added);
+		}
+
+		/**
+		 * Returns the JSON text of the changed events, keyed by index in the
+		 * new version.
+		 * 
+		 * @return the changed events
+		 */
+		public Map<Integer, String> getChanged() {
+			return Collections.unmodifiableMap(changed);
+		}
+
+		/**
+		 * Returns the index in the previous version of each changed event,
+		 * keyed by index in the new version.
+		 * 
+		 * @return the previous indexes
+		 */
+		public Map<Integer, Integer> getChangedFrom() {
+			return Collections.unmodifiableMap(changedFrom);
+		}
+
+		/**
+		 * Returns whether or not there are no changes.
+		 * 
+		 * @return true if no events were added, removed, or changed
+		 */
+		public boolean isEmpty() {
+			return removed.isEmpty() && added.isEmpty() && changed.isEmpty();
+		}
+
+	}
+
+	/**
+	 * The number of milliseconds to wait for a burst of file system events to
+	 * settle before re-reading the file.
+	 */
+	private static final long SETTLE_DELAY = 100L;
+
+	/**
+	 * The file that is watched.
+	 */
+	private final File file;
+
+	/**
+	 * The {@link Listener} to notify.
+	 */
+	private final Listener listener;
+
+	/**
+	 * The {@link WatchService}, or null if the watcher is not running.
+	 */
+	private WatchService watchService;
+
+	/**
+	 * Creates a new {@link LocalFileWatcher}.
+	 * 
+	 * @param file
+	 *            the file to watch
+	 * @param listener
+	 *            the {@link Listener} to notify of changes
+	 */
+	public LocalFileWatcher(File file, Listener listener) {
+		if (file == null || listener == null) {
+			throw new IllegalArgumentException("File and listener cannot be null.");
+		}
+
+		this.file = file.getAbsoluteFile();
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts watching the file. The current version of the file is indexed on
+	 * the watcher thread and used as the baseline for the first comparison.
+	 * 
+	 * @throws IOException
+	 *             Thrown if the directory of the file cannot be watched.
+	 */
+	public synchronized void start() throws IOException {
+		if (watchService != null) {
+			return;
+		}
+
+		final WatchService service = FileSystems.getDefault().newWatchService();
+		final Path directory = file.getParentFile().toPath();
+		directory.register(service,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		watchService = service;
+
+		LoginExecutor.createThreadFactory("MikroCalendar-FileWatcher-").newThread(new Runnable() {
+
+			@Override
+			public void run() {
+				watch(service);
+			}
+		}).start();
+	}
+
+	/**
+	 * Stops watching the file.
+	 */
+	public synchronized void stop() {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				// The watcher thread stops either way.
+			}
+			watchService = null;
+		}
+	}
+
+	/**
+	 * Waits for changes to the file and reports them until the
+	 * {@link WatchService} is closed.
+	 * 
+	 * @param service
+	 *            the {@link WatchService}
+	 */
+	private void watch(WatchService service) {
+		EventIndex previous = null;
+		try {
+			previous = EventIndex.open(file);
+			previous.size();
+		} catch (IOException e) {
+			// Every event will be reported as added on the first change.
+			previous = null;
+		}
+
+		try {
+			while (true) {
+				WatchKey key = service.take();
+				boolean fileChanged = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					Object context = event.context();
+					if (context instanceof Path && ((Path) context).toString().equals(file.getName())) {
+						fileChanged = true;
+					}
+				}
+				key.reset();
+
+				if (!fileChanged) {
+					continue;
+				}
+
+				// Let a burst of writes settle, then ignore the events it
+				// caused.
+				Thread.sleep(SETTLE_DELAY);
+				for (WatchKey pending = service.poll(); pending != null; pending = service.poll()) {
+					pending.pollEvents();
+					pending.reset();
+				}
+
+				try {
+					EventIndex current = EventIndex.open(file);
+					final Changes changes = diff(previous, current);
+					previous = current;
+
+					if (!changes.isEmpty()) {
+						SwingUtilities.invokeLater(new Runnable() {
+
+							@Override
+							public void run() {
+								listener.eventsChanged(changes);
+							}
+						});
+					}
+				} catch (final IOException e) {
+					// The file may be half written. The next change will be
+					// compared against the last good version.
+					SwingUtilities.invokeLater(new Runnable() {
+
+						@Override
+						public void run() {
+							listener.watchFailed(e);
+						}
+					});
+				}
+			}
+		} catch (InterruptedException e) {
+			// The watcher has been stopped.
+		} catch (ClosedWatchServiceException e) {
+			// The watcher has been stopped.
+		}
+	}
+
+	/**
+	 * Computes the event-level differences between two versions of the file.
+	 * The previous version is only compared by hash, because its contents may
+	 * no longer be readable.
+	 * 
+	 * @param previous
+	 *            the previous version, or null if there is none
+	 * @param current
+	 *            the new version
+	 * @return the {@link Changes}
+	 * @throws IOException
+	 *             Thrown if the new version is not well formed.
+	 */
+	static Changes diff(EventIndex previous, EventIndex current) throws IOException {
+		Changes changes = new Changes();
+		int previousSize = previous == null ? 0 : previous.size();
+		int currentSize = current.size();
+
+		// Skip the unchanged events at the start and at the end.
+		int prefix = 0;
+		while (prefix < previousSize && prefix < currentSize
+				&& previous.getEventHash(prefix) == current.getEventHash(prefix)) {
+			prefix++;
+		}
+		int suffix = 0;
+		while (suffix < previousSize - prefix && suffix < currentSize - prefix
+				&& previous.getEventHash(previousSize - 1 - suffix) == current.getEventHash(currentSize - 1 - suffix)) {
+			suffix++;
+		}
+
+		// Match events in the changed region that only moved.
+		Map<Long, LinkedList<Integer>> previousByHash = new HashMap<Long, LinkedList<Integer>>();
+		for (int i = prefix; i < previousSize - suffix; i++) {
+			Long hash = Long.valueOf(previous.getEventHash(i));
+			LinkedList<Integer> indexes = previousByHash.get(hash);
+			if (indexes == null) {
+				indexes = new LinkedList<Integer>();
+				previousByHash.put(hash, indexes);
+			}
+			indexes.add(Integer.valueOf(i));
+		}
+
+		List<Integer> unmatchedCurrent = new ArrayList<Integer>();
+		for (int i = prefix; i < currentSize - suffix; i++) {
+			LinkedList<Integer> indexes = previousByHash.get(Long.valueOf(current.getEventHash(i)));
+			if (indexes != null && !indexes.isEmpty()) {
+				indexes.removeFirst();
+			} else {
+				unmatchedCurrent.add(Integer.valueOf(i));
+			}
+		}
+
+		List<Integer> unmatchedPrevious = new ArrayList<Integer>();
+		for (LinkedList<Integer> indexes : previousByHash.values()) {
+			unmatchedPrevious.addAll(indexes);
+		}
+		Collections.sort(unmatchedPrevious);
+
+		// An event is only a change of the event that was at the same
+		// position. The rest were added or removed.
+		Set<Integer> unpairedPrevious = new HashSet<Integer>(unmatchedPrevious);
+		for (Integer index : unmatchedCurrent) {
+			if (unpairedPrevious.remove(index)) {
+				changes.changed.put(index, current.getEvent(index.intValue()));
+				changes.changedFrom.put(index, index);
+			} else {
+				changes.added.put(index, current.getEvent(index.intValue()));
+			}
+		}
+		for (Integer index : unmatchedPrevious) {
+			if (unpairedPrevious.contains(index)) {
+				changes.removed.add(index);
+			}
+		}
+
+		return changes;
+	}
+
+}
@@ -19,21 +19,90 @@
 
 package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.local;
 
+import java.io.Closeable;
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
 
 import ca.uwaterloo.cs.cs349.mikrocalendar.events.MikroEventManager;
 import ca.uwaterloo.cs.cs349.mikrocalendar.events.local.LocalEventManager;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.CachingMikroEventManager;
 import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LoginAction;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LoginExecutor;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LoginFailure;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LoginMetrics;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.ReloadableMikroEventManager;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.SessionPool;
 
 /**
  * This {@link LoginAction} logs in to a local event logging system by using a
- * JSON file.
+ * JSON file. Login completes as soon as the file has been indexed, which only
+ * checks that it holds an array of events, and the {@link LocalEventManager}
+ * that reads and checks the whole file, including the username, is created
+ * in the background. Until then, calls to the {@link MikroEventManager} wait
+ * for it, and if it cannot be created, the user is told and can log in
+ * again. A file that cannot be indexed is read in full before login
+ * completes, as it was before indexing. After each login, a binary snapshot
+ * of the event index is kept next to the JSON file so that it does not have
+ * to be scanned again until it changes.
+ * <p>
+ * After login, the file is watched with a {@link LocalFileWatcher}. When
+ * another program changes it, a new {@link LocalEventManager} reads it in
+ * the background and replaces the old one behind the
+ * {@link MikroEventManager} of the session, the cache of the session is
+ * cleared, and then the {@link LocalFileWatcher.Listener} that has been set,
+ * if any, is told which events changed. If the changed file cannot be read,
+ * the old {@link LocalEventManager} is kept. Watching can be turned off by
+ * setting the <code>mikrocalendar.local.watch</code> system property to
+ * false. When the session of the login is closed by the
+ * {@link SessionPool}, the file stops being watched and its index is
+ * released.
  * 
  * @author Terry Yiu
  * 
  */
 public class LocalLoginAction extends LoginAction {
 
+	/**
+	 * The {@link LocalFileWatcher.Listener} to notify of changes to the JSON
+	 * file after the {@link MikroEventManager} has been reloaded, or null.
+	 */
+	private LocalFileWatcher.Listener fileListener;
+	
+	/**
+	 * The {@link LocalFileWatcher} of the JSON file, or null if the file is
+	 * not being watched.
+	 */
+	private LocalFileWatcher fileWatcher;
+	
+	/**
+	 * The JSON file of the login in progress, read from the
+	 * {@link LocalLoginDialog} on the event dispatching thread.
+	 */
+	private volatile File localJSONFile;
+	
+	/**
+	 * The username of the login in progress, read from the
+	 * {@link LocalLoginDialog} on the event dispatching thread.
+	 */
+	private volatile String username;
+	
+	/**
+	 * The {@link EventIndex} of the JSON file of the most recent login,
+	 * or null if the file could not be indexed.
+	 */
+	private volatile EventIndex loginIndex;
+	
+	/**
+	 * The reloadable {@link MikroEventManager} of the most recent login, once
+	 * it has been created.
+	 */
+	private volatile AtomicReference<MikroEventManager> loginManager;
+	
 	/**
 	 * Creates a new {@link LocalLoginAction} with a specified
 	 * {@link LocalLoginDialog}.
@@ -50,10 +119,311 @@ public class LocalLoginAction extends LoginAction {
 		return (LocalLoginDialog) super.getLoginDialog();
 	}
 	
+	@Override
+	protected void prepareLogin() {
+		localJSONFile = new File(getLoginDialog().getAbsolutePath()).getAbsoluteFile();
+		username = getLoginDialog().getUsername();
+	}
+	
 	@Override
 	protected MikroEventManager createMikroEventManager() throws Exception {
-		File localJSONFile = new File(getLoginDialog().getAbsolutePath());
-		return new LocalEventManager(getLoginDialog().getUsername(), localJSONFile);
+		File localJSONFile = this.localJSONFile;
+		
+		// Reuse the index of the file if it was preloaded.
+		EventIndex index = getLoginDialog().getPreloadedIndex();
+		if (index != null && !index.getFile().getAbsoluteFile().equals(localJSONFile)) {
+			index = null;
+		}
+		
+		if (index == null) {
+			try {
+				index = EventIndex.open(localJSONFile);
+			} catch (IOException e) {
+				// The LocalEventManager decides whether the file is valid.
+			}
+		}
+		loginIndex = index;
+		updateSnapshot(index);
+		
+		// The LocalEventManager reads and checks the whole file. Once the
+		// file is known to hold events, that happens after login. It can be
+		// replaced when the file changes.
+		final String username = this.username;
+		final File file = localJSONFile;
+		final AtomicReference<MikroEventManager> reloadable = new AtomicReference<MikroEventManager>();
+		loginManager = reloadable;
+		Callable<MikroEventManager> creation = new Callable<MikroEventManager>() {
+			
+			@Override
+			public MikroEventManager call() throws Exception {
+				long startTime = System.nanoTime();
+				MikroEventManager localEventManager = new LocalEventManager(username, file);
+				LoginMetrics.record(LocalLoginBackend.NAME, file.getName(), "parse", System.nanoTime() - startTime);
+				reloadable.set(ReloadableMikroEventManager.create(localEventManager));
+				return reloadable.get();
+			}
+		};
+		MikroEventManager mikroEventManager = index != null 
+				? createInBackground(creation) : creation.call();
+		
+		// Files that share a name are told apart by their path.
+		String location;
+		try {
+			location = localJSONFile.getCanonicalPath();
+		} catch (IOException e) {
+			location = localJSONFile.getAbsolutePath();
+		}
+		setServiceLocation(mikroEventManager, location);
+		return mikroEventManager;
+	}
+	
+	/**
+	 * Rebuilds the snapshot of the JSON file in the background if it is
+	 * missing or stale, so that the next login can skip scanning the file.
+	 * 
+	 * @param index
+	 *            the {@link EventIndex} of the file, or null if it could
+	 *            not be opened
+	 */
+	private static void updateSnapshot(final EventIndex index) {
+		if (index == null || index.isFromSnapshot()) {
+			return;
+		}
+		
+		LoginExecutor.getFanOutExecutor().execute(new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					index.writeSnapshot();
+				} catch (IOException e) {
+					// The snapshot is only an optimization.
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Sets the {@link LocalFileWatcher.Listener} to notify of changes that
+	 * other programs make to the JSON file after login, once the
+	 * {@link MikroEventManager} has been reloaded with them.
+	 * 
+	 * @param fileListener
+	 *            the {@link LocalFileWatcher.Listener}, or null
+	 */
+	public void setFileListener(LocalFileWatcher.Listener fileListener) {
+		this.fileListener = fileListener;
+	}
+	
+	/**
+	 * Returns the {@link LocalFileWatcher} of the JSON file that was logged in
+	 * with, so that it can be stopped when the calendar is closed.
+	 * 
+	 * @return the {@link LocalFileWatcher}, or null if the file is not being
+	 *         watched
+	 */
+	public LocalFileWatcher getFileWatcher() {
+		return fileWatcher;
+	}
+	
+	@Override
+	protected void loggedIn(MikroEventManager mikroEventManager) {
+		// Remember the file so that it can be chosen again next time, along
+		// with its number of events if the index has counted them.
+		final File localJSONFile = this.localJSONFile;
+		final EventIndex index = loginIndex;
+		LoginExecutor.getFanOutExecutor().execute(new Runnable() {
+			
+			@Override
+			public void run() {
+				int eventCount = -1;
+				if (index != null && index.getFile().getAbsoluteFile().equals(localJSONFile) 
+						&& index.isCurrent()) {
+					try {
+						eventCount = index.size();
+					} catch (IOException e) {
+						// The count is left unknown.
+					}
+				}
+				RecentCalendars.getInstance().add(localJSONFile, eventCount);
+			}
+		});
+		
+		if (Boolean.parseBoolean(System.getProperty("mikrocalendar.local.watch", "true"))) {
+			if (fileWatcher != null) {
+				fileWatcher.stop();
+			}
+			
+			fileWatcher = new LocalFileWatcher(localJSONFile, 
+					createReloader(mikroEventManager, loginManager, username, localJSONFile));
+			try {
+				fileWatcher.start();
+			} catch (IOException e) {
+				// The calendar still works, it just will not follow changes.
+				fileWatcher = null;
+			}
+		}
+		
+		SessionPool.Session session = SessionPool.getSession(mikroEventManager);
+		if (session != null) {
+			session.addCloseHook(createCloseHook(fileWatcher, index));
+		}
+	}
+	
+	/**
+	 * Creates the {@link LocalFileWatcher.Listener} that reloads the
+	 * {@link MikroEventManager} of a login when its JSON file changes, clears
+	 * the cache of its session, and then tells the
+	 * {@link LocalFileWatcher.Listener} that has been set. Only the most
+	 * recent change is applied if several are being read at once.
+	 * 
+	 * @param session
+	 *            the {@link MikroEventManager} of the session
+	 * @param reloadable
+	 *            the reloadable {@link MikroEventManager} of the login, once
+	 *            it has been created
+	 * @param username
+	 *            the username of the login
+	 * @param file
+	 *            the JSON file
+	 * @return the {@link LocalFileWatcher.Listener}
+	 */
+	private LocalFileWatcher.Listener createReloader(final MikroEventManager session, 
+			final AtomicReference<MikroEventManager> reloadable, final String username, final File file) {
+		final AtomicLong latestChange = new AtomicLong();
+		return new LocalFileWatcher.Listener() {
+			
+			@Override
+			public void eventsChanged(final LocalFileWatcher.Changes changes) {
+				final long change = latestChange.incrementAndGet();
+				LoginExecutor.getFanOutExecutor().execute(new Runnable() {
+					
+					@Override
+					public void run() {
+						// Until the first LocalEventManager has been created,
+						// it reads the changed file itself.
+						MikroEventManager target = reloadable.get();
+						if (target != null) {
+							MikroEventManager reloaded;
+							try {
+								reloaded = new LocalEventManager(username, file);
+							} catch (Exception e) {
+								fileChangeFailed(e instanceof IOException ? (IOException) e : new IOException(e));
+								return;
+							}
+							
+							synchronized (latestChange) {
+								if (change != latestChange.get()
+										|| !ReloadableMikroEventManager.reload(target, reloaded)) {
+									return;
+								}
+								CachingMikroEventManager.invalidate(session);
+							}
+						}
+						
+						SwingUtilities.invokeLater(new Runnable() {
+							
+							@Override
+							public void run() {
+								if (fileListener != null) {
+									fileListener.eventsChanged(changes);
+								}
+							}
+						});
+					}
+				});
+			}
+			
+			@Override
+			public void watchFailed(IOException exception) {
+				fileChangeFailed(exception);
+			}
+		};
+	}
+	
+	/**
+	 * Tells the {@link LocalFileWatcher.Listener} that has been set, if any,
+	 * that the changed JSON file could not be read. This method may be called
+	 * on any thread.
+	 * 
+	 * @param exception
+	 *            the {@link IOException}
+	 */
+	private void fileChangeFailed(final IOException exception) {
+		SwingUtilities.invokeLater(new Runnable() {
+			
+			@Override
+			public void run() {
+				if (fileListener != null) {
+					fileListener.watchFailed(exception);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Creates the hook that stops watching the JSON file and releases its
+	 * index once the session of a login has been closed, unless a later login
+	 * has replaced them.
+	 * 
+	 * @param watcher
+	 *            the {@link LocalFileWatcher} of the login, or null
+	 * @param index
+	 *            the {@link EventIndex} of the login, or null
+	 * @return the hook
+	 */
+	private Closeable createCloseHook(final LocalFileWatcher watcher, final EventIndex index) {
+		return new Closeable() {
+			
+			@Override
+			public void close() {
+				// The watcher is only used on the event dispatching thread.
+				SwingUtilities.invokeLater(new Runnable() {
+					
+					@Override
+					public void run() {
+						if (watcher != null && fileWatcher == watcher) {
+							fileWatcher.stop();
+							fileWatcher = null;
+						}
+						if (index != null && loginIndex == index) {
+							loginIndex = null;
+						}
+					}
+				});
+			}
+		};
+	}
+	
+	@Override
+	protected long estimateSessionSize() {
+		// A parsed JSON file takes up several times its size on the heap.
+		return Math.max(DEFAULT_SESSION_SIZE, 4L * localJSONFile.length());
+	}
+	
+	@Override
+	protected String getBackendName() {
+		return "local";
+	}
+	
+	@Override
+	protected String getServiceName() {
+		return new File(getLoginDialog().getAbsolutePath()).getName();
+	}
+	
+	@Override
+	protected String getFailureMessage(Exception exception) {
+		// Local logins do not go over the network, so any I/O problem is a
+		// problem with the JSON file.
+		switch (LoginFailure.classify(exception)) {
+		case NETWORK:
+		case TIMEOUT:
+			return "The file could not be read.";
+		case CANCELLED:
+			return LoginFailure.CANCELLED.getMessage();
+		default:
+			return "Your username or file is invalid.";
+		}
 	}
 
 }
@@ -21,38 +21,114 @@ package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.local;
 
 import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
 
 import javax.swing.AbstractAction;
 import javax.swing.JButton;
-import javax.swing.JFileChooser;
+import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
-import javax.swing.filechooser.FileFilter;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 import ca.uwaterloo.cs.cs349.mikrocalendar.ui.SpringUtilities;
 import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LoginDialog;
 
 /**
  * This {@link LoginDialog} provides a form for the user to login to a local
- * event logging service (specifically, to a JSON file).
+ * event logging service (specifically, to a JSON file). The JSON file is
+ * checked and scanned in the background as soon as it is chosen, so that
+ * logging in does not have to wait for it. Recently used JSON files can be
+ * chosen from a list.
  * 
  * @author Terry Yiu
  * 
  */
 public class LocalLoginDialog extends LoginDialog {
 
+	/**
+	 * The number of milliseconds to wait after the path stops changing before
+	 * the JSON file is preloaded.
+	 */
+	private static final int PRELOAD_DELAY = 250;
+
 	/**
 	 * This {@link JTextField} holds the absolute path to the JSON file.
 	 */
 	private final JTextField fileTextField;
 
 	/**
-	 * This {@link JButton} triggers a {@link JFileChooser} to display, which is
-	 * subsequently used to select a JSON file to login to.
+	 * This {@link JButton} triggers a {@link JSONFileBrowser} to display, which
+	 * is subsequently used to select a JSON file to login to.
 	 */
 	private final JButton fileButton;
+
+	/**
+	 * The {@link JSONFileBrowser} used to select a JSON file, or null if it
+	 * has not been needed yet.
+	 */
+	private JSONFileBrowser fileBrowser;
+
+	/**
+	 * This {@link JComboBox} lists the recently used JSON files. Choosing one
+	 * fills in its path.
+	 */
+	private final JComboBox recentComboBox;
+
+	/**
+	 * Whether or not the recently used JSON files are being added to the
+	 * {@link JComboBox}, in which case selection changes are not choices made
+	 * by the user.
+	 */
+	private boolean updatingRecent;
+
+	/**
+	 * This {@link JLabel} shows the progress of preloading the JSON file, and
+	 * the number of events it contains.
+	 */
+	private final JLabel preloadLabel;
+
+	/**
+	 * This {@link Timer} starts preloading the JSON file once the path has
+	 * stopped changing.
+	 */
+	private final Timer preloadTimer;
+
+	/**
+	 * The {@link LocalFilePreloader} for the current path, or null if there is
+	 * none. This field is only accessed on the event dispatching thread.
+	 */
+	private LocalFilePreloader preloader;
+
+	/**
+	 * The {@link EventIndex} produced by preloading the current path, or
+	 * null if preloading has not finished.
+	 * 
+	 * @see #getPreloadedIndex()
+	 */
+	private volatile EventIndex preloadedIndex;
+	
+	/**
+	 * Creates a new {@link LocalLoginDialog} with a {@link LocalLoginAction}.
+	 * 
+	 * @return the {@link LoginDialog}
+	 * @see LocalLoginBackend
+	 */
+	public static LoginDialog create() {
+		LocalLoginDialog localLoginDialog = new LocalLoginDialog();
+		LocalLoginAction localLoginAction = new LocalLoginAction(localLoginDialog);
+		localLoginDialog.setLoginAction(localLoginAction);
+		localLoginDialog.setCancelAction(localLoginAction.getCancelAction());
+		return localLoginDialog;
+	}
 	
 	/**
 	 * Creates a new {@link LocalLoginDialog}.
@@ -67,38 +143,65 @@ public class LocalLoginDialog extends LoginDialog {
 			
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				// Bring up file chooser to choose the JSON file.
-				final JFileChooser fileChooser = new JFileChooser(fileTextField.getText());
-				
-				// Filter only for directories or JSON files.
-				fileChooser.setFileFilter(new FileFilter() {
-					
-					@Override
-					public String getDescription() {
-						return "JSON - JavaScript Object Notation";
-					}
-					
-					@Override
-					public boolean accept(File f) {
-						if (f.isFile()) {
-							String filename = f.getName();
-							int index = filename.lastIndexOf('.');
-							return index != -1 && filename.substring(index + 1).equalsIgnoreCase("json");
-						} else {
-							return true;
-						}
-					}
-				});
-				fileChooser.setAcceptAllFileFilterUsed(false);
+				// Bring up the file browser to choose the JSON file. It is
+				// created once and reused, along with its directory listings.
+				if (fileBrowser == null) {
+					fileBrowser = new JSONFileBrowser(LocalLoginDialog.this);
+				}
 				
-				// Prompt user to select a file.
-				int result = fileChooser.showOpenDialog(LocalLoginDialog.this);
-				if (result == JFileChooser.APPROVE_OPTION) {
-					fileTextField.setText(fileChooser.getSelectedFile().getAbsolutePath());
+				String path = fileTextField.getText();
+				File file = fileBrowser.showOpenDialog(path.length() == 0 ? null : new File(path));
+				if (file != null) {
+					fileTextField.setText(file.getAbsolutePath());
+				}
+			}
+		});
+		
+		// Create the list of recently used JSON files. It is filled in the
+		// background.
+		final JLabel recentLabel = new JLabel("Recent:");
+		recentComboBox = new JComboBox();
+		recentComboBox.setEnabled(false);
+		recentComboBox.addActionListener(new ActionListener() {
+			
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				Object selected = recentComboBox.getSelectedItem();
+				if (!updatingRecent && selected instanceof RecentCalendars.Entry) {
+					fileTextField.setText(((RecentCalendars.Entry) selected).getFile().getAbsolutePath());
 				}
 			}
 		});
 		
+		// Preload the JSON file in the background whenever the path changes.
+		// The timer waits for the user to stop typing.
+		preloadLabel = new JLabel(" ");
+		preloadTimer = new Timer(PRELOAD_DELAY, new ActionListener() {
+			
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				startPreload();
+			}
+		});
+		preloadTimer.setRepeats(false);
+		fileTextField.getDocument().addDocumentListener(new DocumentListener() {
+			
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				pathChanged();
+			}
+			
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				pathChanged();
+			}
+			
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				pathChanged();
+			}
+		});
+		
 		// Add file choosing components to a panel.
 		final JPanel filePanel = new JPanel(new BorderLayout(10, 0));
 		filePanel.add(fileTextField, BorderLayout.CENTER);
@@ -107,14 +210,127 @@ public class LocalLoginDialog extends LoginDialog {
 		// Add file choosing panel to the main form panel.
 		infoPanel.add(fileLabel, 0);
 		infoPanel.add(filePanel, 1);
+		infoPanel.add(recentLabel, 0);
+		infoPanel.add(recentComboBox, 1);
+		
+		infoPanel.add(new JLabel(), -1);
+		infoPanel.add(preloadLabel, -1);
 		
 		// Reposition components for a better look.
-		SpringUtilities.makeCompactGrid(infoPanel, 2, 2, 10, 10, 10, 10);
+		SpringUtilities.makeCompactGrid(infoPanel, 4, 2, 10, 10, 10, 10);
+		
+		loadRecentCalendars();
+		
+		// Stop preloading when the dialog goes away.
+		addWindowListener(new WindowAdapter() {
+			
+			@Override
+			public void windowClosed(WindowEvent e) {
+				preloadTimer.stop();
+				if (preloader != null) {
+					preloader.cancel(true);
+					preloader = null;
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Throws away any preloaded result and restarts the preload timer.
+	 */
+	private void pathChanged() {
+		if (preloader != null) {
+			preloader.cancel(true);
+			preloader = null;
+		}
+		preloadedIndex = null;
+		preloadLabel.setText(" ");
+		preloadTimer.restart();
+	}
+	
+	/**
+	 * Starts preloading the JSON file at the current path.
+	 */
+	private void startPreload() {
+		String path = fileTextField.getText();
+		if (path.length() == 0) {
+			return;
+		}
+		
+		preloadLabel.setText("Checking file...");
+		preloader = new LocalFilePreloader(new File(path)) {
+			
+			@Override
+			protected void progress(int eventCount) {
+				if (preloader == this) {
+					preloadLabel.setText("Checking file... " + eventCount + " events");
+				}
+			}
+			
+			@Override
+			protected void done() {
+				// Ignore preloads that have been thrown away.
+				if (preloader != this) {
+					return;
+				}
+				preloader = null;
+				
+				try {
+					EventIndex index = get();
+					preloadedIndex = index;
+					preloadLabel.setText(index.size() + " events");
+				} catch (Exception e) {
+					preloadLabel.setText("Not a valid calendar file");
+				}
+			}
+		};
+		preloader.execute();
+	}
+	
+	/**
+	 * Fills in the list of recently used JSON files in the background. Each
+	 * file is added as soon as its metadata is known, and files that can no
+	 * longer be read are left out.
+	 */
+	private void loadRecentCalendars() {
+		new SwingWorker<Void, RecentCalendars.Entry>() {
+			
+			@Override
+			protected Void doInBackground() throws Exception {
+				RecentCalendars recentCalendars = RecentCalendars.getInstance();
+				for (File file : recentCalendars.getFiles()) {
+					if (!file.isFile()) {
+						continue;
+					}
+					try {
+						publish(recentCalendars.getEntry(file));
+					} catch (IOException e) {
+						// The file is no longer a valid calendar.
+					}
+				}
+				return null;
+			}
+			
+			@Override
+			protected void process(List<RecentCalendars.Entry> entries) {
+				updatingRecent = true;
+				try {
+					for (RecentCalendars.Entry entry : entries) {
+						recentComboBox.addItem(entry);
+					}
+					recentComboBox.setSelectedIndex(-1);
+				} finally {
+					updatingRecent = false;
+				}
+				recentComboBox.setEnabled(fileTextField.isEnabled());
+			}
+		}.execute();
 	}
 	
 	@Override
 	public void enableComponents(boolean enable) {
 		super.enableComponents(enable);
+		recentComboBox.setEnabled(enable && recentComboBox.getItemCount() > 0);
 		fileTextField.setEnabled(enable);
 		fileButton.setEnabled(enable);
 	}
@@ -128,4 +344,17 @@ public class LocalLoginDialog extends LoginDialog {
 		return fileTextField.getText();
 	}
 	
+	/**
+	 * Returns the {@link EventIndex} of the JSON file at the current
+	 * path, if it has already been preloaded and the file has not changed
+	 * since. This method may be called from any thread.
+	 * 
+	 * @return the {@link EventIndex}, or null if there is no usable
+	 *         preloaded result
+	 */
+	public EventIndex getPreloadedIndex() {
+		EventIndex index = preloadedIndex;
+		return index != null && index.isCurrent() ? index : null;
+	}
+	
 }
@@ -0,0 +1,364 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.local;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * This class remembers the JSON files that were most recently logged in to,
+ * along with the size, last modified time, and number of events of each file.
+ * Both are stored on disk so that they survive restarts. The metadata of a
+ * file is only used while the size and last modified time of the file are
+ * unchanged, so that files do not have to be scanned again to show them.
+ * <p>
+ * The file that the list is stored in and the number of files that are
+ * remembered can be configured with the <code>mikrocalendar.recent.file</code>
+ * and <code>mikrocalendar.recent.size</code> system properties.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class RecentCalendars {
+
+	/**
+	 * This class describes a recently used JSON file.
+	 */
+	public static class Entry {
+
+		/**
+		 * The JSON file.
+		 */
+		private final File file;
+
+		/**
+		 * The size of the file in bytes.
+		 */
+		private final long length;
+
+		/**
+		 * The last modified time of the file.
+		 */
+		private final long lastModified;
+
+		/**
+		 * The number of events in the file.
+		 */
+		private final int eventCount;
+
+		/**
+		 * Creates a new {@link Entry}.
+		 * 
+		 * @param file
+		 *            the JSON file
+		 * @param length
+		 *            the size of the file in bytes
+		 * @param lastModified
+		 *            the last modified time of the file
+		 * @param eventCount
+		 *            the number of events in the file
+		 */
+		Entry(File file, long length, long lastModified, int eventCount) {
+			this.file = file;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.eventCount = eventCount;
+		}
+
+		/**
+		 * Returns the JSON file.
+		 * 
+		 * @return the JSON file
+		 */
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * Returns the size of the file in bytes.
+		 * 
+		 * @return the size
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * Returns the last modified time of the file.
+		 * 
+		 * @return the last modified time
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * Returns the number of events in the file.
+		 * 
+		 * @return the number of events
+		 */
+		public int getEventCount() {
+			return eventCount;
+		}
+
+		@Override
+		public String toString() {
+			return file.getName() + " (" + eventCount + " events, "
+					+ Math.max(1L, (length + 1023L) / 1024L) + " KB, "
+					+ DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT).format(new Date(lastModified))
+					+ ")";
+		}
+
+	}
+
+	/**
+	 * The default number of files that are remembered.
+	 */
+	private static final int DEFAULT_SIZE = 8;
+
+	/**
+	 * The {@link RecentCalendars} shared by all local logins.
+	 * 
+	 * @see #getInstance()
+	 */
+	private static final RecentCalendars instance = new RecentCalendars(
+			new File(System.getProperty("mikrocalendar.recent.file",
+					System.getProperty("user.home") + File.separator
+					+ ".mikrocalendar" + File.separator + "recent.properties")),
+			Integer.getInteger("mikrocalendar.recent.size", DEFAULT_SIZE).intValue());
+
+	/**
+	 * The file that the list is stored in.
+	 */
+	private final File file;
+
+	/**
+	 * The number of files that are remembered.
+	 */
+	private final int size;
+
+	/**
+	 * The list, loaded lazily from the file. The paths of the files are stored
+	 * under <code>file.0</code>, <code>file.1</code>, and so on, from most to
+	 * least recently used. The metadata of each file is stored under
+	 * <code>metadata.</code> followed by the path, as the size, the last
+	 * modified time, and the number of events, separated by colons.
+	 */
+	private Properties properties;
+
+	/**
+	 * Creates a new {@link RecentCalendars} that is stored in the specified
+	 * file.
+	 * 
+	 * @param file
+	 *            the file to store the list in
+	 * @param size
+	 *            the number of files to remember
+	 */
+	public RecentCalendars(File file, int size) {
+		if (file == null) {
+			throw new IllegalArgumentException("File cannot be null.");
+		}
+
+		this.file = file;
+		this.size = size;
+	}
+
+	/**
+	 * Returns the {@link RecentCalendars} shared by all local logins.
+	 * 
+	 * @return the {@link RecentCalendars}
+	 */
+	public static RecentCalendars getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the recently used JSON files, from most to least recently used.
+	 * This method reads the list from disk the first time it is called, so it
+	 * should not be called on the event dispatching thread.
+	 * 
+	 * @return the files
+	 */
+	public synchronized List<File> getFiles() {
+		List<File> files = new ArrayList<File>();
+		for (int i = 0; i < size; i++) {
+			String path = getProperties().getProperty("file." + i);
+			if (path == null) {
+				break;
+			}
+			files.add(new File(path));
+		}
+		return files;
+	}
+
+	/**
+	 * Returns the {@link Entry} of the specified JSON file. The metadata is
+	 * taken from the list if the file has not changed since it was recorded.
+	 * Otherwise, the file is scanned and the list is updated. This method
+	 * should not be called on the event dispatching thread.
+	 * 
+	 * @param file
+	 *            the JSON file
+	 * @return the {@link Entry}
+	 * @throws IOException
+	 *             Thrown if the file cannot be scanned.
+	 */
+	public Entry getEntry(File file) throws IOException {
+		long length = file.length();
+		long lastModified = file.lastModified();
+
+		synchronized (this) {
+			String value = getProperties().getProperty("metadata." + file.getPath());
+			if (value != null) {
+				String[] parts = value.split(":");
+				try {
+					if (parts.length == 3 && Long.parseLong(parts[0]) == length
+							&& Long.parseLong(parts[1]) == lastModified) {
+						return new Entry(file, length, lastModified, Integer.parseInt(parts[2]));
+					}
+				} catch (NumberFormatException e) {
+					// The metadata is recomputed below.
+				}
+			}
+		}
+
+		// Scanning may take a while, so the list is not locked meanwhile.
+		int eventCount = EventIndex.open(file).size();
+		Entry entry = new Entry(file, length, lastModified, eventCount);
+		putEntry(entry);
+		return entry;
+	}
+
+	/**
+	 * Records that the specified JSON file has been used, making it the most
+	 * recently used file. This method writes the list to disk, so it should
+	 * not be called on the event dispatching thread.
+	 * 
+	 * @param file
+	 *            the JSON file
+	 * @param eventCount
+	 *            the number of events in the file, or -1 if it is not known
+	 */
+	public synchronized void add(File file, int eventCount) {
+		List<File> files = getFiles();
+		files.remove(file);
+		files.add(0, file);
+
+		// Forget the metadata of files that have dropped off the list.
+		for (int i = size; i < files.size(); i++) {
+			getProperties().remove("metadata." + files.get(i).getPath());
+		}
+
+		for (int i = 0; i < size; i++) {
+			if (i < files.size()) {
+				getProperties().setProperty("file." + i, files.get(i).getPath());
+			} else {
+				getProperties().remove("file." + i);
+			}
+		}
+
+		if (eventCount >= 0) {
+			setMetadata(new Entry(file, file.length(), file.lastModified(), eventCount));
+		}
+		store();
+	}
+
+	/**
+	 * Records the metadata of a JSON file, if it is still on the list.
+	 * 
+	 * @param entry
+	 *            the {@link Entry}
+	 */
+	private synchronized void putEntry(Entry entry) {
+		if (getFiles().contains(entry.getFile())) {
+			setMetadata(entry);
+			store();
+		}
+	}
+
+	/**
+	 * Sets the metadata of a JSON file without storing it.
+	 * 
+	 * @param entry
+	 *            the {@link Entry}
+	 */
+	private void setMetadata(Entry entry) {
+		getProperties().setProperty("metadata." + entry.getFile().getPath(),
+				entry.getLength() + ":" + entry.getLastModified() + ":" + entry.getEventCount());
+	}
+
+	/**
+	 * Returns the list, loading it from the file if needed.
+	 * 
+	 * @return the list
+	 */
+	private Properties getProperties() {
+		if (properties == null) {
+			properties = new Properties();
+			if (file.isFile()) {
+				try {
+					InputStream in = new FileInputStream(file);
+					try {
+						properties.load(in);
+					} finally {
+						in.close();
+					}
+				} catch (IOException e) {
+					// An unreadable list is treated as an empty one.
+					properties.clear();
+				}
+			}
+		}
+		return properties;
+	}
+
+	/**
+	 * Writes the list to the file. Failures are ignored because the list is
+	 * only a convenience.
+	 */
+	private void store() {
+		try {
+			File parent = file.getParentFile();
+			if (parent != null && !parent.isDirectory()) {
+				parent.mkdirs();
+			}
+
+			OutputStream out = new FileOutputStream(file);
+			try {
+				properties.store(out, "MikroCalendar recent calendars");
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			// The list will start over next time.
+		}
+	}
+
+}
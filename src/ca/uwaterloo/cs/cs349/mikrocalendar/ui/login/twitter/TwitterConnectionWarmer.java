@@ -0,0 +1,184 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.twitter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LoginExecutor;
+
+/**
+ * This class warms up the connection to a {@link TwitterService} while the
+ * user is still typing their credentials. The host name is resolved, and a
+ * request is made to the service and its response fully read without
+ * disconnecting. This leaves the resolved address in the JVM's DNS cache, the
+ * TLS session in the JVM's session cache, and the open socket in the JVM's
+ * HTTP keep-alive cache, all of which are reused by the
+ * {@link ca.uwaterloo.cs.cs349.mikrocalendar.events.twitter.TwitterEventManager}
+ * when it connects to the same URL through {@link URL}. Requests go through
+ * the {@link TwitterTransport} of the service, so they count towards its
+ * per-host limit.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class TwitterConnectionWarmer {
+
+	/**
+	 * The number of milliseconds after warming a URL during which it is not
+	 * warmed again.
+	 */
+	private static final long WARM_INTERVAL = 5000L;
+
+	/**
+	 * The {@link ExecutorService} that warming runs on. A single thread is
+	 * enough because warming is only a head start.
+	 */
+	private static final ExecutorService executor;
+
+	/**
+	 * The time, in milliseconds, at which each URL was last warmed.
+	 */
+	private static final Map<String, Long> lastWarmed = new ConcurrentHashMap<String, Long>();
+
+	static {
+		ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+				1,
+				1,
+				30L,
+				TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				LoginExecutor.createThreadFactory("MikroCalendar-Warmup-"));
+		threadPoolExecutor.allowCoreThreadTimeOut(true);
+		executor = threadPoolExecutor;
+	}
+
+	/**
+	 * Instances of this class cannot be created.
+	 */
+	private TwitterConnectionWarmer() {
+		// No-op.
+	}
+
+	/**
+	 * Warms up the connection to the specified {@link TwitterService} in the
+	 * background, unless it was warmed very recently. This method returns
+	 * right away and may be called on the event dispatching thread.
+	 * 
+	 * @param twitterService
+	 *            the Twitter service, or null to do nothing
+	 */
+	public static void warm(TwitterService twitterService) {
+		if (twitterService == null) {
+			return;
+		}
+
+		final String url = twitterService.getUrl();
+		long now = System.currentTimeMillis();
+		Long last = lastWarmed.get(url);
+		if (last != null && now - last.longValue() < WARM_INTERVAL) {
+			return;
+		}
+		lastWarmed.put(url, Long.valueOf(now));
+
+		executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				connect(url);
+			}
+		});
+	}
+
+	/**
+	 * Resolves the host of the specified URL and makes a request to it,
+	 * leaving the connection open for reuse.
+	 * 
+	 * @param url
+	 *            the URL
+	 * @return the round trip time of the request in milliseconds, or
+	 *         {@link TwitterService#UNREACHABLE_LATENCY} if the server could
+	 *         not be reached
+	 */
+	static long connect(String url) {
+		final TwitterTransport transport = TwitterTransportRegistry.getInstance().getTransport(url);
+		try {
+			return transport.execute(new Callable<Long>() {
+
+				@Override
+				public Long call() throws IOException {
+					long start = System.nanoTime();
+					InetAddress.getAllByName(new URL(transport.getUrl()).getHost());
+
+					URLConnection connection = transport.openConnection();
+					if (connection instanceof HttpURLConnection) {
+						((HttpURLConnection) connection).setRequestMethod("HEAD");
+
+						// Reading the whole response and closing the stream,
+						// rather than disconnecting, returns the socket to the
+						// keep-alive cache.
+						InputStream in = TwitterTransport.getInputStream(connection);
+						if (in != null) {
+							drain(in);
+						}
+					} else {
+						connection.connect();
+					}
+
+					return Long.valueOf((System.nanoTime() - start) / 1000000L);
+				}
+			}).longValue();
+
+		} catch (Exception e) {
+			return TwitterService.UNREACHABLE_LATENCY;
+		}
+	}
+
+	/**
+	 * Reads and closes the specified {@link InputStream}.
+	 * 
+	 * @param in
+	 *            the {@link InputStream}
+	 * @throws IOException
+	 *             Thrown if the stream cannot be read.
+	 */
+	private static void drain(InputStream in) throws IOException {
+		try {
+			byte[] buffer = new byte[1024];
+			while (in.read(buffer) != -1) {
+				// Discard the response.
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+}
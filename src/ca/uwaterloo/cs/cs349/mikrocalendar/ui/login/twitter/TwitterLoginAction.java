@@ -19,26 +19,142 @@
 
 package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.twitter;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+
+import javax.swing.SwingUtilities;
+
 import ca.uwaterloo.cs.cs349.mikrocalendar.events.MikroEventManager;
 import ca.uwaterloo.cs.cs349.mikrocalendar.events.twitter.TwitterEventManager;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.CircuitBreaker;
 import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LoginAction;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LoginExecutor;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LoginFailure;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LoginMetrics;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.MikroEventManagers;
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.RetryPolicy;
 
 /**
- * This {@link LoginAction} logs into a Twitter service.
+ * This {@link LoginAction} logs into a Twitter service. If the user has asked
+ * for the fastest available service, every Twitter service in the
+ * {@link TwitterLoginDialog} is logged into at once and the first one that
+ * succeeds is used.
+ * <p>
+ * Logins that recently succeeded are remembered in the
+ * {@link TwitterSessionCache}. When the same login is made again, a
+ * {@link MikroEventManager} is handed back right away while the login is
+ * re-validated in the background.
  * 
  * @author Terry Yiu
  * 
  */
 public class TwitterLoginAction extends LoginAction {
 
+	/**
+	 * The name of this backend in {@link LoginMetrics}.
+	 */
+	private static final String BACKEND_NAME = "twitter";
+
+	/**
+	 * The {@link TwitterTransportRegistry} that provides the transport to each
+	 * Twitter service.
+	 */
+	private final TwitterTransportRegistry transportRegistry;
+
+	/**
+	 * The values of the {@link TwitterLoginDialog}'s fields when the Login
+	 * button was clicked.
+	 * 
+	 * @see #prepareLogin()
+	 */
+	private volatile LoginInput input;
+
+	/**
+	 * This class holds the values of the {@link TwitterLoginDialog}'s fields,
+	 * read on the event dispatching thread, for the login thread to use.
+	 */
+	private static class LoginInput {
+
+		/**
+		 * true if the fastest available service should be logged into.
+		 */
+		private final boolean fastestServiceSelected;
+
+		/**
+		 * The selected Twitter service.
+		 */
+		private final TwitterService twitterService;
+
+		/**
+		 * Every Twitter service in the dialog.
+		 */
+		private final List<TwitterService> twitterServices;
+
+		/**
+		 * The username.
+		 */
+		private final String username;
+
+		/**
+		 * The password.
+		 */
+		private final String password;
+
+		/**
+		 * Reads the fields of a {@link TwitterLoginDialog}. This constructor
+		 * must be called on the event dispatching thread.
+		 * 
+		 * @param loginDialog
+		 *            the {@link TwitterLoginDialog}
+		 */
+		private LoginInput(TwitterLoginDialog loginDialog) {
+			fastestServiceSelected = loginDialog.isFastestServiceSelected();
+			twitterService = loginDialog.getSelectedTwitterService();
+			twitterServices = new ArrayList<TwitterService>(loginDialog.getTwitterServices());
+			username = loginDialog.getUsername();
+			password = loginDialog.getPassword();
+		}
+
+	}
+
 	/**
 	 * Creates a new {@link TwitterLoginAction} with a specified
-	 * {@link TwitterLoginDialog}.
+	 * {@link TwitterLoginDialog} that uses the shared
+	 * {@link TwitterTransportRegistry}.
 	 * 
 	 * @param twitterLoginDialog the {@link TwitterLoginDialog}
 	 */
 	public TwitterLoginAction(TwitterLoginDialog twitterLoginDialog) {
+		this(twitterLoginDialog, TwitterTransportRegistry.getInstance());
+	}
+
+	/**
+	 * Creates a new {@link TwitterLoginAction} with a specified
+	 * {@link TwitterLoginDialog} and {@link TwitterTransportRegistry}.
+	 * 
+	 * @param twitterLoginDialog the {@link TwitterLoginDialog}
+	 * @param transportRegistry the {@link TwitterTransportRegistry}
+	 */
+	public TwitterLoginAction(TwitterLoginDialog twitterLoginDialog, 
+			TwitterTransportRegistry transportRegistry) {
 		super(twitterLoginDialog);
+		
+		if (transportRegistry == null) {
+			throw new IllegalArgumentException("TwitterTransportRegistry cannot be null.");
+		}
+		
+		this.transportRegistry = transportRegistry;
 	}
 
 	@Override
@@ -46,12 +162,316 @@ public class TwitterLoginAction extends LoginAction {
 		return (TwitterLoginDialog) super.getLoginDialog();
 	}
 	
+	@Override
+	protected void prepareLogin() {
+		input = new LoginInput(getLoginDialog());
+	}
+	
+	@Override
+	protected String getBackendName() {
+		return BACKEND_NAME;
+	}
+	
+	@Override
+	protected String getServiceName() {
+		if (getLoginDialog().isFastestServiceSelected()) {
+			return "fastest";
+		}
+		
+		TwitterService twitterService = getLoginDialog().getSelectedTwitterService();
+		return twitterService == null ? "none" : twitterService.getName();
+	}
+	
 	@Override
 	protected MikroEventManager createMikroEventManager() throws Exception {
-		return new TwitterEventManager(
-				getLoginDialog().getSelectedTwitterService().getUrl(), 
-				getLoginDialog().getUsername(), 
-				getLoginDialog().getPassword());
+		LoginInput loginInput = input;
+		if (loginInput.fastestServiceSelected) {
+			return createFastestMikroEventManager(loginInput);
+		}
+		
+		final TwitterService twitterService = loginInput.twitterService;
+		final String username = loginInput.username;
+		final String password = loginInput.password;
+		
+		// If this login recently succeeded, hand back a MikroEventManager
+		// right away and re-validate the login in the background.
+		if (TwitterSessionCache.getInstance().isValid(twitterService.getUrl(), username, password)) {
+			MikroEventManager mikroEventManager = createInBackground(new Callable<MikroEventManager>() {
+				
+				@Override
+				public MikroEventManager call() throws Exception {
+					return login(twitterService, username, password);
+				}
+			});
+			setServiceLocation(mikroEventManager, twitterService.getUrl());
+			return mikroEventManager;
+		}
+		
+		MikroEventManager mikroEventManager = login(twitterService, username, password);
+		setServiceLocation(mikroEventManager, twitterService.getUrl());
+		return mikroEventManager;
+	}
+	
+	/**
+	 * Creates a {@link TwitterEventManager} and records the result in the
+	 * {@link TwitterSessionCache}. Transient network failures are retried
+	 * according to {@link RetryPolicy#DEFAULT}, and the login fails right away
+	 * if the {@link CircuitBreaker} of the Twitter service is open. The
+	 * {@link TwitterEventManager} is created through the
+	 * {@link TwitterTransport} of the Twitter service, so that it counts
+	 * towards the per-host limit.
+	 * 
+	 * @param twitterService
+	 *            the Twitter service
+	 * @param username
+	 *            the username
+	 * @param password
+	 *            the password
+	 * @return the {@link MikroEventManager}
+	 * @throws Exception
+	 *             Thrown if login fails.
+	 */
+	private MikroEventManager login(final TwitterService twitterService, 
+			final String username, final String password) throws Exception {
+		final TwitterTransport transport = transportRegistry.getTransport(twitterService.getUrl());
+		final Callable<MikroEventManager> login = new Callable<MikroEventManager>() {
+			
+			@Override
+			public MikroEventManager call() throws Exception {
+				resolveHost(twitterService);
+				
+				return transport.execute(new Callable<MikroEventManager>() {
+					
+					@Override
+					public MikroEventManager call() throws Exception {
+						handshake(twitterService, transport);
+						
+						long startTime = System.nanoTime();
+						MikroEventManager mikroEventManager = 
+							new TwitterEventManager(twitterService.getUrl(), username, password);
+						LoginMetrics.record(BACKEND_NAME, twitterService.getName(), "auth", 
+								System.nanoTime() - startTime);
+						return mikroEventManager;
+					}
+				});
+			}
+		};
+		
+		MikroEventManager mikroEventManager;
+		try {
+			mikroEventManager = twitterService.getCircuitBreaker().call(new Callable<MikroEventManager>() {
+				
+				@Override
+				public MikroEventManager call() throws Exception {
+					return RetryPolicy.DEFAULT.call(login);
+				}
+			});
+		} catch (Exception e) {
+			// Only forget the session if the credentials were rejected, not
+			// if the login was cancelled or failed unexpectedly.
+			if (LoginFailure.classify(e) == LoginFailure.AUTHENTICATION) {
+				TwitterSessionCache.getInstance().invalidate(twitterService.getUrl(), username);
+			}
+			throw e;
+		}
+		
+		// Deriving a new password hash is slow, so the session is recorded
+		// after the login has been handed back.
+		LoginExecutor.getFanOutExecutor().execute(new Runnable() {
+			
+			@Override
+			public void run() {
+				TwitterSessionCache.getInstance().put(twitterService.getUrl(), username, password);
+			}
+		});
+		return mikroEventManager;
+	}
+	
+	/**
+	 * Resolves the host name of the Twitter service and records how long it
+	 * took in {@link LoginMetrics}. Resolving the host name before logging in
+	 * lets DNS latency be told apart from the rest of the login, and the
+	 * result is cached for the login that follows. Failures are left for the
+	 * login itself to report.
+	 * 
+	 * @param twitterService
+	 *            the Twitter service
+	 */
+	private static void resolveHost(TwitterService twitterService) {
+		long startTime = System.nanoTime();
+		try {
+			InetAddress.getByName(new URL(twitterService.getUrl()).getHost());
+		} catch (IOException e) {
+			return;
+		}
+		LoginMetrics.record(BACKEND_NAME, twitterService.getName(), "dns", 
+				System.nanoTime() - startTime);
+	}
+	
+	/**
+	 * Completes a TLS handshake with the Twitter service and records how long
+	 * it took in {@link LoginMetrics}, so that TLS latency can be told apart
+	 * from authentication. The login that follows resumes the TLS session.
+	 * Failures are left for the login itself to report.
+	 * 
+	 * @param twitterService
+	 *            the Twitter service
+	 * @param transport
+	 *            the {@link TwitterTransport} of the Twitter service
+	 */
+	private static void handshake(TwitterService twitterService, TwitterTransport transport) {
+		long handshakeTime;
+		try {
+			handshakeTime = transport.handshake();
+		} catch (IOException e) {
+			return;
+		}
+		if (handshakeTime >= 0) {
+			LoginMetrics.record(BACKEND_NAME, twitterService.getName(), "tls", handshakeTime);
+		}
+	}
+	
+	/**
+	 * Logs into every {@link TwitterService} at once and returns the
+	 * {@link MikroEventManager} of the first one that succeeds. The remaining
+	 * logins are cancelled, and the {@link MikroEventManager}s of the ones
+	 * that succeed anyway are closed. The latency of each Twitter service is
+	 * reported back to the {@link TwitterLoginDialog}.
+	 * 
+	 * @param loginInput
+	 *            the values of the dialog's fields
+	 * @return the {@link MikroEventManager}
+	 * @throws Exception
+	 *             Thrown if the login to every Twitter service fails.
+	 */
+	private MikroEventManager createFastestMikroEventManager(LoginInput loginInput) throws Exception {
+		final String username = loginInput.username;
+		final String password = loginInput.password;
+		final List<TwitterService> twitterServices = loginInput.twitterServices;
+		
+		if (twitterServices.isEmpty()) {
+			throw new IllegalStateException("There are no Twitter services to login to.");
+		}
+		
+		final Map<TwitterService, Long> latencies = new HashMap<TwitterService, Long>();
+		final CompletionService<TwitterService> completionService = 
+			new ExecutorCompletionService<TwitterService>(LoginExecutor.getFanOutExecutor());
+		final Map<TwitterService, MikroEventManager> mikroEventManagers = 
+			new HashMap<TwitterService, MikroEventManager>();
+		final List<Future<TwitterService>> futures = new ArrayList<Future<TwitterService>>();
+		
+		// Set once the winner has been chosen. Logins that succeed after that
+		// close their MikroEventManager right away. Guarded by
+		// mikroEventManagers.
+		final boolean[] decided = new boolean[1];
+		
+		TwitterService winner = null;
+		Exception lastException = null;
+		try {
+			for (final TwitterService twitterService : twitterServices) {
+				futures.add(completionService.submit(new Callable<TwitterService>() {
+					
+					@Override
+					public TwitterService call() throws Exception {
+						long start = System.nanoTime();
+						MikroEventManager mikroEventManager;
+						try {
+							mikroEventManager = login(twitterService, username, password);
+						} catch (Exception e) {
+							// A login that was interrupted by being cancelled
+							// never responded, so it has no latency.
+							if (!Thread.currentThread().isInterrupted()) {
+								recordLatency(start);
+							}
+							throw e;
+						}
+						recordLatency(start);
+						
+						synchronized (mikroEventManagers) {
+							if (!decided[0]) {
+								mikroEventManagers.put(twitterService, mikroEventManager);
+								return twitterService;
+							}
+						}
+						
+						// Too late to win.
+						MikroEventManagers.close(mikroEventManager);
+						throw new CancellationException("Another Twitter service was faster.");
+					}
+					
+					/**
+					 * Records how long the Twitter service took to respond.
+					 * 
+					 * @param start
+					 *            the value of {@link System#nanoTime()} when
+					 *            the login started
+					 */
+					private void recordLatency(long start) {
+						synchronized (latencies) {
+							latencies.put(twitterService, 
+									Long.valueOf((System.nanoTime() - start) / 1000000L));
+						}
+					}
+				}));
+			}
+			
+			// Wait for the first Twitter service that succeeds.
+			for (int i = 0; i < futures.size() && winner == null; i++) {
+				try {
+					winner = completionService.take().get();
+				} catch (ExecutionException e) {
+					lastException = e.getCause() instanceof Exception 
+							? (Exception) e.getCause() : e;
+				}
+			}
+			
+		} finally {
+			// Cancel the slower logins, or all of them if this login was
+			// cancelled.
+			for (Future<TwitterService> future : futures) {
+				future.cancel(true);
+			}
+			
+			// Close the logins that finished before they could be cancelled.
+			List<MikroEventManager> losers = new ArrayList<MikroEventManager>();
+			synchronized (mikroEventManagers) {
+				decided[0] = true;
+				for (Map.Entry<TwitterService, MikroEventManager> entry : mikroEventManagers.entrySet()) {
+					if (entry.getKey() != winner) {
+						losers.add(entry.getValue());
+					}
+				}
+			}
+			for (MikroEventManager loser : losers) {
+				MikroEventManagers.close(loser);
+			}
+			
+			final TwitterService reportedWinner = winner;
+			final Map<TwitterService, Long> reportedLatencies;
+			synchronized (latencies) {
+				reportedLatencies = new HashMap<TwitterService, Long>(latencies);
+			}
+			SwingUtilities.invokeLater(new Runnable() {
+				
+				@Override
+				public void run() {
+					getLoginDialog().showServiceLatencies(reportedWinner, reportedLatencies);
+				}
+			});
+		}
+		
+		if (winner == null) {
+			throw lastException;
+		}
+		
+		// Writes are journaled against the service that won, not against
+		// whichever service is fastest next time.
+		MikroEventManager mikroEventManager;
+		synchronized (mikroEventManagers) {
+			mikroEventManager = mikroEventManagers.get(winner);
+		}
+		setServiceLocation(mikroEventManager, winner.getUrl());
+		return mikroEventManager;
 	}
 
 }
@@ -19,10 +19,26 @@
 
 package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.twitter;
 
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.DefaultComboBoxModel;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JPasswordField;
 
+import ca.uwaterloo.cs.cs349.mikrocalendar.events.twitter.TwitterEventManager;
 import ca.uwaterloo.cs.cs349.mikrocalendar.ui.SpringUtilities;
 import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LoginDialog;
 
@@ -48,6 +64,55 @@ public class TwitterLoginDialog extends LoginDialog {
 	 * @see #getPassword()
 	 */
 	private final JPasswordField passwordField;
+
+	/**
+	 * This {@link JCheckBox} is selected if all of the Twitter services should
+	 * be logged into at once, keeping the first one that succeeds.
+	 * 
+	 * @see #isFastestServiceSelected()
+	 */
+	private final JCheckBox fastestServiceCheckBox;
+
+	/**
+	 * This {@link JLabel} shows how long each Twitter service took to respond
+	 * to the last login.
+	 * 
+	 * @see #showServiceLatencies(TwitterService, Map)
+	 */
+	private final JLabel latencyLabel;
+
+	/**
+	 * This {@link TwitterServiceProber} measures the latency of each Twitter
+	 * service while the dialog is open.
+	 */
+	private final TwitterServiceProber twitterServiceProber;
+	
+	/**
+	 * Creates a new {@link TwitterLoginDialog} with a
+	 * {@link TwitterLoginAction} that can login to two predefined Twitter
+	 * services ("Channel W" and "Channel W Test").
+	 * 
+	 * @return the {@link LoginDialog}
+	 * @see TwitterLoginBackend
+	 */
+	public static LoginDialog create() {
+		TwitterLoginDialog twitterLoginDialog = new TwitterLoginDialog();
+		
+		// Share connections to each Twitter service across every login.
+		TwitterLoginAction twitterLoginAction = new TwitterLoginAction(
+				twitterLoginDialog, TwitterTransportRegistry.getInstance());
+		twitterLoginDialog.setLoginAction(twitterLoginAction);
+		twitterLoginDialog.setCancelAction(twitterLoginAction.getCancelAction());
+		
+		// Create and add the two Twitter services.
+		TwitterService productionService = new TwitterService("Channel W", TwitterEventManager.PRODUCTION_SERVICE_URL);
+		TwitterService testingService = new TwitterService("Channel W Test", TwitterEventManager.TESTING_SERVICE_URL);
+		
+		twitterLoginDialog.addTwitterService(productionService);
+		twitterLoginDialog.addTwitterService(testingService);
+		
+		return twitterLoginDialog;
+	}
 	
 	/**
 	 * Creates a new {@link TwitterLoginDialog}.
@@ -61,15 +126,68 @@ public class TwitterLoginDialog extends LoginDialog {
 		
 		serviceComboBox = new JComboBox();
 		passwordField = new JPasswordField();
+		fastestServiceCheckBox = new JCheckBox("Use fastest available service");
+		latencyLabel = new JLabel();
 		
 		// Add the service selection and password field components to the main panel.
 		infoPanel.add(serviceLabel, 0);
 		infoPanel.add(serviceComboBox, 1);
 		infoPanel.add(passwordLabel, -1);
 		infoPanel.add(passwordField, -1);
+		infoPanel.add(new JLabel(), -1);
+		infoPanel.add(fastestServiceCheckBox, -1);
+		infoPanel.add(new JLabel(), -1);
+		infoPanel.add(latencyLabel, -1);
 		
 		// Reposition components for a better look.
-		SpringUtilities.makeCompactGrid(infoPanel, 3, 2, 10, 10, 10, 10);
+		SpringUtilities.makeCompactGrid(infoPanel, 5, 2, 10, 10, 10, 10);
+		
+		// Measure the latency of each Twitter service while the dialog is
+		// open, and order the services by latency after every measurement.
+		twitterServiceProber = new TwitterServiceProber(new Runnable() {
+			
+			@Override
+			public void run() {
+				sortTwitterServices();
+			}
+		});
+		
+		// Warm up the connection to the selected Twitter service while the
+		// user is still typing their credentials.
+		serviceComboBox.addActionListener(new ActionListener() {
+			
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				warmConnections();
+			}
+		});
+		getUsernameTextField().addFocusListener(new FocusAdapter() {
+			
+			@Override
+			public void focusGained(FocusEvent e) {
+				warmConnections();
+			}
+		});
+		fastestServiceCheckBox.addActionListener(new ActionListener() {
+			
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				warmConnections();
+			}
+		});
+		
+		addWindowListener(new WindowAdapter() {
+			
+			@Override
+			public void windowOpened(WindowEvent e) {
+				twitterServiceProber.start();
+			}
+			
+			@Override
+			public void windowClosed(WindowEvent e) {
+				twitterServiceProber.stop();
+			}
+		});
 	}
 	
 	/**
@@ -81,6 +199,63 @@ public class TwitterLoginDialog extends LoginDialog {
 	 */
 	public void addTwitterService(TwitterService twitterService) {
 		serviceComboBox.addItem(twitterService);
+		twitterServiceProber.addTwitterService(twitterService);
+	}
+	
+	/**
+	 * Warms up the connection to the selected Twitter service, or to every
+	 * Twitter service if the fastest available service is going to be used.
+	 */
+	private void warmConnections() {
+		if (fastestServiceCheckBox.isSelected()) {
+			for (TwitterService twitterService : getTwitterServices()) {
+				TwitterConnectionWarmer.warm(twitterService);
+			}
+		} else {
+			TwitterConnectionWarmer.warm(getSelectedTwitterService());
+		}
+	}
+	
+	/**
+	 * Orders the Twitter services in the {@link JComboBox} from lowest to
+	 * highest latency, keeping the selected service selected. Services that
+	 * have not been measured come after the reachable services, and
+	 * unreachable services come last.
+	 */
+	private void sortTwitterServices() {
+		// Do not move services around while the user is choosing one.
+		if (serviceComboBox.isPopupVisible()) {
+			serviceComboBox.repaint();
+			return;
+		}
+		
+		List<TwitterService> twitterServices = getTwitterServices();
+		List<TwitterService> sortedTwitterServices = new ArrayList<TwitterService>(twitterServices);
+		Collections.sort(sortedTwitterServices, new Comparator<TwitterService>() {
+			
+			@Override
+			public int compare(TwitterService o1, TwitterService o2) {
+				long latency1 = getSortLatency(o1);
+				long latency2 = getSortLatency(o2);
+				return latency1 < latency2 ? -1 : (latency1 == latency2 ? 0 : 1);
+			}
+			
+			private long getSortLatency(TwitterService twitterService) {
+				long latency = twitterService.getLatency();
+				return latency == TwitterService.UNKNOWN_LATENCY 
+						? TwitterService.UNREACHABLE_LATENCY - 1 : latency;
+			}
+		});
+		
+		if (!sortedTwitterServices.equals(twitterServices)) {
+			Object selectedTwitterService = serviceComboBox.getSelectedItem();
+			DefaultComboBoxModel model = new DefaultComboBoxModel(sortedTwitterServices.toArray());
+			model.setSelectedItem(selectedTwitterService);
+			serviceComboBox.setModel(model);
+		}
+		
+		// The latency shown next to each service may have changed.
+		serviceComboBox.repaint();
 	}
 	
 	@Override
@@ -88,6 +263,77 @@ public class TwitterLoginDialog extends LoginDialog {
 		super.enableComponents(enable);
 		serviceComboBox.setEnabled(enable);
 		passwordField.setEnabled(enable);
+		fastestServiceCheckBox.setEnabled(enable);
+	}
+	
+	/**
+	 * Returns all of the {@link TwitterService}s that have been added to the
+	 * {@link JComboBox}.
+	 * 
+	 * @return the Twitter services
+	 */
+	public List<TwitterService> getTwitterServices() {
+		List<TwitterService> twitterServices = new ArrayList<TwitterService>();
+		for (int i = 0; i < serviceComboBox.getItemCount(); i++) {
+			twitterServices.add((TwitterService) serviceComboBox.getItemAt(i));
+		}
+		return twitterServices;
+	}
+	
+	/**
+	 * Returns whether or not all of the Twitter services should be logged
+	 * into at once, keeping the first one that succeeds.
+	 * 
+	 * @return true if the fastest available service should be used. false if
+	 *         only the selected service should be used.
+	 */
+	public boolean isFastestServiceSelected() {
+		return fastestServiceCheckBox.isSelected();
+	}
+	
+	/**
+	 * Shows how long each {@link TwitterService} took to respond to a login
+	 * that was made to all of them at once, and selects the one that
+	 * succeeded first. This method must be called on the event dispatching
+	 * thread.
+	 * 
+	 * @param winner
+	 *            the Twitter service that succeeded first, or null if none
+	 *            succeeded
+	 * @param latencies
+	 *            the number of milliseconds that each Twitter service took to
+	 *            respond. Services that were cancelled before responding are
+	 *            not included.
+	 */
+	public void showServiceLatencies(TwitterService winner, Map<TwitterService, Long> latencies) {
+		if (winner != null) {
+			serviceComboBox.setSelectedItem(winner);
+		}
+		
+		StringBuilder text = new StringBuilder();
+		Iterator<TwitterService> iterator = getTwitterServices().iterator();
+		while (iterator.hasNext()) {
+			TwitterService twitterService = iterator.next();
+			Long latency = latencies.get(twitterService);
+			
+			text.append(twitterService.getName()).append(": ");
+			if (latency == null) {
+				text.append("cancelled");
+			} else {
+				text.append(latency).append(" ms");
+				if (twitterService == winner) {
+					text.append(" (used)");
+				}
+			}
+			
+			if (iterator.hasNext()) {
+				text.append(", ");
+			}
+		}
+		latencyLabel.setText(text.toString());
+		
+		// Resize the dialog to fit the latencies.
+		pack();
 	}
 	
 	/**
@@ -19,6 +19,11 @@
 
 package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.twitter;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.CircuitBreaker;
+
 /**
  * This class represents a single Twitter service that can be connected to.
  * 
@@ -26,6 +31,25 @@ package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.twitter;
  */
 public class TwitterService {
 
+	/**
+	 * The latency of a Twitter service that has not been measured yet.
+	 */
+	public static final long UNKNOWN_LATENCY = -1L;
+
+	/**
+	 * The latency of a Twitter service that could not be reached.
+	 */
+	public static final long UNREACHABLE_LATENCY = Long.MAX_VALUE;
+
+	/**
+	 * The {@link CircuitBreaker} of each Twitter service URL. They are shared
+	 * by every {@link TwitterService} with the same URL, so that a service
+	 * that is known to be down stays that way when the login dialog is
+	 * created again.
+	 */
+	private static final ConcurrentMap<String, CircuitBreaker> circuitBreakers = 
+		new ConcurrentHashMap<String, CircuitBreaker>();
+
 	/**
 	 * Name of the Twitter service.
 	 * 
@@ -40,6 +64,14 @@ public class TwitterService {
 	 */
 	private final String url;
 
+	/**
+	 * The most recently measured round trip time to the Twitter service, in
+	 * milliseconds.
+	 * 
+	 * @see #getLatency()
+	 */
+	private volatile long latency;
+
 	/**
 	 * Creates a new {@link TwitterService} with the specified name and URL.
 	 * 
@@ -49,8 +81,13 @@ public class TwitterService {
 	 *            The String representation of the URL to the Twitter service.
 	 */
 	public TwitterService(String name, String url) {
+		if (url == null) {
+			throw new IllegalArgumentException("URL cannot be null.");
+		}
+		
 		this.name = name;
 		this.url = url;
+		latency = UNKNOWN_LATENCY;
 	}
 
 	/**
@@ -71,9 +108,59 @@ public class TwitterService {
 		return url;
 	}
 	
+	/**
+	 * Returns the {@link CircuitBreaker} that stops logins while the Twitter
+	 * service is known to be down. It is shared by every
+	 * {@link TwitterService} with the same URL.
+	 * 
+	 * @return the circuit breaker
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		CircuitBreaker circuitBreaker = circuitBreakers.get(url);
+		if (circuitBreaker == null) {
+			CircuitBreaker newCircuitBreaker = new CircuitBreaker();
+			circuitBreaker = circuitBreakers.putIfAbsent(url, newCircuitBreaker);
+			if (circuitBreaker == null) {
+				circuitBreaker = newCircuitBreaker;
+			}
+		}
+		return circuitBreaker;
+	}
+
+	/**
+	 * Returns the most recently measured round trip time to the Twitter
+	 * service.
+	 * 
+	 * @return the latency in milliseconds, {@link #UNKNOWN_LATENCY} if it has
+	 *         not been measured yet, or {@link #UNREACHABLE_LATENCY} if the
+	 *         Twitter service could not be reached
+	 */
+	public long getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Sets the most recently measured round trip time to the Twitter service.
+	 * 
+	 * @param latency
+	 *            the latency in milliseconds, or {@link #UNREACHABLE_LATENCY}
+	 *            if the Twitter service could not be reached
+	 * @see TwitterServiceProber
+	 */
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+	
 	@Override
 	public String toString() {
-		return name;
+		long latency = this.latency;
+		if (latency == UNKNOWN_LATENCY) {
+			return name;
+		} else if (latency == UNREACHABLE_LATENCY) {
+			return name + " (unreachable)";
+		} else {
+			return name + " (" + latency + " ms)";
+		}
 	}
 	
 }
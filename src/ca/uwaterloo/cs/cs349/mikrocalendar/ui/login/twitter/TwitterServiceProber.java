@@ -0,0 +1,157 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.twitter;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.LoginExecutor;
+
+/**
+ * This class measures the round trip time to each {@link TwitterService} on
+ * a background thread while it is running. After every round of probing, the
+ * latency of each {@link TwitterService} is updated and a listener is run on
+ * the event dispatching thread. Probing itself never runs on the event
+ * dispatching thread.
+ * <p>
+ * The number of milliseconds between rounds can be configured with the
+ * <code>mikrocalendar.probe.interval</code> system property.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class TwitterServiceProber {
+
+	/**
+	 * The default number of milliseconds between rounds of probing.
+	 */
+	private static final long DEFAULT_INTERVAL = 10000L;
+
+	/**
+	 * The {@link TwitterService}s to probe.
+	 */
+	private final List<TwitterService> twitterServices = new CopyOnWriteArrayList<TwitterService>();
+
+	/**
+	 * This {@link Runnable} is run on the event dispatching thread after every
+	 * round of probing.
+	 */
+	private final Runnable listener;
+
+	/**
+	 * The {@link ScheduledExecutorService} that probing runs on, or null if
+	 * the prober is not running.
+	 */
+	private ScheduledExecutorService executor;
+
+	/**
+	 * Creates a new {@link TwitterServiceProber}.
+	 * 
+	 * @param listener
+	 *            the {@link Runnable} to run on the event dispatching thread
+	 *            after every round of probing
+	 */
+	public TwitterServiceProber(Runnable listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("Listener cannot be null.");
+		}
+
+		this.listener = listener;
+	}
+
+	/**
+	 * Adds a {@link TwitterService} to probe.
+	 * 
+	 * @param twitterService
+	 *            the Twitter service
+	 */
+	public void addTwitterService(TwitterService twitterService) {
+		twitterServices.add(twitterService);
+	}
+
+	/**
+	 * Starts probing the Twitter services. Does nothing if the prober is
+	 * already running.
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+
+		executor = Executors.newSingleThreadScheduledExecutor(
+				LoginExecutor.createThreadFactory("MikroCalendar-Probe-"));
+		executor.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				probeAll();
+			}
+		}, 0L, Long.getLong("mikrocalendar.probe.interval", DEFAULT_INTERVAL).longValue(),
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops probing the Twitter services. A probe that is in progress is
+	 * interrupted.
+	 */
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Probes every Twitter service once and notifies the listener.
+	 */
+	private void probeAll() {
+		for (TwitterService twitterService : twitterServices) {
+			if (Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			twitterService.setLatency(probe(twitterService.getUrl()));
+		}
+
+		SwingUtilities.invokeLater(listener);
+	}
+
+	/**
+	 * Measures the round trip time of a single request to the specified URL.
+	 * Any response from the server, including an error status, counts as the
+	 * server being reachable. The connection is left open for reuse by the
+	 * login that follows.
+	 * 
+	 * @param url
+	 *            the URL
+	 * @return the round trip time in milliseconds, or
+	 *         {@link TwitterService#UNREACHABLE_LATENCY} if the server could
+	 *         not be reached
+	 * @see TwitterConnectionWarmer
+	 */
+	public static long probe(String url) {
+		return TwitterConnectionWarmer.connect(url);
+	}
+
+}
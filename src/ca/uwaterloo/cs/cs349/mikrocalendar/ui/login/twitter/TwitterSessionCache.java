@@ -0,0 +1,419 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.twitter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * This class remembers which logins to a {@link TwitterService} have recently
+ * succeeded. Sessions are keyed by the URL of the Twitter service and the
+ * username, and are stored on disk so that they survive restarts. Passwords
+ * are never stored; only a salted PBKDF2 hash with a high iteration count is
+ * kept to check that the same password is being used again, so that the file
+ * is expensive to attack offline. The file is only readable and writable by
+ * its owner.
+ * <p>
+ * Deriving the hash is slow on purpose, so it is done at most once per
+ * login. Once {@link #isValid(String, String, String)} has checked a
+ * password, the {@link #put(String, String, String)} that follows a login
+ * with the same password keeps the stored hash and only extends when it
+ * expires.
+ * <p>
+ * The cache file, the number of milliseconds a session stays valid, and the
+ * number of PBKDF2 iterations can be configured with the
+ * <code>mikrocalendar.session.file</code>,
+ * <code>mikrocalendar.session.expiry</code>, and
+ * <code>mikrocalendar.session.iterations</code> system properties.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class TwitterSessionCache {
+
+	/**
+	 * The default number of milliseconds that a session stays valid.
+	 */
+	private static final long DEFAULT_EXPIRY = 7L * 24L * 60L * 60L * 1000L;
+
+	/**
+	 * The default number of PBKDF2 iterations.
+	 */
+	private static final int DEFAULT_ITERATIONS = 100000;
+
+	/**
+	 * The PBKDF2 algorithm that passwords are hashed with.
+	 */
+	private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+
+	/**
+	 * The length of the password hash, in bits.
+	 */
+	private static final int HASH_LENGTH = 160;
+
+	/**
+	 * The {@link TwitterSessionCache} shared by all Twitter logins.
+	 * 
+	 * @see #getInstance()
+	 */
+	private static final TwitterSessionCache instance = new TwitterSessionCache(
+			new File(System.getProperty("mikrocalendar.session.file",
+					System.getProperty("user.home") + File.separator
+					+ ".mikrocalendar" + File.separator + "sessions.properties")),
+			Long.getLong("mikrocalendar.session.expiry", DEFAULT_EXPIRY).longValue());
+
+	/**
+	 * The file that the sessions are stored in.
+	 */
+	private final File file;
+
+	/**
+	 * The number of milliseconds that a session stays valid.
+	 */
+	private final long expiry;
+
+	/**
+	 * The number of PBKDF2 iterations that new sessions are hashed with.
+	 */
+	private final int iterations = Math.max(1, 
+			Integer.getInteger("mikrocalendar.session.iterations", DEFAULT_ITERATIONS).intValue());
+
+	/**
+	 * The sessions, loaded lazily from the file. Each value holds the expiry
+	 * time, the number of iterations, the salt, and the password hash,
+	 * separated by colons.
+	 */
+	private Properties sessions;
+
+	/**
+	 * A SHA-256 digest of the password of each session whose stored hash has
+	 * been checked against it since it was loaded, so that the stored hash
+	 * can be kept without deriving it again. It is only held in memory.
+	 */
+	private final Map<String, String> verifiedPasswords = new HashMap<String, String>();
+
+	/**
+	 * Creates a new {@link TwitterSessionCache} that stores its sessions in
+	 * the specified file.
+	 * 
+	 * @param file
+	 *            the file to store sessions in
+	 * @param expiry
+	 *            the number of milliseconds that a session stays valid
+	 */
+	public TwitterSessionCache(File file, long expiry) {
+		if (file == null) {
+			throw new IllegalArgumentException("File cannot be null.");
+		}
+
+		this.file = file;
+		this.expiry = expiry;
+	}
+
+	/**
+	 * Returns the {@link TwitterSessionCache} shared by all Twitter logins.
+	 * 
+	 * @return the {@link TwitterSessionCache}
+	 */
+	public static TwitterSessionCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns whether or not there is an unexpired session for the specified
+	 * URL and username that was created with the specified password.
+	 * 
+	 * @param url
+	 *            the URL of the Twitter service
+	 * @param username
+	 *            the username
+	 * @param password
+	 *            the password
+	 * @return true if there is a valid session. false otherwise.
+	 */
+	public synchronized boolean isValid(String url, String username, String password) {
+		String value = getSessions().getProperty(createKey(url, username));
+		if (value == null) {
+			return false;
+		}
+
+		// Sessions in any other format, such as the unsalted digests of
+		// earlier versions, are dropped.
+		String[] parts = value.split(":");
+		int sessionIterations;
+		try {
+			if (parts.length != 4 || Long.parseLong(parts[0]) < System.currentTimeMillis()) {
+				invalidate(url, username);
+				return false;
+			}
+			sessionIterations = Integer.parseInt(parts[1]);
+		} catch (NumberFormatException e) {
+			invalidate(url, username);
+			return false;
+		}
+		if (sessionIterations <= 0) {
+			invalidate(url, username);
+			return false;
+		}
+
+		String key = createKey(url, username);
+		boolean valid = MessageDigest.isEqual(
+				parts[3].getBytes(), 
+				hash(parts[2], sessionIterations, url, username, password).getBytes());
+		if (valid) {
+			verifiedPasswords.put(key, digest(parts[2], password));
+		} else {
+			verifiedPasswords.remove(key);
+		}
+		return valid;
+	}
+
+	/**
+	 * Records a successful login for the specified URL and username. The
+	 * session stays valid until it expires or is invalidated. If the password
+	 * was checked against the stored session by
+	 * {@link #isValid(String, String, String)}, the stored hash is kept and
+	 * only its expiry is extended; otherwise, a new hash is derived.
+	 * 
+	 * @param url
+	 *            the URL of the Twitter service
+	 * @param username
+	 *            the username
+	 * @param password
+	 *            the password
+	 */
+	public synchronized void put(String url, String username, String password) {
+		String key = createKey(url, username);
+		long expiryTime = System.currentTimeMillis() + expiry;
+		
+		// Keep the stored hash if it is known to be of this password.
+		String value = getSessions().getProperty(key);
+		String verified = verifiedPasswords.get(key);
+		if (value != null && verified != null) {
+			String[] parts = value.split(":");
+			if (parts.length == 4 && verified.equals(digest(parts[2], password))) {
+				getSessions().setProperty(key, expiryTime + ":" + parts[1] + ":" + parts[2] + ":" + parts[3]);
+				store();
+				return;
+			}
+		}
+		
+		byte[] saltBytes = new byte[16];
+		new SecureRandom().nextBytes(saltBytes);
+		String salt = toHex(saltBytes);
+
+		getSessions().setProperty(
+				key,
+				expiryTime + ":" + iterations + ":" + salt + ":"
+				+ hash(salt, iterations, url, username, password));
+		verifiedPasswords.put(key, digest(salt, password));
+		store();
+	}
+
+	/**
+	 * Removes the session for the specified URL and username. This should be
+	 * called whenever a login with the session fails.
+	 * 
+	 * @param url
+	 *            the URL of the Twitter service
+	 * @param username
+	 *            the username
+	 */
+	public synchronized void invalidate(String url, String username) {
+		verifiedPasswords.remove(createKey(url, username));
+		if (getSessions().remove(createKey(url, username)) != null) {
+			store();
+		}
+	}
+
+	/**
+	 * Returns the sessions, loading them from the file if needed.
+	 * 
+	 * @return the sessions
+	 */
+	private Properties getSessions() {
+		if (sessions == null) {
+			sessions = new Properties();
+			if (file.isFile()) {
+				try {
+					InputStream in = new FileInputStream(file);
+					try {
+						sessions.load(in);
+					} finally {
+						in.close();
+					}
+				} catch (IOException e) {
+					// An unreadable cache is treated as an empty one.
+					sessions.clear();
+				}
+			}
+		}
+		return sessions;
+	}
+
+	/**
+	 * Writes the sessions to the file. Failures are ignored because the cache
+	 * is only an optimization.
+	 */
+	private void store() {
+		try {
+			File parent = file.getParentFile();
+			if (parent != null && !parent.isDirectory() && parent.mkdirs()) {
+				restrictToOwner(parent);
+			}
+
+			// Restrict the file before anything is written to it.
+			if (!file.exists()) {
+				file.createNewFile();
+			}
+			restrictToOwner(file);
+
+			OutputStream out = new FileOutputStream(file);
+			try {
+				sessions.store(out, "MikroCalendar sessions");
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			// Sessions will have to be created from scratch next time.
+		}
+	}
+
+	/**
+	 * Creates the key that a session is stored under.
+	 * 
+	 * @param url
+	 *            the URL of the Twitter service
+	 * @param username
+	 *            the username
+	 * @return the key
+	 */
+	private static String createKey(String url, String username) {
+		return url + " " + username;
+	}
+
+	/**
+	 * Makes a file or directory readable and writable only by its owner.
+	 * Platforms that do not support this leave it as it is.
+	 * 
+	 * @param file
+	 *            the file or directory
+	 */
+	private static void restrictToOwner(File file) {
+		file.setReadable(false, false);
+		file.setReadable(true, true);
+		file.setWritable(false, false);
+		file.setWritable(true, true);
+		if (file.isDirectory()) {
+			file.setExecutable(false, false);
+			file.setExecutable(true, true);
+		}
+	}
+
+	/**
+	 * Returns the PBKDF2 hash of a login's password. The URL and username are
+	 * included in the salt, so that a hash cannot be reused for another
+	 * login.
+	 * 
+	 * @param salt
+	 *            the random salt as a hexadecimal String
+	 * @param iterations
+	 *            the number of PBKDF2 iterations
+	 * @param url
+	 *            the URL of the Twitter service
+	 * @param username
+	 *            the username
+	 * @param password
+	 *            the password
+	 * @return the hash as a hexadecimal String
+	 */
+	private static String hash(String salt, int iterations, String url, String username, String password) {
+		try {
+			PBEKeySpec keySpec = new PBEKeySpec(
+					password.toCharArray(), 
+					(salt + "\n" + url + "\n" + username).getBytes("UTF-8"), 
+					iterations, 
+					HASH_LENGTH);
+			try {
+				return toHex(SecretKeyFactory.getInstance(ALGORITHM).generateSecret(keySpec).getEncoded());
+			} finally {
+				keySpec.clearPassword();
+			}
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns a SHA-256 digest of a password and the salt of a session, which
+	 * is only kept in memory to tell whether a password is the one that has
+	 * been checked.
+	 * 
+	 * @param salt
+	 *            the random salt as a hexadecimal String
+	 * @param password
+	 *            the password
+	 * @return the digest as a hexadecimal String
+	 */
+	private static String digest(String salt, String password) {
+		try {
+			return toHex(MessageDigest.getInstance("SHA-256").digest(
+					(salt + "\n" + password).getBytes("UTF-8")));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns the hexadecimal representation of the specified bytes.
+	 * 
+	 * @param bytes
+	 *            the bytes
+	 * @return the hexadecimal String
+	 */
+	private static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+			hex.append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+}
@@ -0,0 +1,215 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.twitter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * This class is the HTTP transport to a single {@link TwitterService}. It
+ * limits how many requests are made to the service at once, and opens
+ * connections that ask for compressed responses and are returned to the
+ * JVM's keep-alive cache once their response has been read, so that every
+ * login to the same service shares the same connections and TLS sessions.
+ * <p>
+ * Transports are shared through the {@link TwitterTransportRegistry}.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class TwitterTransport {
+
+	/**
+	 * The number of milliseconds to wait for the service to respond.
+	 */
+	private static final int TIMEOUT = 3000;
+
+	/**
+	 * The URL of the Twitter service.
+	 */
+	private final String url;
+
+	/**
+	 * The permits for requests to the Twitter service.
+	 */
+	private final Semaphore permits;
+
+	/**
+	 * Creates a new {@link TwitterTransport}.
+	 * 
+	 * @param url
+	 *            the URL of the Twitter service
+	 * @param maxConcurrentRequests
+	 *            the maximum number of requests to make to the service at
+	 *            once
+	 */
+	TwitterTransport(String url, int maxConcurrentRequests) {
+		if (url == null) {
+			throw new IllegalArgumentException("URL cannot be null.");
+		}
+
+		this.url = url;
+		this.permits = new Semaphore(Math.max(1, maxConcurrentRequests), true);
+	}
+
+	/**
+	 * Returns the URL of the Twitter service.
+	 * 
+	 * @return the URL
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Runs a request to the Twitter service once fewer than the maximum
+	 * number of requests are in progress.
+	 * 
+	 * @param <T>
+	 *            the type of result of the request
+	 * @param request
+	 *            the request
+	 * @return the result of the request
+	 * @throws Exception
+	 *             Thrown if the request fails, or if the thread is
+	 *             interrupted while waiting for its turn.
+	 */
+	public <T> T execute(Callable<T> request) throws Exception {
+		permits.acquire();
+		try {
+			return request.call();
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Connects to the Twitter service and completes a TLS handshake with it,
+	 * so that the handshake can be timed apart from the rest of the login.
+	 * The TLS session is cached by the JVM, so the connections that follow
+	 * resume it rather than repeat the full handshake.
+	 * 
+	 * @return the number of nanoseconds the handshake took, or -1 if the
+	 *         service is not reached over HTTPS
+	 * @throws IOException
+	 *             Thrown if the connection or the handshake fails.
+	 */
+	public long handshake() throws IOException {
+		URL serviceUrl = new URL(url);
+		if (!"https".equalsIgnoreCase(serviceUrl.getProtocol())) {
+			return -1L;
+		}
+
+		String host = serviceUrl.getHost();
+		int port = serviceUrl.getPort() != -1 ? serviceUrl.getPort() : serviceUrl.getDefaultPort();
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), TIMEOUT);
+			socket.setSoTimeout(TIMEOUT);
+
+			long startTime = System.nanoTime();
+			SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+					.createSocket(socket, host, port, true);
+			sslSocket.startHandshake();
+			long handshakeTime = System.nanoTime() - startTime;
+			sslSocket.close();
+			return handshakeTime;
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Opens a connection to the Twitter service. The connection asks for a
+	 * compressed response, which {@link #getInputStream(URLConnection)}
+	 * decompresses.
+	 * 
+	 * @return the {@link URLConnection}
+	 * @throws IOException
+	 *             Thrown if the connection cannot be opened.
+	 */
+	public URLConnection openConnection() throws IOException {
+		URLConnection connection = new URL(url).openConnection();
+		connection.setConnectTimeout(TIMEOUT);
+		connection.setReadTimeout(TIMEOUT);
+		connection.setUseCaches(false);
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+		return connection;
+	}
+
+	/**
+	 * Returns the response of a connection opened by
+	 * {@link #openConnection()}, decompressing it if needed. Responses without
+	 * a body, such as those to HEAD requests, are never decompressed, because
+	 * an empty body is not valid gzip data even if the server labels it as
+	 * such. An error response is returned as well, so that it can be read and
+	 * the connection reused.
+	 * Closing the returned stream, rather than disconnecting, returns the
+	 * connection to the keep-alive cache.
+	 * 
+	 * @param connection
+	 *            the {@link URLConnection}
+	 * @return the response, or null if there is none
+	 * @throws IOException
+	 *             Thrown if the response cannot be read.
+	 */
+	public static InputStream getInputStream(URLConnection connection) throws IOException {
+		InputStream in;
+		boolean bodyless = false;
+		if (connection instanceof HttpURLConnection) {
+			HttpURLConnection httpConnection = (HttpURLConnection) connection;
+			int responseCode = httpConnection.getResponseCode();
+			in = responseCode >= 400 ? httpConnection.getErrorStream() : httpConnection.getInputStream();
+			bodyless = "HEAD".equals(httpConnection.getRequestMethod())
+					|| responseCode == HttpURLConnection.HTTP_NO_CONTENT
+					|| responseCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+		} else {
+			in = connection.getInputStream();
+		}
+
+		if (in == null || bodyless || connection.getContentLength() == 0
+				|| !"gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+			return in;
+		}
+
+		// The length of a chunked body is not known up front, so check for
+		// an empty body before decompressing it.
+		PushbackInputStream pushbackIn = new PushbackInputStream(in, 1);
+		int first = pushbackIn.read();
+		if (first == -1) {
+			return pushbackIn;
+		}
+		pushbackIn.unread(first);
+		return new GZIPInputStream(pushbackIn);
+	}
+
+}
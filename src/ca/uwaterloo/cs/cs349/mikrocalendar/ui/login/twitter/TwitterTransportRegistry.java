@@ -0,0 +1,114 @@
+/*
+ * MikroCalendar Login Dialog
+ * Login user interface for local and Twitter event systems.
+ * Copyright (C) 2011  Terry Yiu
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ca.uwaterloo.cs.cs349.mikrocalendar.ui.login.twitter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class shares one {@link TwitterTransport} per Twitter service URL
+ * across every login, probe, and warm-up in the process. It also turns on the
+ * JVM's HTTP keep-alive cache and sizes it to match the per-host limit, unless
+ * those settings have been given on the command line. This must happen before
+ * the first connection is made, so every connection to a Twitter service goes
+ * through a {@link TwitterTransport} from {@link #getInstance()}, which creates
+ * the shared registry the first time it is called.
+ * <p>
+ * The maximum number of concurrent requests to each host can be configured
+ * with the <code>mikrocalendar.http.maxPerHost</code> system property.
+ * 
+ * @author Terry Yiu
+ * 
+ */
+public class TwitterTransportRegistry {
+
+	/**
+	 * The default maximum number of concurrent requests to each host.
+	 */
+	private static final int DEFAULT_MAX_PER_HOST = 4;
+
+	/**
+	 * The {@link TwitterTransportRegistry} shared by the whole process.
+	 * 
+	 * @see #getInstance()
+	 */
+	private static final TwitterTransportRegistry instance = new TwitterTransportRegistry(
+			Integer.getInteger("mikrocalendar.http.maxPerHost", DEFAULT_MAX_PER_HOST).intValue());
+
+	/**
+	 * The transports, keyed by the URL of the Twitter service.
+	 */
+	private final ConcurrentMap<String, TwitterTransport> transports = 
+		new ConcurrentHashMap<String, TwitterTransport>();
+
+	/**
+	 * The maximum number of concurrent requests to each host.
+	 */
+	private final int maxPerHost;
+
+	/**
+	 * Creates a new {@link TwitterTransportRegistry}.
+	 * 
+	 * @param maxPerHost
+	 *            the maximum number of concurrent requests to each host
+	 */
+	public TwitterTransportRegistry(int maxPerHost) {
+		this.maxPerHost = maxPerHost;
+
+		// The keep-alive cache reads these once, when it is first used.
+		if (System.getProperty("http.keepAlive") == null) {
+			System.setProperty("http.keepAlive", "true");
+		}
+		if (System.getProperty("http.maxConnections") == null) {
+			System.setProperty("http.maxConnections", String.valueOf(Math.max(1, maxPerHost)));
+		}
+	}
+
+	/**
+	 * Returns the {@link TwitterTransportRegistry} shared by the whole
+	 * process.
+	 * 
+	 * @return the {@link TwitterTransportRegistry}
+	 */
+	public static TwitterTransportRegistry getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the {@link TwitterTransport} for the specified URL, creating it
+	 * if needed.
+	 * 
+	 * @param url
+	 *            the URL of the Twitter service
+	 * @return the {@link TwitterTransport}
+	 */
+	public TwitterTransport getTransport(String url) {
+		TwitterTransport transport = transports.get(url);
+		if (transport == null) {
+			TwitterTransport newTransport = new TwitterTransport(url, maxPerHost);
+			transport = transports.putIfAbsent(url, newTransport);
+			if (transport == null) {
+				transport = newTransport;
+			}
+		}
+		return transport;
+	}
+
+}